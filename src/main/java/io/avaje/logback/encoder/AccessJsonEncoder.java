@@ -0,0 +1,233 @@
+package io.avaje.logback.encoder;
+
+import java.io.ByteArrayOutputStream;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+import ch.qos.logback.core.encoder.EncoderBase;
+import io.avaje.json.PropertyNames;
+import io.avaje.json.mapper.JsonMapper;
+import io.avaje.json.stream.JsonStream;
+
+/**
+ * JSON encoder of HTTP access events with the fields method, uri, status, bytes, elapsed
+ * (millis), remoteAddr and selected request headers.
+ * <p>
+ * This library does not depend on logback-access, so the event type is bound by extending
+ * this encoder and implementing the accessors, for example with {@code IAccessEvent}:
+ *
+ * <pre>{@code
+ *
+ *   public final class AccessEventJsonEncoder extends AccessJsonEncoder<IAccessEvent> {
+ *     protected long timeStamp(IAccessEvent e) { return e.getTimeStamp(); }
+ *     protected String method(IAccessEvent e) { return e.getMethod(); }
+ *     protected String requestUri(IAccessEvent e) { return e.getRequestURI(); }
+ *     protected int status(IAccessEvent e) { return e.getStatusCode(); }
+ *     protected long contentLength(IAccessEvent e) { return e.getContentLength(); }
+ *     protected long elapsedTime(IAccessEvent e) { return e.getElapsedTime(); }
+ *     protected String remoteAddr(IAccessEvent e) { return e.getRemoteAddr(); }
+ *     protected String requestHeader(IAccessEvent e, String name) { return e.getRequestHeader(name); }
+ *   }
+ *
+ * }</pre>
+ * <p>
+ * As with JsonEncoder the component, env and custom fields are encoded once on start.
+ * The formatted timestamp is cached such that events in the same millisecond share it.
+ */
+public abstract class AccessJsonEncoder<E> extends EncoderBase<E> {
+
+  private static final byte[] EMPTY_BYTES = {};
+  private final JsonStream json;
+  private final Map<String, String> customFieldsMap = new HashMap<>();
+  private final PropertyNames properties;
+  private final List<String> headers = new ArrayList<>();
+  private DateTimeFormatter formatter;
+  private TimeZone timeZone = TimeZone.getDefault();
+  /** Null implies default of ISO_OFFSET_DATE_TIME */
+  private String timestampPattern;
+  private String component;
+  private String environment;
+  private String[] headerNames;
+  private volatile CachedTimestamp cachedTimestamp = new CachedTimestamp(Long.MIN_VALUE, "");
+
+  protected AccessJsonEncoder() {
+    this.json = JsonStream.builder().build();
+    this.properties = json.properties("component", "env", "timestamp", "method", "uri", "status", "bytes", "elapsed", "remoteAddr");
+    this.component = Eval.defaultComponent();
+    this.environment = System.getenv("ENVIRONMENT");
+  }
+
+  /**
+   * Return the event time in epoch millis.
+   */
+  protected abstract long timeStamp(E event);
+
+  /**
+   * Return the request method.
+   */
+  protected abstract String method(E event);
+
+  /**
+   * Return the request uri.
+   */
+  protected abstract String requestUri(E event);
+
+  /**
+   * Return the response status code.
+   */
+  protected abstract int status(E event);
+
+  /**
+   * Return the response content length in bytes.
+   */
+  protected abstract long contentLength(E event);
+
+  /**
+   * Return the elapsed time in millis.
+   */
+  protected abstract long elapsedTime(E event);
+
+  /**
+   * Return the remote address.
+   */
+  protected abstract String remoteAddr(E event);
+
+  /**
+   * Return the request header value or null.
+   */
+  protected abstract String requestHeader(E event, String name);
+
+  @Override
+  public void start() {
+    formatter = TimeZoneUtils.formatter(timestampPattern, timeZone.toZoneId());
+    headerNames = headers.toArray(new String[0]);
+    super.start();
+  }
+
+  @Override
+  public byte[] headerBytes() {
+    return EMPTY_BYTES;
+  }
+
+  @Override
+  public byte[] footerBytes() {
+    return EMPTY_BYTES;
+  }
+
+  @Override
+  public byte[] encode(E event) {
+    final String uri = requestUri(event);
+    final var outputStream = new ByteArrayOutputStream(200 + (uri == null ? 0 : uri.length()) + 60 * headerNames.length);
+    try (var writer = json.writer(outputStream)) {
+      writer.beginObject(properties);
+      if (component != null) {
+        writer.name(0);
+        writer.value(component);
+      }
+      if (environment != null) {
+        writer.name(1);
+        writer.value(environment);
+      }
+      writer.name(2);
+      writer.value(timestamp(timeStamp(event)));
+      writer.name(3);
+      writer.value(method(event));
+      writer.name(4);
+      writer.value(uri);
+      writer.name(5);
+      writer.value(status(event));
+      writer.name(6);
+      writer.value(contentLength(event));
+      writer.name(7);
+      writer.value(elapsedTime(event));
+      writer.name(8);
+      writer.value(remoteAddr(event));
+      customFieldsMap.forEach((k, v) -> {
+        writer.name(k);
+        writer.rawValue(v);
+      });
+      if (headerNames.length > 0) {
+        writer.name("headers");
+        writer.beginObject();
+        for (String headerName : headerNames) {
+          final String value = requestHeader(event, headerName);
+          if (value != null) {
+            writer.name(headerName);
+            writer.value(value);
+          }
+        }
+        writer.endObject();
+      }
+      writer.endObject();
+      writer.writeNewLine();
+    }
+    return outputStream.toByteArray();
+  }
+
+  private String timestamp(long millis) {
+    final CachedTimestamp cached = cachedTimestamp;
+    if (cached.millis == millis) {
+      return cached.formatted;
+    }
+    final String formatted = formatter.format(Instant.ofEpochMilli(millis));
+    cachedTimestamp = new CachedTimestamp(millis, formatted);
+    return formatted;
+  }
+
+  /**
+   * Add request headers to include, comma delimited like {@code User-Agent,Referer}.
+   */
+  public void setIncludeHeaders(String includeHeaders) {
+    for (String header : includeHeaders.split(",")) {
+      if (!header.isBlank()) {
+        headers.add(header.trim().toLowerCase(Locale.ROOT));
+      }
+    }
+  }
+
+  public void setComponent(String component) {
+    this.component = Eval.eval(component);
+  }
+
+  public void setEnvironment(String environment) {
+    this.environment = Eval.eval(environment);
+  }
+
+  public void setCustomFields(String customFields) {
+    if (customFields == null || customFields.isBlank()) {
+      return;
+    }
+    var mapper = JsonMapper.builder().jsonStream(json).build();
+    mapper.map().fromJson(customFields).forEach((key, value) -> {
+      if (value instanceof String) {
+        value = Eval.eval((String) value);
+      }
+      customFieldsMap.put(key, mapper.toJson(value));
+    });
+  }
+
+  public void setTimestampPattern(String pattern) {
+    this.timestampPattern = pattern;
+  }
+
+  public void setTimeZone(String timeZone) {
+    this.timeZone = TimeZoneUtils.parseTimeZone(timeZone);
+  }
+
+  private static final class CachedTimestamp {
+
+    final long millis;
+    final String formatted;
+
+    CachedTimestamp(long millis, String formatted) {
+      this.millis = millis;
+      this.formatted = formatted;
+    }
+  }
+}
@@ -0,0 +1,31 @@
+package io.avaje.logback.encoder;
+
+/**
+ * Encoder that frames a batch of encoded events, like a JSON array, rather than
+ * relying on newline delimited events.
+ * <p>
+ * Batching appenders write the header, the events with the separator between them
+ * and then the footer as the body of each batch.
+ */
+interface BatchFraming {
+
+  /**
+   * Return the bytes written before the first event of a batch.
+   */
+  byte[] batchHeader();
+
+  /**
+   * Return the bytes written between events of a batch.
+   */
+  byte[] batchSeparator();
+
+  /**
+   * Return the bytes written after the last event of a batch.
+   */
+  byte[] batchFooter();
+
+  /**
+   * Return the content type of the batch.
+   */
+  String batchContentType();
+}
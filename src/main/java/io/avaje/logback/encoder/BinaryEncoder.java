@@ -0,0 +1,164 @@
+package io.avaje.logback.encoder;
+
+import java.util.Map;
+
+import ch.qos.logback.classic.pattern.ThrowableHandlingConverter;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.encoder.EncoderBase;
+import io.avaje.json.mapper.JsonMapper;
+
+/**
+ * Base of binary encoders that write a map with the same fields as JsonEncoder.
+ * <p>
+ * The keys and the static values (component, env and custom fields) are encoded once on
+ * start and copied as is. The timestamp is written as epoch milliseconds.
+ */
+abstract class BinaryEncoder extends EncoderBase<ILoggingEvent> {
+
+  private static final byte[] EMPTY_BYTES = {};
+
+  private final EventFields eventFields = new EventFields();
+  private String component;
+  private String environment;
+
+  private byte[] keyTimestamp;
+  private byte[] keyLevel;
+  private byte[] keyLogger;
+  private byte[] keyMessage;
+  private byte[] keyThread;
+  private byte[] keyStackHash;
+  private byte[] keyStackTrace;
+  /** The pre-encoded component, env and custom field entries. */
+  private byte[] staticEntries;
+  private int staticCount;
+
+  BinaryEncoder() {
+    this.component = Eval.defaultComponent();
+    this.environment = System.getenv("ENVIRONMENT");
+  }
+
+  /**
+   * Create a writer for the binary format.
+   */
+  abstract BinaryWriter writer(int initialCapacity);
+
+  @Override
+  public void start() {
+    keyTimestamp = encodeString("timestamp");
+    keyLevel = encodeString("level");
+    keyLogger = encodeString("logger");
+    keyMessage = encodeString("message");
+    keyThread = encodeString("thread");
+    keyStackHash = encodeString("stackhash");
+    keyStackTrace = encodeString("stacktrace");
+    final BinaryWriter entries = writer(128);
+    staticCount = 0;
+    if (component != null) {
+      entries.writeString("component");
+      entries.writeString(component);
+      staticCount++;
+    }
+    if (environment != null) {
+      entries.writeString("env");
+      entries.writeString(environment);
+      staticCount++;
+    }
+    for (Map.Entry<String, Object> entry : eventFields.customValues().entrySet()) {
+      entries.writeString(entry.getKey());
+      entries.writeValue(entry.getValue());
+      staticCount++;
+    }
+    staticEntries = entries.toByteArray();
+    eventFields.start();
+    super.start();
+  }
+
+  private byte[] encodeString(String value) {
+    final BinaryWriter writer = writer(value.length() + 2);
+    writer.writeString(value);
+    return writer.toByteArray();
+  }
+
+  @Override
+  public void stop() {
+    super.stop();
+    eventFields.stop();
+  }
+
+  @Override
+  public byte[] headerBytes() {
+    return EMPTY_BYTES;
+  }
+
+  @Override
+  public byte[] footerBytes() {
+    return EMPTY_BYTES;
+  }
+
+  @Override
+  public byte[] encode(ILoggingEvent event) {
+    final String stackTraceBody = eventFields.stackTrace(event);
+    final String threadName = event.getThreadName();
+    final String message = event.getFormattedMessage();
+    final String loggerName = event.getLoggerName();
+    final Map<String, String> mdc = event.getMDCPropertyMap();
+    final String stackHash = eventFields.stackHash(event, stackTraceBody);
+    int size = staticCount + 5 + mdc.size();
+    if (stackHash != null) {
+      size++;
+    }
+    if (!stackTraceBody.isEmpty()) {
+      size++;
+    }
+    final int capacity = 80 + staticEntries.length + stackTraceBody.length() + message.length() + threadName.length() + loggerName.length();
+    final BinaryWriter writer = writer(capacity);
+    writer.mapHeader(size);
+    writer.writeRaw(staticEntries);
+    writer.writeRaw(keyTimestamp);
+    writer.writeLong(event.getTimeStamp());
+    writer.writeRaw(keyLevel);
+    writer.writeString(event.getLevel().toString());
+    writer.writeRaw(keyLogger);
+    writer.writeString(loggerName);
+    writer.writeRaw(keyMessage);
+    writer.writeString(message);
+    writer.writeRaw(keyThread);
+    writer.writeString(threadName);
+    if (stackHash != null) {
+      writer.writeRaw(keyStackHash);
+      writer.writeString(stackHash);
+    }
+    if (!stackTraceBody.isEmpty()) {
+      writer.writeRaw(keyStackTrace);
+      writer.writeString(stackTraceBody);
+    }
+    mdc.forEach((k, v) -> {
+      writer.writeString(k);
+      writer.writeValue(v);
+    });
+    return writer.toByteArray();
+  }
+
+  public void setIncludeStackHash(boolean includeStackHash) {
+    eventFields.setIncludeStackHash(includeStackHash);
+  }
+
+  public void setComponent(String component) {
+    this.component = Eval.eval(component);
+  }
+
+  public void setEnvironment(String environment) {
+    this.environment = Eval.eval(environment);
+  }
+
+  public void setThrowableConverter(ThrowableHandlingConverter throwableConverter) {
+    eventFields.setThrowableConverter(throwableConverter);
+  }
+
+  /**
+   * Set custom fields as JSON like {@code {"region":"us-east"}} that are added to each event.
+   */
+  public void setCustomFields(String customFields) {
+    eventFields.addCustomFields(JsonMapper.builder().build(), customFields, key -> key);
+  }
+}
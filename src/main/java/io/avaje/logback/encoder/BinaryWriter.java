@@ -0,0 +1,112 @@
+package io.avaje.logback.encoder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Growable byte buffer with the primitives of a binary format like CBOR or MessagePack.
+ */
+abstract class BinaryWriter {
+
+  protected byte[] buffer;
+  protected int count;
+
+  BinaryWriter(int initialCapacity) {
+    this.buffer = new byte[Math.max(16, initialCapacity)];
+  }
+
+  /**
+   * Write the header of a map with the given number of entries.
+   */
+  abstract void mapHeader(int size);
+
+  /**
+   * Write the header of an array with the given number of elements.
+   */
+  abstract void arrayHeader(int size);
+
+  /**
+   * Write the header of a UTF-8 string with the given length in bytes.
+   */
+  abstract void stringHeader(int length);
+
+  abstract void writeLong(long value);
+
+  abstract void writeDouble(double value);
+
+  abstract void writeBoolean(boolean value);
+
+  abstract void writeNull();
+
+  final void writeString(String value) {
+    final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    stringHeader(bytes.length);
+    writeRaw(bytes);
+  }
+
+  /**
+   * Write pre-encoded bytes like a key or a value encoded once on start.
+   */
+  final void writeRaw(byte[] bytes) {
+    ensure(bytes.length);
+    System.arraycopy(bytes, 0, buffer, count, bytes.length);
+    count += bytes.length;
+  }
+
+  /**
+   * Write a value as parsed from JSON (String, Number, Boolean, Map, List or null).
+   */
+  final void writeValue(Object value) {
+    if (value == null) {
+      writeNull();
+    } else if (value instanceof String) {
+      writeString((String) value);
+    } else if (value instanceof Boolean) {
+      writeBoolean((Boolean) value);
+    } else if (value instanceof Double || value instanceof Float) {
+      writeDouble(((Number) value).doubleValue());
+    } else if (value instanceof Number) {
+      writeLong(((Number) value).longValue());
+    } else if (value instanceof Map) {
+      final Map<?, ?> map = (Map<?, ?>) value;
+      mapHeader(map.size());
+      map.forEach((k, v) -> {
+        writeString(String.valueOf(k));
+        writeValue(v);
+      });
+    } else if (value instanceof List) {
+      final List<?> list = (List<?>) value;
+      arrayHeader(list.size());
+      list.forEach(this::writeValue);
+    } else {
+      writeString(value.toString());
+    }
+  }
+
+  final void write(int b) {
+    ensure(1);
+    buffer[count++] = (byte) b;
+  }
+
+  /**
+   * Write the value big endian in the given number of bytes.
+   */
+  final void writeBigEndian(long value, int bytes) {
+    ensure(bytes);
+    for (int i = bytes - 1; i >= 0; i--) {
+      buffer[count++] = (byte) (value >>> (i * 8));
+    }
+  }
+
+  private void ensure(int extra) {
+    if (count + extra > buffer.length) {
+      buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, count + extra));
+    }
+  }
+
+  final byte[] toByteArray() {
+    return Arrays.copyOf(buffer, count);
+  }
+}
@@ -0,0 +1,110 @@
+package io.avaje.logback.encoder;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pre-encoded Elasticsearch {@code _bulk} action line written before each document.
+ * <p>
+ * The action line like {@code {"index":{"_index":"logs-app-2024.05.01"}}} only changes when
+ * the event date changes so the encoded bytes are cached per day and copied as is.
+ * <p>
+ * With includeId the {@code _id} is made of the event timestamp, the stack hash (when
+ * present) and an instance id plus sequence that make it unique per encoder. The id is
+ * part of the encoded bytes such that resending the same batch does not duplicate
+ * documents.
+ */
+final class BulkActionLine {
+
+  private static final byte[] ID_START = ",\"_id\":\"".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] END = "}}\n".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] ID_END = "\"}}\n".getBytes(StandardCharsets.UTF_8);
+
+  private final String action;
+  private final String index;
+  private final DateTimeFormatter dateFormat;
+  private final ZoneId zoneId;
+  private final boolean includeId;
+  private final String instanceId;
+  private final AtomicLong sequence = new AtomicLong();
+  private volatile Day day;
+
+  /**
+   * Create with the bulk action, index name and optional date suffix pattern.
+   *
+   * @param action      the bulk action, {@code index} or {@code create} for data streams
+   * @param index       the index name, suffixed with {@code -<date>} when a date pattern is used
+   * @param datePattern the date pattern of the index suffix, null for no suffix
+   * @param zoneId      the zone of the event date
+   * @param includeId   when true include an {@code _id}
+   */
+  BulkActionLine(String action, String index, String datePattern, ZoneId zoneId, boolean includeId) {
+    this.action = action;
+    this.index = index;
+    this.dateFormat = datePattern == null || datePattern.isBlank() ? null : DateTimeFormatter.ofPattern(datePattern);
+    this.zoneId = zoneId;
+    this.includeId = includeId;
+    this.instanceId = Integer.toHexString(ThreadLocalRandom.current().nextInt());
+  }
+
+  /**
+   * Write the action line for the event to the output.
+   */
+  void write(ByteArrayOutputStream out, long timestamp, String stackHash) {
+    Day current = day;
+    if (current == null || !current.contains(timestamp)) {
+      current = day(timestamp);
+      day = current;
+    }
+    out.writeBytes(current.prefix);
+    if (!includeId) {
+      out.writeBytes(END);
+      return;
+    }
+    out.writeBytes(ID_START);
+    final StringBuilder id = new StringBuilder(40).append(Long.toHexString(timestamp)).append('-');
+    if (stackHash != null) {
+      id.append(stackHash).append('-');
+    }
+    id.append(instanceId).append('-').append(Long.toHexString(sequence.getAndIncrement()));
+    out.writeBytes(id.toString().getBytes(StandardCharsets.US_ASCII));
+    out.writeBytes(ID_END);
+  }
+
+  private Day day(long timestamp) {
+    if (dateFormat == null) {
+      return new Day(Long.MIN_VALUE, Long.MAX_VALUE, prefix(index));
+    }
+    final LocalDate date = Instant.ofEpochMilli(timestamp).atZone(zoneId).toLocalDate();
+    final long start = date.atStartOfDay(zoneId).toInstant().toEpochMilli();
+    final long end = date.plusDays(1).atStartOfDay(zoneId).toInstant().toEpochMilli();
+    return new Day(start, end, prefix(index + '-' + dateFormat.format(date)));
+  }
+
+  private byte[] prefix(String indexName) {
+    return ("{\"" + action + "\":{\"_index\":\"" + indexName + "\"").getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static final class Day {
+
+    private final long start;
+    private final long end;
+    private final byte[] prefix;
+
+    Day(long start, long end, byte[] prefix) {
+      this.start = start;
+      this.end = end;
+      this.prefix = prefix;
+    }
+
+    boolean contains(long timestamp) {
+      return timestamp >= start && timestamp < end;
+    }
+  }
+}
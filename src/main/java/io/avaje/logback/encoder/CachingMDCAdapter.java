@@ -0,0 +1,67 @@
+package io.avaje.logback.encoder;
+
+import java.util.Map;
+
+import ch.qos.logback.classic.util.LogbackMDCAdapter;
+
+/**
+ * MDCAdapter that shares an immutable snapshot of the MDC, with its JSON encoded once,
+ * between the events logged while the MDC is unchanged.
+ * <p>
+ * Logging events capture the snapshot (rather than a copy) and it is replaced when the MDC
+ * changes, so events processed asynchronously see the MDC as it was when logged. The
+ * snapshot is held per thread like the MDC itself, including for virtual threads.
+ * <p>
+ * Use via {@link CachingMDCServiceProvider}, or set on a LoggerContext that is not the
+ * SLF4J default.
+ */
+public class CachingMDCAdapter extends LogbackMDCAdapter {
+
+  private final ThreadLocal<MDCSnapshot> snapshot = new ThreadLocal<>();
+
+  @Override
+  public void put(String key, String val) throws IllegalArgumentException {
+    super.put(key, val);
+    snapshot.remove();
+  }
+
+  @Override
+  public void remove(String key) {
+    super.remove(key);
+    snapshot.remove();
+  }
+
+  @Override
+  public void clear() {
+    super.clear();
+    snapshot.remove();
+  }
+
+  @SuppressWarnings("rawtypes")
+  @Override
+  public void setContextMap(Map contextMap) {
+    super.setContextMap(contextMap);
+    snapshot.remove();
+  }
+
+  /** Declares the generic type, LogbackMDCAdapter returns a raw Map. */
+  @SuppressWarnings("unchecked")
+  @Override
+  public Map<String, String> getCopyOfContextMap() {
+    return super.getCopyOfContextMap();
+  }
+
+  @Override
+  public Map<String, String> getPropertyMap() {
+    MDCSnapshot current = snapshot.get();
+    if (current == null) {
+      final Map<String, String> map = super.getPropertyMap();
+      if (map == null) {
+        return null;
+      }
+      current = new MDCSnapshot(map);
+      snapshot.set(current);
+    }
+    return current;
+  }
+}
@@ -0,0 +1,52 @@
+package io.avaje.logback.encoder;
+
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LogbackServiceProvider;
+import ch.qos.logback.classic.util.ContextInitializer;
+import ch.qos.logback.core.CoreConstants;
+import ch.qos.logback.core.joran.spi.JoranException;
+import ch.qos.logback.core.status.ErrorStatus;
+import ch.qos.logback.core.status.StatusUtil;
+import ch.qos.logback.core.util.StatusPrinter2;
+import org.slf4j.ILoggerFactory;
+import org.slf4j.spi.MDCAdapter;
+
+/**
+ * SLF4J service provider that is logback with the {@link CachingMDCAdapter}.
+ * <p>
+ * Select it with the system property
+ * {@code -Dslf4j.provider=io.avaje.logback.encoder.CachingMDCServiceProvider}.
+ * <p>
+ * The logger context is initialized here rather than by LogbackServiceProvider, as that sets
+ * its own MDC adapter which logback allows to be set only once.
+ */
+public class CachingMDCServiceProvider extends LogbackServiceProvider {
+
+  private final CachingMDCAdapter mdcAdapter = new CachingMDCAdapter();
+  private final LoggerContext loggerContext = new LoggerContext();
+
+  @Override
+  public void initialize() {
+    loggerContext.setName(CoreConstants.DEFAULT_CONTEXT_NAME);
+    loggerContext.setMDCAdapter(mdcAdapter);
+    try {
+      new ContextInitializer(loggerContext).autoConfig();
+    } catch (JoranException e) {
+      loggerContext.getStatusManager().add(new ErrorStatus("Failed to auto configure default logger context", loggerContext, e));
+    }
+    if (!StatusUtil.contextHasStatusListener(loggerContext)) {
+      new StatusPrinter2().printInCaseOfErrorsOrWarnings(loggerContext);
+    }
+    loggerContext.start();
+  }
+
+  @Override
+  public ILoggerFactory getLoggerFactory() {
+    return loggerContext;
+  }
+
+  @Override
+  public MDCAdapter getMDCAdapter() {
+    return mdcAdapter;
+  }
+}
@@ -0,0 +1,94 @@
+package io.avaje.logback.encoder;
+
+import java.util.stream.Stream;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+
+/**
+ * Finds the caller of the logger and caches its encoded JSON per call site.
+ * <p>
+ * The stack is walked with StackWalker which only materialises the frames visited, stopping at
+ * the first frame after the logger. The encoded caller like
+ * {@code {"class":"org.foo.Bar","method":"run","file":"Bar.java","line":42}} is cached by
+ * class, method and bytecode index in a fixed size direct mapped cache.
+ * <p>
+ * Events that already have caller data, for example from AsyncAppender with includeCallerData,
+ * use that. Otherwise the caller is only found when encoding on the logging thread.
+ */
+final class CallerFrames {
+
+  private static final int SIZE = 1024;
+  private static final String LOGGER_CLASS = "ch.qos.logback.classic.Logger";
+  private static final StackWalker WALKER = StackWalker.getInstance();
+
+  private final Entry[] cache = new Entry[SIZE];
+
+  /**
+   * Return the caller as a JSON object, null when it is not found.
+   */
+  String json(ILoggingEvent event) {
+    if (event.hasCallerData()) {
+      final StackTraceElement[] callerData = event.getCallerData();
+      if (callerData.length == 0) {
+        return null;
+      }
+      final StackTraceElement element = callerData[0];
+      return encode(element.getClassName(), element.getMethodName(), element.getFileName(), element.getLineNumber());
+    }
+    final StackWalker.StackFrame frame = WALKER.walk(CallerFrames::caller);
+    if (frame == null) {
+      return null;
+    }
+    final String className = frame.getClassName();
+    final String methodName = frame.getMethodName();
+    final int bci = frame.getByteCodeIndex();
+    final int slot = (31 * (31 * className.hashCode() + methodName.hashCode()) + bci) & (SIZE - 1);
+    final Entry entry = cache[slot];
+    if (entry != null && entry.bci == bci && entry.className.equals(className) && entry.methodName.equals(methodName)) {
+      return entry.json;
+    }
+    final String json = encode(className, methodName, frame.getFileName(), frame.getLineNumber());
+    // entries are immutable so a racing write only costs a recompute
+    cache[slot] = new Entry(className, methodName, bci, json);
+    return json;
+  }
+
+  private static StackWalker.StackFrame caller(Stream<StackWalker.StackFrame> frames) {
+    return frames
+      .dropWhile(frame -> !LOGGER_CLASS.equals(frame.getClassName()))
+      .filter(frame -> !isFramework(frame.getClassName()))
+      .findFirst()
+      .orElse(null);
+  }
+
+  private static boolean isFramework(String className) {
+    return className.startsWith("ch.qos.logback.") || className.startsWith("org.slf4j.");
+  }
+
+  private static String encode(String className, String methodName, String fileName, int line) {
+    final StringBuilder sb = new StringBuilder(64 + className.length()).append("{\"class\":");
+    JsonEscape.appendString(sb, className);
+    sb.append(",\"method\":");
+    JsonEscape.appendString(sb, methodName);
+    if (fileName != null) {
+      sb.append(",\"file\":");
+      JsonEscape.appendString(sb, fileName);
+    }
+    return sb.append(",\"line\":").append(line).append('}').toString();
+  }
+
+  private static final class Entry {
+
+    final String className;
+    final String methodName;
+    final int bci;
+    final String json;
+
+    Entry(String className, String methodName, int bci, String json) {
+      this.className = className;
+      this.methodName = methodName;
+      this.bci = bci;
+      this.json = json;
+    }
+  }
+}
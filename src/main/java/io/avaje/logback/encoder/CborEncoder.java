@@ -0,0 +1,15 @@
+package io.avaje.logback.encoder;
+
+/**
+ * Encoder of CBOR maps with the same fields as JsonEncoder.
+ * <p>
+ * Events are written as a CBOR sequence (RFC 8742) of maps with the timestamp as
+ * epoch milliseconds.
+ */
+public final class CborEncoder extends BinaryEncoder {
+
+  @Override
+  BinaryWriter writer(int initialCapacity) {
+    return new CborWriter(initialCapacity);
+  }
+}
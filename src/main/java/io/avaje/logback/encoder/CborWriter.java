@@ -0,0 +1,75 @@
+package io.avaje.logback.encoder;
+
+/**
+ * CBOR (RFC 8949) primitives using the shortest form of each header.
+ */
+final class CborWriter extends BinaryWriter {
+
+  private static final int UNSIGNED = 0;
+  private static final int NEGATIVE = 1 << 5;
+  private static final int TEXT = 3 << 5;
+  private static final int ARRAY = 4 << 5;
+  private static final int MAP = 5 << 5;
+
+  CborWriter(int initialCapacity) {
+    super(initialCapacity);
+  }
+
+  private void header(int majorType, long value) {
+    if (value < 24) {
+      write(majorType | (int) value);
+    } else if (value < 0x100) {
+      write(majorType | 24);
+      write((int) value);
+    } else if (value < 0x10000) {
+      write(majorType | 25);
+      writeBigEndian(value, 2);
+    } else if (value < 0x100000000L) {
+      write(majorType | 26);
+      writeBigEndian(value, 4);
+    } else {
+      write(majorType | 27);
+      writeBigEndian(value, 8);
+    }
+  }
+
+  @Override
+  void mapHeader(int size) {
+    header(MAP, size);
+  }
+
+  @Override
+  void arrayHeader(int size) {
+    header(ARRAY, size);
+  }
+
+  @Override
+  void stringHeader(int length) {
+    header(TEXT, length);
+  }
+
+  @Override
+  void writeLong(long value) {
+    if (value >= 0) {
+      header(UNSIGNED, value);
+    } else {
+      header(NEGATIVE, -1 - value);
+    }
+  }
+
+  @Override
+  void writeDouble(double value) {
+    write(0xFB);
+    writeBigEndian(Double.doubleToLongBits(value), 8);
+  }
+
+  @Override
+  void writeBoolean(boolean value) {
+    write(value ? 0xF5 : 0xF4);
+  }
+
+  @Override
+  void writeNull() {
+    write(0xF6);
+  }
+}
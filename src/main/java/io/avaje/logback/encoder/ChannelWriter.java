@@ -0,0 +1,123 @@
+package io.avaje.logback.encoder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Writes encoded events to a channel using gathering writes of batched buffers.
+ * <p>
+ * Writers add their bytes to a bounded queue and then take the lock to drain it. The
+ * lock holder writes the queued buffers (including those added by other threads) using
+ * {@link GatheringByteChannel#write(ByteBuffer[], int, int)} so contending writers are
+ * combined into a single write call. A writer that finds its bytes already written when
+ * it gets the lock returns without writing.
+ * <p>
+ * Each lock holder drains at most {@code MAX_DRAIN} batches before releasing the lock, so
+ * one thread does not write everyone else's events indefinitely. A write only returns once
+ * its bytes have been written, and when the queue is full writers wait for the lock and
+ * drain, giving backpressure when the channel is slow. The lock is a ReentrantLock rather
+ * than a monitor so waiting does not pin virtual threads.
+ */
+final class ChannelWriter {
+
+  private static final int MAX_BATCH = 64;
+  private static final int MAX_DRAIN = 16;
+
+  private final GatheringByteChannel channel;
+  private final BlockingQueue<ByteBuffer> queue;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final ByteBuffer[] batch = new ByteBuffer[MAX_BATCH];
+
+  ChannelWriter(GatheringByteChannel channel) {
+    this(channel, 8192);
+  }
+
+  ChannelWriter(GatheringByteChannel channel, int capacity) {
+    this.channel = channel;
+    this.queue = new ArrayBlockingQueue<>(capacity);
+  }
+
+  /**
+   * Write the bytes to the channel, potentially combined with bytes from other writers.
+   */
+  void write(byte[] bytes) throws IOException {
+    final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    while (!queue.offer(buffer)) {
+      drainLocked();
+    }
+    while (true) {
+      lock.lock();
+      try {
+        if (!buffer.hasRemaining()) {
+          return;
+        }
+        if (queue.isEmpty()) {
+          // was in a batch that failed to write on another thread
+          throw new IOException("Failed to write to channel");
+        }
+        drainQueue();
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Drain all the queued buffers, waiting for any other thread draining.
+   */
+  void drain() throws IOException {
+    while (!queue.isEmpty()) {
+      drainLocked();
+    }
+  }
+
+  private void drainLocked() throws IOException {
+    lock.lock();
+    try {
+      drainQueue();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void drainQueue() throws IOException {
+    int count;
+    int batches = 0;
+    while (batches++ < MAX_DRAIN && (count = fillBatch()) > 0) {
+      try {
+        writeFully(count);
+      } finally {
+        clearBatch(count);
+      }
+    }
+  }
+
+  private int fillBatch() {
+    int count = 0;
+    ByteBuffer buffer;
+    while (count < MAX_BATCH && (buffer = queue.poll()) != null) {
+      batch[count++] = buffer;
+    }
+    return count;
+  }
+
+  private void writeFully(int count) throws IOException {
+    int offset = 0;
+    while (offset < count) {
+      channel.write(batch, offset, count - offset);
+      while (offset < count && !batch[offset].hasRemaining()) {
+        offset++;
+      }
+    }
+  }
+
+  private void clearBatch(int count) {
+    for (int i = 0; i < count; i++) {
+      batch[i] = null;
+    }
+  }
+}
@@ -0,0 +1,211 @@
+package io.avaje.logback.encoder;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+import io.avaje.json.PropertyNames;
+import io.avaje.json.mapper.JsonMapper;
+import io.avaje.json.stream.JsonStream;
+
+/**
+ * Expands the stream of {@link CompactJsonEncoder} back to the JSON of {@link JsonEncoder}.
+ * <p>
+ * With concurrent loggers an event can be written ahead of the dictionary entry that another
+ * event added, so events with unknown ids are held (in order) until the entry arrives. As ids
+ * are never reused an event encoded before a dictionary reset can also be written after the
+ * header, so the entries from before the last header are kept for such events. Ids that are
+ * still unknown when more than 1000 events are held or at the end of the stream are written
+ * as {@code #id}.
+ *
+ * <pre>{@code
+ *
+ *   CompactJsonDecoder decoder = new CompactJsonDecoder();
+ *   decoder.setTimeZone("UTC");
+ *   decoder.decode(compactInput, jsonOutput);
+ *
+ * }</pre>
+ */
+public final class CompactJsonDecoder {
+
+  private static final int MAX_PENDING = 1000;
+
+  private final JsonStream json;
+  private final JsonMapper mapper;
+  private final PropertyNames properties;
+  private Map<Long, String> dictionary = new HashMap<>();
+  /** The entries from before the last header. */
+  private Map<Long, String> previous = Map.of();
+  private final ArrayDeque<List<Object>> pending = new ArrayDeque<>();
+  private DateTimeFormatter formatter;
+  private TimeZone timeZone = TimeZone.getDefault();
+  /** Null implies default of ISO_OFFSET_DATE_TIME */
+  private String timestampPattern;
+  private String component;
+  private String environment;
+  private Map<String, Object> customFields = Map.of();
+
+  public CompactJsonDecoder() {
+    this.json = JsonStream.builder().build();
+    this.mapper = JsonMapper.builder().jsonStream(json).build();
+    this.properties = json.properties("component", "env", "timestamp", "level", "logger", "message", "thread", "stackhash", "stacktrace");
+    this.formatter = TimeZoneUtils.formatter(null, timeZone.toZoneId());
+  }
+
+  /**
+   * Set the timestamp pattern, matching that of the JsonEncoder.
+   */
+  public void setTimestampPattern(String pattern) {
+    this.timestampPattern = pattern;
+    this.formatter = TimeZoneUtils.formatter(timestampPattern, timeZone.toZoneId());
+  }
+
+  /**
+   * Set the time zone, matching that of the JsonEncoder.
+   */
+  public void setTimeZone(String timeZone) {
+    this.timeZone = TimeZoneUtils.parseTimeZone(timeZone);
+    this.formatter = TimeZoneUtils.formatter(timestampPattern, this.timeZone.toZoneId());
+  }
+
+  /**
+   * Decode the compact stream writing newline delimited JSON to the output.
+   */
+  public void decode(InputStream in, OutputStream out) throws IOException {
+    final var reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+    String line;
+    while ((line = reader.readLine()) != null) {
+      if (!line.isBlank()) {
+        decodeLine(line, out);
+      }
+    }
+    flush(out, 0);
+    out.flush();
+  }
+
+  /**
+   * Decode a line of the compact stream writing any events that can be expanded to the output.
+   */
+  void decodeLine(String line, OutputStream out) throws IOException {
+    final List<Object> record = mapper.list().fromJson(line);
+    final Object type = record.get(0);
+    if ("h".equals(type)) {
+      flush(out, pending.size());
+      previous = dictionary;
+      dictionary = new HashMap<>();
+      component = emptyToNull(record.get(1));
+      environment = emptyToNull(record.get(2));
+      @SuppressWarnings("unchecked")
+      Map<String, Object> fields = (Map<String, Object>) record.get(3);
+      customFields = fields;
+    } else if ("d".equals(type)) {
+      dictionary.put(((Number) record.get(1)).longValue(), (String) record.get(2));
+      flush(out, pending.size());
+    } else if (pending.isEmpty() && resolved(record)) {
+      write(record, out);
+    } else {
+      pending.add(record);
+      flush(out, MAX_PENDING);
+    }
+  }
+
+  /**
+   * Write the pending events that are resolved, forcing out the oldest while more than maxPending remain.
+   */
+  private void flush(OutputStream out, int maxPending) throws IOException {
+    while (!pending.isEmpty() && (pending.size() > maxPending || resolved(pending.peek()))) {
+      write(pending.poll(), out);
+    }
+  }
+
+  private boolean resolved(List<Object> event) {
+    for (int i = 1; i < 4; i++) {
+      if (value(event.get(i)) == null) {
+        return false;
+      }
+    }
+    if (event.size() > 5) {
+      final List<?> mdc = (List<?>) event.get(5);
+      for (int i = 0; i < mdc.size(); i += 2) {
+        if (value(mdc.get(i)) == null) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  private String value(Object id) {
+    final long key = ((Number) id).longValue();
+    final String value = dictionary.get(key);
+    return value != null ? value : previous.get(key);
+  }
+
+  private String lookup(Object id) {
+    final String value = value(id);
+    return value != null ? value : "#" + ((Number) id).longValue();
+  }
+
+  private void write(List<Object> event, OutputStream out) throws IOException {
+    final var outputStream = new ByteArrayOutputStream(256);
+    try (var writer = json.writer(outputStream)) {
+      writer.beginObject(properties);
+      if (component != null) {
+        writer.name(0);
+        writer.value(component);
+      }
+      if (environment != null) {
+        writer.name(1);
+        writer.value(environment);
+      }
+      writer.name(2);
+      writer.value(formatter.format(Instant.ofEpochMilli(((Number) event.get(0)).longValue())));
+      writer.name(3);
+      writer.value(lookup(event.get(1)));
+      writer.name(4);
+      writer.value(lookup(event.get(2)));
+      writer.name(5);
+      writer.value((String) event.get(4));
+      writer.name(6);
+      writer.value(lookup(event.get(3)));
+      if (event.size() > 7) {
+        final String stackHash = (String) event.get(6);
+        if (!stackHash.isEmpty()) {
+          writer.name(7);
+          writer.value(stackHash);
+        }
+        writer.name(8);
+        writer.value((String) event.get(7));
+      }
+      customFields.forEach((k, v) -> {
+        writer.name(k);
+        writer.jsonValue(v);
+      });
+      if (event.size() > 5) {
+        final List<?> mdc = (List<?>) event.get(5);
+        for (int i = 0; i < mdc.size(); i += 2) {
+          writer.name(lookup(mdc.get(i)));
+          writer.value((String) mdc.get(i + 1));
+        }
+      }
+      writer.endObject();
+      writer.writeNewLine();
+    }
+    outputStream.writeTo(out);
+  }
+
+  private static String emptyToNull(Object value) {
+    return value == null || "".equals(value) ? null : (String) value;
+  }
+}
@@ -0,0 +1,243 @@
+package io.avaje.logback.encoder;
+
+import java.io.ByteArrayOutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import ch.qos.logback.classic.pattern.ThrowableHandlingConverter;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.ThrowableProxy;
+import ch.qos.logback.core.encoder.EncoderBase;
+import io.avaje.json.JsonWriter;
+import io.avaje.json.mapper.JsonMapper;
+import io.avaje.json.stream.JsonStream;
+
+/**
+ * Encoder of a dictionary compressed NDJSON stream that {@link CompactJsonDecoder} expands
+ * back to the JSON of {@link JsonEncoder}.
+ * <p>
+ * Each line is a JSON array of one of:
+ * <ul>
+ *   <li>{@code ["h",component,env,{customFields}]} - header that starts a new dictionary</li>
+ *   <li>{@code ["d",id,"value"]} - dictionary entry for a level, logger, thread name or MDC key</li>
+ *   <li>{@code [epochMillis,level,logger,thread,"message",[mdcKey,"value",...],"stackhash","stacktrace"]}
+ *   - event with dictionary ids, trailing elements are omitted when empty</li>
+ * </ul>
+ * <p>
+ * The header is returned by {@link #headerBytes()} followed by the current dictionary entries,
+ * such that appenders write it when opening a file (including rollover) and on reconnect. This
+ * keeps each segment self-contained, including events encoded before a reconnect that are still
+ * buffered and are sent on the new connection. The dictionary is reset when it reaches
+ * maxDictionarySize.
+ * <p>
+ * Ids are never reused, a reset starts new entries from the next id. With concurrent loggers an
+ * event encoded before a reset can be written after the header, and its ids then still refer to
+ * the values they were assigned to rather than to entries added after the reset.
+ */
+public final class CompactJsonEncoder extends EncoderBase<ILoggingEvent> {
+
+  private static final byte[] EMPTY_BYTES = {};
+  private final JsonStream json;
+  private final Map<String, String> customFieldsMap = new LinkedHashMap<>();
+  /** Insertion ordered, such that entries are re-emitted in id order. */
+  private final Map<String, Long> dictionary = new LinkedHashMap<>();
+  private final ReentrantLock lock = new ReentrantLock();
+  private final StackHasher stackHasher;
+  private ThrowableHandlingConverter throwableConverter = new ShortenedThrowableConverter();
+  private String component;
+  private String environment;
+  private boolean includeStackHash = true;
+  private int maxDictionarySize = 10_000;
+  private long nextId;
+
+  private byte[] header = EMPTY_BYTES;
+  private boolean headerPending;
+
+  public CompactJsonEncoder() {
+    this.json = JsonStream.builder().build();
+    this.component = Eval.defaultComponent();
+    this.environment = System.getenv("ENVIRONMENT");
+    this.stackHasher = new StackHasher(StackElementFilter.builder().allFilters().build());
+  }
+
+  @Override
+  public void start() {
+    final var outputStream = new ByteArrayOutputStream(128);
+    try (var writer = json.writer(outputStream)) {
+      writer.beginArray();
+      writer.value("h");
+      writer.value(component == null ? "" : component);
+      writer.value(environment == null ? "" : environment);
+      writer.beginObject();
+      customFieldsMap.forEach((k, v) -> {
+        writer.name(k);
+        writer.rawValue(v);
+      });
+      writer.endObject();
+      writer.endArray();
+      writer.writeNewLine();
+    }
+    header = outputStream.toByteArray();
+    headerPending = true;
+    super.start();
+    throwableConverter.start();
+  }
+
+  @Override
+  public void stop() {
+    super.stop();
+    throwableConverter.stop();
+  }
+
+  /**
+   * Return the header followed by the current dictionary entries.
+   * <p>
+   * The entries are re-emitted rather than cleared, such that events already encoded with their
+   * ids (for example buffered while reconnecting) still decode after the header.
+   */
+  @Override
+  public byte[] headerBytes() {
+    lock.lock();
+    try {
+      headerPending = false;
+      if (dictionary.isEmpty()) {
+        return header;
+      }
+      final var outputStream = new ByteArrayOutputStream(header.length + 40 * dictionary.size());
+      outputStream.writeBytes(header);
+      dictionary.forEach((value, id) -> entry(outputStream, id, value));
+      return outputStream.toByteArray();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public byte[] footerBytes() {
+    return EMPTY_BYTES;
+  }
+
+  @Override
+  public byte[] encode(ILoggingEvent event) {
+    final String stackTraceBody = throwableConverter.convert(event);
+    final String message = event.getFormattedMessage();
+    final Map<String, String> mdc = event.getMDCPropertyMap();
+    String stackHash = "";
+    if (includeStackHash && !stackTraceBody.isEmpty()) {
+      IThrowableProxy throwableProxy = event.getThrowableProxy();
+      if (throwableProxy instanceof ThrowableProxy) {
+        stackHash = stackHasher.hexHash(((ThrowableProxy) throwableProxy).getThrowable());
+      }
+    }
+    final var outputStream = new ByteArrayOutputStream(60 + message.length() + stackTraceBody.length() + 20 * mdc.size());
+    // ids are assigned and their dictionary entries written in the same order as the events
+    lock.lock();
+    try {
+      if (headerPending || dictionary.size() + 3 + mdc.size() > maxDictionarySize) {
+        dictionary.clear();
+        headerPending = false;
+        outputStream.writeBytes(header);
+      }
+      final long level = id(outputStream, event.getLevel().toString());
+      final long logger = id(outputStream, event.getLoggerName());
+      final long thread = id(outputStream, event.getThreadName());
+      final long[] mdcKeys = new long[mdc.size()];
+      final String[] mdcValues = new String[mdc.size()];
+      int mdcCount = 0;
+      for (Map.Entry<String, String> entry : mdc.entrySet()) {
+        if (entry.getValue() != null) {
+          mdcKeys[mdcCount] = id(outputStream, entry.getKey());
+          mdcValues[mdcCount++] = entry.getValue();
+        }
+      }
+      try (var writer = json.writer(outputStream)) {
+        writer.beginArray();
+        writer.value(event.getTimeStamp());
+        writer.value(level);
+        writer.value(logger);
+        writer.value(thread);
+        writer.value(message);
+        if (mdcCount > 0 || !stackTraceBody.isEmpty()) {
+          writer.beginArray();
+          for (int i = 0; i < mdcCount; i++) {
+            writer.value(mdcKeys[i]);
+            writer.value(mdcValues[i]);
+          }
+          writer.endArray();
+        }
+        if (!stackTraceBody.isEmpty()) {
+          writer.value(stackHash);
+          writer.value(stackTraceBody);
+        }
+        writer.endArray();
+        writer.writeNewLine();
+      }
+    } finally {
+      lock.unlock();
+    }
+    return outputStream.toByteArray();
+  }
+
+  /**
+   * Return the id of the value adding a dictionary entry with the next id for a new value.
+   */
+  private long id(ByteArrayOutputStream outputStream, String value) {
+    final Long existing = dictionary.get(value);
+    if (existing != null) {
+      return existing;
+    }
+    final long id = nextId++;
+    dictionary.put(value, id);
+    entry(outputStream, id, value);
+    return id;
+  }
+
+  private void entry(ByteArrayOutputStream outputStream, long id, String value) {
+    try (JsonWriter writer = json.writer(outputStream)) {
+      writer.beginArray();
+      writer.value("d");
+      writer.value(id);
+      writer.value(value);
+      writer.endArray();
+      writer.writeNewLine();
+    }
+  }
+
+  public void setIncludeStackHash(boolean includeStackHash) {
+    this.includeStackHash = includeStackHash;
+  }
+
+  /**
+   * Set the maximum number of dictionary entries before the dictionary is reset (defaults to 10000).
+   */
+  public void setMaxDictionarySize(int maxDictionarySize) {
+    this.maxDictionarySize = maxDictionarySize;
+  }
+
+  public void setComponent(String component) {
+    this.component = Eval.eval(component);
+  }
+
+  public void setEnvironment(String environment) {
+    this.environment = Eval.eval(environment);
+  }
+
+  public void setThrowableConverter(ThrowableHandlingConverter throwableConverter) {
+    this.throwableConverter = throwableConverter;
+  }
+
+  public void setCustomFields(String customFields) {
+    if (customFields == null || customFields.isBlank()) {
+      return;
+    }
+    var mapper = JsonMapper.builder().jsonStream(json).build();
+    mapper.map().fromJson(customFields).forEach((key, value) -> {
+      if (value instanceof String) {
+        value = Eval.eval((String) value);
+      }
+      customFieldsMap.put(key, mapper.toJson(value));
+    });
+  }
+}
@@ -0,0 +1,44 @@
+package io.avaje.logback.encoder;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the bytes in and out of compression.
+ */
+public final class CompressionMetrics {
+
+  private final LongAdder bytesIn = new LongAdder();
+  private final LongAdder bytesOut = new LongAdder();
+
+  void add(long in, long out) {
+    bytesIn.add(in);
+    bytesOut.add(out);
+  }
+
+  /**
+   * Return the total uncompressed bytes.
+   */
+  public long getBytesIn() {
+    return bytesIn.sum();
+  }
+
+  /**
+   * Return the total compressed bytes.
+   */
+  public long getBytesOut() {
+    return bytesOut.sum();
+  }
+
+  /**
+   * Return the compression ratio (bytes in / bytes out) or 0 when nothing is compressed yet.
+   */
+  public double getRatio() {
+    final long out = bytesOut.sum();
+    return out == 0 ? 0 : (double) bytesIn.sum() / out;
+  }
+
+  @Override
+  public String toString() {
+    return "bytesIn:" + getBytesIn() + " bytesOut:" + getBytesOut() + " ratio:" + String.format("%.1f", getRatio());
+  }
+}
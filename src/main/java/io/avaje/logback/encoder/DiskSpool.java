@@ -0,0 +1,432 @@
+package io.avaje.logback.encoder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Append-only disk spool of encoded events used when a network destination can not keep up.
+ * <p>
+ * Events are appended as records of {@code [length][crc32][bytes]} to numbered segment
+ * files named {@code <base>.<sequence>}. A single reader reads records in order and
+ * acknowledges positions once they are sent. The acknowledged position is persisted
+ * to {@code <base>.cursor} and fully acknowledged segments are deleted, such that on
+ * restart unacknowledged events are replayed (at least once).
+ * <p>
+ * Total size is capped by evicting the oldest segments first (including unread ones).
+ * On open a record partly written by a crash is truncated from the last segment.
+ */
+final class DiskSpool {
+
+  private static final int RECORD_HEADER = 8;
+  private static final String CURSOR_SUFFIX = ".cursor";
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+  private final ByteBuffer readHeader = ByteBuffer.allocate(RECORD_HEADER);
+  private final CRC32 crc = new CRC32();
+  private final CRC32 readCrc = new CRC32();
+  /** Sequence to size of the segments on disk. */
+  private final TreeMap<Long, Long> segments = new TreeMap<>();
+  private final SegmentFiles segmentFiles;
+  private final FileChannel cursorChannel;
+  private final long segmentSize;
+  private final long maxBytes;
+
+  private FileChannel writeChannel;
+  private long writeSequence;
+  private long writePosition;
+  private FileChannel readChannel;
+  private long readSequence;
+  private long readPosition;
+  private long ackSequence;
+  private long ackPosition;
+  private long totalBytes;
+  private long evictedBytes;
+  private boolean closed;
+  private volatile boolean unread;
+
+  private DiskSpool(SegmentFiles segmentFiles, FileChannel cursorChannel, long segmentSize, long maxBytes) {
+    this.segmentFiles = segmentFiles;
+    this.cursorChannel = cursorChannel;
+    this.segmentSize = segmentSize;
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Open the spool recovering segments and the acknowledged position from a previous run.
+   *
+   * @param base        the base path of the segment files
+   * @param segmentSize the size at which a new segment file is started
+   * @param maxBytes    the max total size of all segments
+   */
+  static DiskSpool open(Path base, long segmentSize, long maxBytes) throws IOException {
+    final SegmentFiles files = new SegmentFiles(base);
+    Files.createDirectories(files.dir());
+    final Path cursorPath = files.dir().resolve(base.getFileName() + CURSOR_SUFFIX);
+    final DiskSpool spool = new DiskSpool(files, FileChannel.open(cursorPath, CREATE, READ, WRITE), segmentSize, maxBytes);
+    try {
+      spool.recover();
+    } catch (IOException e) {
+      spool.close();
+      throw e;
+    }
+    return spool;
+  }
+
+  private void recover() throws IOException {
+    final List<SegmentFiles.Entry> entries = segmentFiles.list();
+    for (SegmentFiles.Entry entry : entries) {
+      segments.put(entry.sequence(), Files.size(entry.path()));
+    }
+    if (!segments.isEmpty()) {
+      final long last = segments.lastKey();
+      final long length = validLength(segmentFiles.path(last));
+      if (length < segments.get(last)) {
+        try (FileChannel channel = FileChannel.open(segmentFiles.path(last), WRITE)) {
+          channel.truncate(length);
+        }
+        segments.put(last, length);
+      }
+    }
+    readCursor();
+    // delete segments that were fully acknowledged before the cursor was persisted
+    while (!segments.isEmpty() && segments.firstKey() < ackSequence) {
+      Files.deleteIfExists(segmentFiles.path(segments.pollFirstEntry().getKey()));
+    }
+    if (segments.isEmpty() || segments.firstKey() > ackSequence) {
+      ackSequence = segments.isEmpty() ? ackSequence : segments.firstKey();
+      ackPosition = 0;
+    }
+    for (long size : segments.values()) {
+      totalBytes += size;
+    }
+    readSequence = ackSequence;
+    readPosition = ackPosition;
+    // always append to a new segment
+    writeSequence = segments.isEmpty() ? Math.max(1, ackSequence) : segments.lastKey() + 1;
+    openWriteSegment();
+    if (readSequence < writeSequence && !segments.containsKey(readSequence)) {
+      readSequence = segments.firstKey();
+      readPosition = 0;
+    }
+    updateUnread();
+  }
+
+  private void readCursor() throws IOException {
+    final ByteBuffer cursor = ByteBuffer.allocate(16);
+    while (cursor.hasRemaining() && cursorChannel.read(cursor, cursor.position()) > 0) {
+      // read fully
+    }
+    if (!cursor.hasRemaining()) {
+      ackSequence = cursor.getLong(0);
+      ackPosition = cursor.getLong(8);
+    }
+  }
+
+  /**
+   * Return the length of the segment up to the last complete and valid record.
+   */
+  private long validLength(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, READ)) {
+      final long size = channel.size();
+      final ByteBuffer recordHeader = ByteBuffer.allocate(RECORD_HEADER);
+      final CRC32 check = new CRC32();
+      long position = 0;
+      while (position + RECORD_HEADER <= size) {
+        recordHeader.clear();
+        readFully(channel, recordHeader, position);
+        final int length = recordHeader.getInt(0);
+        if (length <= 0 || position + RECORD_HEADER + length > size) {
+          break;
+        }
+        final ByteBuffer payload = ByteBuffer.allocate(length);
+        readFully(channel, payload, position + RECORD_HEADER);
+        check.reset();
+        check.update(payload.array());
+        if ((int) check.getValue() != recordHeader.getInt(4)) {
+          break;
+        }
+        position += RECORD_HEADER + length;
+      }
+      return position;
+    }
+  }
+
+  /**
+   * Append the event returning false if it could not be written.
+   */
+  boolean append(byte[] event) throws IOException {
+    if (event.length == 0) {
+      return true;
+    }
+    lock.lock();
+    try {
+      if (closed || writeChannel == null) {
+        return false;
+      }
+      final long recordLength = RECORD_HEADER + (long) event.length;
+      if (writePosition > 0 && writePosition + recordLength > segmentSize) {
+        roll();
+      }
+      crc.reset();
+      crc.update(event);
+      header.clear();
+      header.putInt(event.length).putInt((int) crc.getValue()).flip();
+      final ByteBuffer[] buffers = {header, ByteBuffer.wrap(event)};
+      while (buffers[1].hasRemaining()) {
+        writeChannel.write(buffers);
+      }
+      writePosition += recordLength;
+      totalBytes += recordLength;
+      segments.put(writeSequence, writePosition);
+      unread = true;
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void roll() throws IOException {
+    writeChannel.close();
+    writeChannel = null;
+    writeSequence++;
+    openWriteSegment();
+    evict();
+  }
+
+  private void openWriteSegment() throws IOException {
+    writeChannel = FileChannel.open(segmentFiles.path(writeSequence), CREATE_NEW, WRITE);
+    writePosition = 0;
+    segments.put(writeSequence, 0L);
+  }
+
+  /**
+   * Delete the oldest segments (excluding the one being written) while over the size cap.
+   */
+  private void evict() throws IOException {
+    while (totalBytes > maxBytes && segments.firstKey() < writeSequence) {
+      final Map.Entry<Long, Long> oldest = segments.pollFirstEntry();
+      final long sequence = oldest.getKey();
+      totalBytes -= oldest.getValue();
+      if (sequence >= readSequence) {
+        // evicting events not yet read
+        evictedBytes += oldest.getValue() - (sequence == readSequence ? readPosition : 0);
+        closeReadChannel();
+        readSequence = sequence + 1;
+        readPosition = 0;
+      }
+      if (sequence >= ackSequence) {
+        ackSequence = sequence + 1;
+        ackPosition = 0;
+      }
+      Files.deleteIfExists(segmentFiles.path(sequence));
+    }
+  }
+
+  /**
+   * Read up to maxCount events and roughly maxBatchBytes into the batch in order.
+   * Must only be called by the single reader.
+   *
+   * @return the number of bytes added to the batch
+   */
+  long read(List<byte[]> batch, int maxCount, long maxBatchBytes) throws IOException {
+    lock.lock();
+    try {
+      if (closed) {
+        return 0;
+      }
+      long batchBytes = 0;
+      int count = 0;
+      while (count < maxCount && batchBytes < maxBatchBytes) {
+        final long end = readSequence == writeSequence ? writePosition : segments.getOrDefault(readSequence, 0L);
+        if (readPosition + RECORD_HEADER > end) {
+          if (readSequence >= writeSequence) {
+            break;
+          }
+          // move to the next segment
+          closeReadChannel();
+          readSequence = segments.higherKey(readSequence);
+          readPosition = 0;
+          continue;
+        }
+        final byte[] event = readRecord(end);
+        if (event == null) {
+          // skip the rest of a corrupt segment
+          readPosition = end;
+          continue;
+        }
+        batch.add(event);
+        batchBytes += event.length;
+        count++;
+      }
+      updateUnread();
+      return batchBytes;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private byte[] readRecord(long end) throws IOException {
+    if (readChannel == null) {
+      readChannel = FileChannel.open(segmentFiles.path(readSequence), READ);
+    }
+    readHeader.clear();
+    readFully(readChannel, readHeader, readPosition);
+    final int length = readHeader.getInt(0);
+    if (length <= 0 || readPosition + RECORD_HEADER + length > end) {
+      return null;
+    }
+    final byte[] event = new byte[length];
+    readFully(readChannel, ByteBuffer.wrap(event), readPosition + RECORD_HEADER);
+    readCrc.reset();
+    readCrc.update(event);
+    if ((int) readCrc.getValue() != readHeader.getInt(4)) {
+      return null;
+    }
+    readPosition += RECORD_HEADER + length;
+    return event;
+  }
+
+  /**
+   * Return the position after the events read so far, to acknowledge once they are sent.
+   */
+  Position position() {
+    lock.lock();
+    try {
+      return new Position(readSequence, readPosition);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Acknowledge that all events before the position have been sent.
+   */
+  void acknowledge(Position position) throws IOException {
+    lock.lock();
+    try {
+      if (closed || position.sequence < ackSequence || (position.sequence == ackSequence && position.offset <= ackPosition)) {
+        return;
+      }
+      ackSequence = position.sequence;
+      ackPosition = position.offset;
+      final ByteBuffer cursor = ByteBuffer.allocate(16).putLong(ackSequence).putLong(ackPosition).flip();
+      while (cursor.hasRemaining()) {
+        cursorChannel.write(cursor, cursor.position());
+      }
+      while (!segments.isEmpty() && segments.firstKey() < ackSequence) {
+        final Map.Entry<Long, Long> acknowledged = segments.pollFirstEntry();
+        totalBytes -= acknowledged.getValue();
+        Files.deleteIfExists(segmentFiles.path(acknowledged.getKey()));
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Move the reader past fully read segments and update the unread flag.
+   */
+  private void updateUnread() throws IOException {
+    while (readSequence < writeSequence && readPosition >= segments.getOrDefault(readSequence, 0L)) {
+      closeReadChannel();
+      readSequence = segments.higherKey(readSequence);
+      readPosition = 0;
+    }
+    unread = readSequence < writeSequence || readPosition < writePosition;
+  }
+
+  /**
+   * Return true if there are events appended that have not been read.
+   */
+  boolean hasUnread() {
+    return unread;
+  }
+
+  /**
+   * Return the total bytes of the spool segments on disk.
+   */
+  long bytes() {
+    lock.lock();
+    try {
+      return totalBytes;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Return the bytes of unread events deleted to keep the spool under its size cap.
+   */
+  long evictedBytes() {
+    lock.lock();
+    try {
+      return evictedBytes;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  void close() throws IOException {
+    lock.lock();
+    try {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      closeReadChannel();
+      if (writeChannel != null) {
+        writeChannel.force(false);
+        writeChannel.close();
+        writeChannel = null;
+      }
+      cursorChannel.force(false);
+      cursorChannel.close();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void closeReadChannel() throws IOException {
+    if (readChannel != null) {
+      readChannel.close();
+      readChannel = null;
+    }
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+    final int start = buffer.position();
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position() - start) < 0) {
+        throw new IOException("Unexpected end of spool segment");
+      }
+    }
+  }
+
+  /**
+   * A read position in the spool.
+   */
+  static final class Position {
+
+    private final long sequence;
+    private final long offset;
+
+    Position(long sequence, long offset) {
+      this.sequence = sequence;
+      this.offset = offset;
+    }
+  }
+}
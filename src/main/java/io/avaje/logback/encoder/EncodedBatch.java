@@ -0,0 +1,139 @@
+package io.avaje.logback.encoder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Events encoded into one contiguous buffer with the offset of each event.
+ * <p>
+ * Created by {@link JsonEncoder#encodeBatch(java.util.List, EncodedBatch)} where a sink
+ * that writes one batch at a time can reuse the same EncodedBatch, keeping its buffer
+ * rather than allocating one per batch. The whole buffer can go to a single write via
+ * {@link #writeTo(OutputStream)} or {@link #asByteBuffer()}, or an HTTP body via
+ * {@code BodyPublishers.ofByteArray(batch.array(), 0, batch.size())}.
+ * <p>
+ * Not thread safe, the contents are valid until the batch is next encoded into.
+ */
+public final class EncodedBatch {
+
+  private final Buffer buffer;
+  private int[] ends = new int[16];
+  private int count;
+
+  /**
+   * Create with an initial buffer size in bytes.
+   */
+  public EncodedBatch(int initialSize) {
+    this.buffer = new Buffer(Math.max(initialSize, 64));
+  }
+
+  /**
+   * Create with a default initial buffer size.
+   */
+  public EncodedBatch() {
+    this(8192);
+  }
+
+  /**
+   * Return the number of events.
+   */
+  public int count() {
+    return count;
+  }
+
+  /**
+   * Return the total size of the encoded events in bytes.
+   */
+  public int size() {
+    return buffer.size();
+  }
+
+  /**
+   * Return the underlying buffer holding the events from 0 to {@link #size()}.
+   */
+  public byte[] array() {
+    return buffer.array();
+  }
+
+  /**
+   * Return the offset of the event at the given index.
+   */
+  public int offset(int index) {
+    return index == 0 ? 0 : end(index - 1);
+  }
+
+  /**
+   * Return the length in bytes of the event at the given index.
+   */
+  public int length(int index) {
+    return end(index) - offset(index);
+  }
+
+  /**
+   * Return a copy of the encoded events.
+   */
+  public byte[] toByteArray() {
+    return buffer.toByteArray();
+  }
+
+  /**
+   * Return a ByteBuffer wrapping the encoded events.
+   */
+  public ByteBuffer asByteBuffer() {
+    return ByteBuffer.wrap(buffer.array(), 0, buffer.size());
+  }
+
+  /**
+   * Write all the encoded events to the output.
+   */
+  public void writeTo(OutputStream out) throws IOException {
+    buffer.writeTo(out);
+  }
+
+  private int end(int index) {
+    if (index < 0 || index >= count) {
+      throw new IndexOutOfBoundsException("Index " + index + " out of bounds for count " + count);
+    }
+    return ends[index];
+  }
+
+  Buffer buffer() {
+    return buffer;
+  }
+
+  /** Clear the batch keeping the buffer. */
+  void reset(int expectedCount) {
+    buffer.reset();
+    count = 0;
+    if (ends.length < expectedCount) {
+      ends = new int[expectedCount];
+    }
+  }
+
+  /** Add an event ending at the given offset. */
+  void add(int end) {
+    if (count == ends.length) {
+      ends = Arrays.copyOf(ends, count * 2);
+    }
+    ends[count++] = end;
+  }
+
+  /** Output stream exposing the buffer and truncation. */
+  static final class Buffer extends ByteArrayOutputStream {
+
+    Buffer(int size) {
+      super(size);
+    }
+
+    byte[] array() {
+      return buf;
+    }
+
+    void truncate(int size) {
+      count = size;
+    }
+  }
+}
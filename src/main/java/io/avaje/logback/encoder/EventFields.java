@@ -0,0 +1,110 @@
+package io.avaje.logback.encoder;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+import ch.qos.logback.classic.pattern.ThrowableHandlingConverter;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.ThrowableProxy;
+import io.avaje.json.JsonWriter;
+import io.avaje.json.mapper.JsonMapper;
+
+/**
+ * The stacktrace, stack hash and custom fields common to the encoders.
+ * <p>
+ * Custom field values are encoded as JSON once when set and written as raw values. The parsed
+ * values are also kept for encoders of other formats.
+ */
+final class EventFields {
+
+  private final StackHasher stackHasher = new StackHasher(StackElementFilter.builder().allFilters().build());
+  private final Map<String, String> customFields = new LinkedHashMap<>();
+  private final Map<String, Object> customValues = new LinkedHashMap<>();
+  private ThrowableHandlingConverter throwableConverter = new ShortenedThrowableConverter();
+  private boolean includeStackHash = true;
+  private int customFieldsSize;
+
+  void start() {
+    customFieldsSize = customFields.entrySet().stream()
+      .mapToInt(e -> e.getKey().length() + e.getValue().length())
+      .sum();
+    throwableConverter.start();
+  }
+
+  void stop() {
+    throwableConverter.stop();
+  }
+
+  /**
+   * Return the converted stacktrace, empty when the event has no throwable.
+   */
+  String stackTrace(ILoggingEvent event) {
+    return throwableConverter.convert(event);
+  }
+
+  /**
+   * Return the stack hash, null when excluded or the event has no stacktrace.
+   */
+  String stackHash(ILoggingEvent event, String stackTrace) {
+    if (includeStackHash && !stackTrace.isEmpty()) {
+      final IThrowableProxy throwableProxy = event.getThrowableProxy();
+      if (throwableProxy instanceof ThrowableProxy) {
+        return stackHasher.hexHash(((ThrowableProxy) throwableProxy).getThrowable());
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Return an initial buffer size for the event with the given message and stacktrace.
+   */
+  int bufferSize(int base, ILoggingEvent event, String message, String stackTrace) {
+    final int extra = stackTrace.isEmpty() ? 0 : 20 + stackTrace.length();
+    return base + extra + customFieldsSize + message.length() + event.getThreadName().length() + event.getLoggerName().length();
+  }
+
+  boolean hasCustomField(String name) {
+    return customFields.containsKey(name);
+  }
+
+  /**
+   * Return the custom field values as parsed from the JSON (String, Long, Double, Boolean, List or Map).
+   */
+  Map<String, Object> customValues() {
+    return customValues;
+  }
+
+  void writeCustomFields(JsonWriter writer) {
+    customFields.forEach((k, v) -> {
+      writer.name(k);
+      writer.rawValue(v);
+    });
+  }
+
+  /**
+   * Add the custom fields given as JSON, evaluating string values and mapping the field names.
+   */
+  void addCustomFields(JsonMapper mapper, String json, UnaryOperator<String> fieldName) {
+    if (json == null || json.isBlank()) {
+      return;
+    }
+    mapper.map().fromJson(json).forEach((key, value) -> {
+      if (value instanceof String) {
+        value = Eval.eval((String) value);
+      }
+      final String name = fieldName.apply(key);
+      customFields.put(name, mapper.toJson(value));
+      customValues.put(name, value);
+    });
+  }
+
+  void setIncludeStackHash(boolean includeStackHash) {
+    this.includeStackHash = includeStackHash;
+  }
+
+  void setThrowableConverter(ThrowableHandlingConverter throwableConverter) {
+    this.throwableConverter = throwableConverter;
+  }
+}
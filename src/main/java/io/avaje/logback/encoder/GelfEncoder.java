@@ -0,0 +1,216 @@
+package io.avaje.logback.encoder;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Set;
+
+import ch.qos.logback.classic.pattern.ThrowableHandlingConverter;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.CoreConstants;
+import ch.qos.logback.core.encoder.EncoderBase;
+import io.avaje.json.PropertyNames;
+import io.avaje.json.mapper.JsonMapper;
+import io.avaje.json.stream.JsonStream;
+
+/**
+ * Encoder of GELF 1.1 messages for Graylog with the same fields as JsonEncoder.
+ * <p>
+ * The message is {@code short_message}, the stacktrace is {@code full_message} and other
+ * fields (component, env, logger, thread, stackhash, custom fields and MDC) are additional
+ * fields prefixed with {@code _}. The static field values (version, host, component, env
+ * and custom fields) are escaped once on start and written as raw values.
+ * <p>
+ * Messages are terminated with a newline, or with a null byte via
+ * {@link #setNullDelimited(boolean)} for GELF over TCP. Use with {@link GelfUdpAppender}
+ * for GELF over UDP.
+ */
+public final class GelfEncoder extends EncoderBase<ILoggingEvent> {
+
+  private static final byte[] EMPTY_BYTES = {};
+  /** The _id reserved by GELF and the additional fields written by the encoder. */
+  private static final Set<String> RESERVED = Set.of("_id", "_component", "_env", "_logger", "_thread", "_stackhash");
+
+  private final JsonStream json;
+  private final JsonMapper mapper;
+  private final PropertyNames properties;
+  private final EventFields eventFields = new EventFields();
+  private String host;
+  private String component;
+  private String environment;
+  private boolean nullDelimited;
+
+  private String rawVersion;
+  private String rawHost;
+  private String rawComponent;
+  private String rawEnvironment;
+
+  public GelfEncoder() {
+    this.json = JsonStream.builder().build();
+    this.mapper = JsonMapper.builder().jsonStream(json).build();
+    this.properties = json.properties("version", "host", "short_message", "full_message", "timestamp", "level",
+      "_component", "_env", "_logger", "_thread", "_stackhash");
+    this.component = Eval.defaultComponent();
+    this.environment = System.getenv("ENVIRONMENT");
+  }
+
+  @Override
+  public void start() {
+    if (host == null) {
+      host = defaultHost();
+    }
+    rawVersion = mapper.toJson("1.1");
+    rawHost = mapper.toJson(host);
+    rawComponent = component == null ? null : mapper.toJson(component);
+    rawEnvironment = environment == null ? null : mapper.toJson(environment);
+    super.start();
+    eventFields.start();
+  }
+
+  private String defaultHost() {
+    String hostname = context == null ? null : context.getProperty(CoreConstants.HOSTNAME_KEY);
+    if (hostname == null) {
+      hostname = System.getenv("HOSTNAME");
+    }
+    return hostname == null ? "unknown" : hostname;
+  }
+
+  @Override
+  public void stop() {
+    super.stop();
+    eventFields.stop();
+  }
+
+  @Override
+  public byte[] headerBytes() {
+    return EMPTY_BYTES;
+  }
+
+  @Override
+  public byte[] footerBytes() {
+    return EMPTY_BYTES;
+  }
+
+  @Override
+  public byte[] encode(ILoggingEvent event) {
+    final String stackTraceBody = eventFields.stackTrace(event);
+    final String message = event.getFormattedMessage();
+    final var outputStream = new ByteArrayOutputStream(eventFields.bufferSize(150, event, message, stackTraceBody));
+
+    try (var writer = json.writer(outputStream)) {
+      writer.beginObject(properties);
+      writer.name(0);
+      writer.rawValue(rawVersion);
+      writer.name(1);
+      writer.rawValue(rawHost);
+      writer.name(2);
+      writer.value(message);
+      if (!stackTraceBody.isEmpty()) {
+        writer.name(3);
+        writer.value(stackTraceBody);
+      }
+      writer.name(4);
+      writer.rawValue(timestamp(event.getTimeStamp()));
+      writer.name(5);
+      writer.value(SyslogSeverity.of(event.getLevel()));
+      if (rawComponent != null) {
+        writer.name(6);
+        writer.rawValue(rawComponent);
+      }
+      if (rawEnvironment != null) {
+        writer.name(7);
+        writer.rawValue(rawEnvironment);
+      }
+      writer.name(8);
+      writer.value(event.getLoggerName());
+      writer.name(9);
+      writer.value(event.getThreadName());
+      final String stackHash = eventFields.stackHash(event, stackTraceBody);
+      if (stackHash != null) {
+        writer.name(10);
+        writer.value(stackHash);
+      }
+      eventFields.writeCustomFields(writer);
+      event.getMDCPropertyMap().forEach((k, v) -> {
+        writer.name(mdcField(k));
+        writer.value(v);
+      });
+      writer.endObject();
+    }
+    outputStream.write(nullDelimited ? 0 : '\n');
+    return outputStream.toByteArray();
+  }
+
+  /**
+   * Return the GELF timestamp as seconds with millisecond decimal places.
+   */
+  static String timestamp(long epochMillis) {
+    final long millis = Math.floorMod(epochMillis, 1000L);
+    final StringBuilder sb = new StringBuilder(14).append(Math.floorDiv(epochMillis, 1000L)).append('.');
+    if (millis < 100) {
+      sb.append(millis < 10 ? "00" : "0");
+    }
+    return sb.append(millis).toString();
+  }
+
+  /**
+   * Return the additional field name for the MDC key, prefixed again when it is the name of a custom field.
+   */
+  private String mdcField(String key) {
+    final String name = additionalField(key);
+    return eventFields.hasCustomField(name) ? '_' + name : name;
+  }
+
+  /**
+   * Return the additional field name, prefixed with underscore and with invalid characters replaced.
+   * <p>
+   * Names that are reserved or used by the standard fields (like {@code _id} and
+   * {@code _component}) are prefixed again such that they do not duplicate those fields.
+   */
+  static String additionalField(String key) {
+    final StringBuilder sb = new StringBuilder(key.length() + 1).append('_');
+    for (int i = 0; i < key.length(); i++) {
+      final char ch = key.charAt(i);
+      final boolean valid = (ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z') || (ch >= '0' && ch <= '9')
+        || ch == '_' || ch == '.' || ch == '-';
+      sb.append(valid ? ch : '_');
+    }
+    final String name = sb.toString();
+    return RESERVED.contains(name) ? '_' + name : name;
+  }
+
+  /**
+   * Set the host field (defaults to the logback HOSTNAME property).
+   */
+  public void setHost(String host) {
+    this.host = Eval.eval(host);
+  }
+
+  public void setComponent(String component) {
+    this.component = Eval.eval(component);
+  }
+
+  public void setEnvironment(String environment) {
+    this.environment = Eval.eval(environment);
+  }
+
+  public void setIncludeStackHash(boolean includeStackHash) {
+    eventFields.setIncludeStackHash(includeStackHash);
+  }
+
+  public void setThrowableConverter(ThrowableHandlingConverter throwableConverter) {
+    eventFields.setThrowableConverter(throwableConverter);
+  }
+
+  /**
+   * Set to true to terminate messages with a null byte as required by GELF over TCP.
+   */
+  public void setNullDelimited(boolean nullDelimited) {
+    this.nullDelimited = nullDelimited;
+  }
+
+  /**
+   * Set custom fields as JSON that are added as additional fields like {@code {"region":"us-east"}}.
+   */
+  public void setCustomFields(String customFields) {
+    eventFields.addCustomFields(mapper, customFields, GelfEncoder::additionalField);
+  }
+}
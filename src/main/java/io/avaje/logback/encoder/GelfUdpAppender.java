@@ -0,0 +1,248 @@
+package io.avaje.logback.encoder;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import ch.qos.logback.core.encoder.Encoder;
+import ch.qos.logback.core.util.FileSize;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+
+/**
+ * Appender that sends GELF messages to Graylog over UDP that defaults to using GelfEncoder.
+ * <p>
+ * Messages larger than the compression threshold are gzip compressed and messages larger
+ * than the chunk size are split into GELF chunks (at most 128 chunks per message,
+ * larger messages are dropped and counted).
+ * <p>
+ * For GELF over TCP use {@link JsonSocketAppender} with a GelfEncoder that has
+ * {@code nullDelimited} set to true.
+ *
+ * <pre>{@code
+ *
+ *   <appender name="graylog" class="io.avaje.logback.encoder.GelfUdpAppender">
+ *     <host>graylog</host>
+ *     <port>12201</port>
+ *   </appender>
+ *
+ * }</pre>
+ */
+public final class GelfUdpAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
+
+  static final int MAX_CHUNKS = 128;
+  private static final int CHUNK_HEADER = 12;
+  private static final byte CHUNK_MAGIC_0 = 0x1e;
+  private static final byte CHUNK_MAGIC_1 = 0x0f;
+  /** Report dropped messages at most once per interval. */
+  private static final long WARN_INTERVAL_MILLIS = 10_000;
+
+  private final AtomicLong droppedCount = new AtomicLong();
+  private final AtomicLong unreportedCount = new AtomicLong();
+  private final AtomicLong nextWarnMillis = new AtomicLong();
+  private final AtomicLong messageIds = new AtomicLong(ThreadLocalRandom.current().nextLong());
+  private final CompressionMetrics compressionMetrics = new CompressionMetrics();
+  private Encoder<ILoggingEvent> encoder;
+  private String host;
+  private int port = 12201;
+  private int chunkSize = 1420;
+  private FileSize compressionThreshold = new FileSize(512);
+  private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+  private DatagramChannel channel;
+
+  public GelfUdpAppender() {
+    this.encoder = new GelfEncoder();
+  }
+
+  @Override
+  public void start() {
+    if (host == null) {
+      addError("No host set for appender [" + name + "]");
+      return;
+    }
+    if (chunkSize <= CHUNK_HEADER) {
+      addError("chunkSize " + chunkSize + " must be greater than " + CHUNK_HEADER);
+      return;
+    }
+    try {
+      channel = DatagramChannel.open();
+      channel.connect(new InetSocketAddress(host, port));
+    } catch (IOException e) {
+      addError("Failed to open UDP channel to " + host + ":" + port, e);
+      return;
+    }
+    encoder.start();
+    super.start();
+  }
+
+  @Override
+  public void stop() {
+    if (!isStarted()) {
+      return;
+    }
+    super.stop();
+    try {
+      channel.close();
+    } catch (IOException e) {
+      addWarn("Failed to close UDP channel", e);
+    }
+    encoder.stop();
+  }
+
+  @Override
+  protected void append(ILoggingEvent event) {
+    byte[] message = encoder.encode(event);
+    int length = trimDelimiter(message);
+    if (length > compressionThreshold.getSize()) {
+      message = gzip(message, length);
+      length = message.length;
+    }
+    try {
+      if (length <= chunkSize) {
+        channel.write(ByteBuffer.wrap(message, 0, length));
+      } else {
+        sendChunks(message, length);
+      }
+    } catch (IOException e) {
+      dropped("Failed to send GELF message to " + host + ":" + port, e);
+    }
+  }
+
+  /**
+   * Count the dropped message and warn, at most once per interval such that a collector
+   * that is down does not flood the status manager.
+   */
+  private void dropped(String message, Throwable error) {
+    droppedCount.incrementAndGet();
+    unreportedCount.incrementAndGet();
+    final long now = System.currentTimeMillis();
+    final long next = nextWarnMillis.get();
+    if (now >= next && nextWarnMillis.compareAndSet(next, now + WARN_INTERVAL_MILLIS)) {
+      final long count = unreportedCount.getAndSet(0);
+      addWarn(message + (count > 1 ? ", dropped " + count + " messages since the last warning" : ""), error);
+    }
+  }
+
+  private static int trimDelimiter(byte[] message) {
+    int length = message.length;
+    if (length > 0 && (message[length - 1] == '\n' || message[length - 1] == 0)) {
+      length--;
+    }
+    return length;
+  }
+
+  private byte[] gzip(byte[] message, int length) {
+    final var out = new ByteArrayOutputStream(length / 4 + 64);
+    try (var gzip = new LevelGzipOutputStream(out, 1024, compressionLevel)) {
+      gzip.write(message, 0, length);
+    } catch (IOException e) {
+      // not expected writing to memory
+      throw new IllegalStateException(e);
+    }
+    compressionMetrics.add(length, out.size());
+    return out.toByteArray();
+  }
+
+  private void sendChunks(byte[] message, int length) throws IOException {
+    final int dataSize = chunkSize - CHUNK_HEADER;
+    final int count = (length + dataSize - 1) / dataSize;
+    if (count > MAX_CHUNKS) {
+      dropped("Dropped GELF message of " + length + " bytes that requires more than " + MAX_CHUNKS + " chunks", null);
+      return;
+    }
+    final long messageId = messageIds.incrementAndGet();
+    final ByteBuffer header = ByteBuffer.allocate(CHUNK_HEADER);
+    final ByteBuffer[] datagram = new ByteBuffer[2];
+    datagram[0] = header;
+    for (int i = 0; i < count; i++) {
+      header.clear();
+      header.put(CHUNK_MAGIC_0).put(CHUNK_MAGIC_1).putLong(messageId).put((byte) i).put((byte) count).flip();
+      final int offset = i * dataSize;
+      datagram[1] = ByteBuffer.wrap(message, offset, Math.min(dataSize, length - offset));
+      channel.write(datagram);
+    }
+  }
+
+  /**
+   * Return the number of messages dropped as they were too large or failed to send.
+   */
+  public long getDroppedCount() {
+    return droppedCount.get();
+  }
+
+  /**
+   * Return the bytes in and out of compression of messages over the compression threshold.
+   */
+  public CompressionMetrics getCompressionMetrics() {
+    return compressionMetrics;
+  }
+
+  /**
+   * Change the encoder from the default GelfEncoder.
+   */
+  public void setEncoder(Encoder<ILoggingEvent> encoder) {
+    this.encoder = encoder;
+  }
+
+  /**
+   * Set the Graylog host.
+   */
+  public void setHost(String host) {
+    this.host = Eval.eval(host);
+  }
+
+  /**
+   * Set the Graylog GELF UDP port (defaults to 12201).
+   */
+  public void setPort(int port) {
+    this.port = port;
+  }
+
+  /**
+   * Set the max datagram size including the 12 byte chunk header (defaults to 1420 to avoid IP fragmentation).
+   */
+  public void setChunkSize(int chunkSize) {
+    this.chunkSize = chunkSize;
+  }
+
+  /**
+   * Set the size above which messages are gzip compressed (defaults to 512 bytes).
+   */
+  public void setCompressionThreshold(FileSize compressionThreshold) {
+    this.compressionThreshold = compressionThreshold;
+  }
+
+  /**
+   * Set the compression level from 0 to 9 (defaults to the Deflater default of 6).
+   */
+  public void setCompressionLevel(int compressionLevel) {
+    this.compressionLevel = compressionLevel;
+  }
+
+  /**
+   * Set the component on an underlying GelfEncoder otherwise throw IllegalStateException.
+   */
+  public void setComponent(String component) {
+    if (encoder instanceof GelfEncoder) {
+      ((GelfEncoder) encoder).setComponent(component);
+    } else {
+      throw new IllegalStateException("Can only set component when using GelfEncoder");
+    }
+  }
+
+  /**
+   * Set the environment on an underlying GelfEncoder otherwise throw IllegalStateException.
+   */
+  public void setEnvironment(String environment) {
+    if (encoder instanceof GelfEncoder) {
+      ((GelfEncoder) encoder).setEnvironment(environment);
+    } else {
+      throw new IllegalStateException("Can only set environment when using GelfEncoder");
+    }
+  }
+}
@@ -0,0 +1,175 @@
+package io.avaje.logback.encoder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Batches concurrent writers into group commits.
+ * <p>
+ * Each write obtains a ticket after its bytes are written. A single committer thread
+ * runs the sync action which covers every ticket issued before it started, such that
+ * one sync (fsync) makes all events appended since the last sync durable. Callers
+ * that need durability wait for the commit of their ticket.
+ * <p>
+ * Writers call {@link #begin()} before writing their bytes. The committer only delays a
+ * commit (up to the max latency) while other writers are part way through writing, so a
+ * lone writer is committed without waiting.
+ */
+final class GroupCommit {
+
+  private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+  private static final long GATHER_STEP_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition requested = lock.newCondition();
+  private final Condition committed = lock.newCondition();
+  private final AtomicLong appended = new AtomicLong();
+  private final AtomicInteger writing = new AtomicInteger();
+  private final Runnable sync;
+  private final long maxLatencyNanos;
+  private final Thread thread;
+  private volatile long committedTicket;
+  private volatile boolean running = true;
+
+  /**
+   * Create and start the committer.
+   *
+   * @param name            the name of the committer thread
+   * @param sync            the action that makes everything written so far durable
+   * @param maxLatencyNanos the max time a commit is delayed to gather more writes into it
+   */
+  GroupCommit(String name, Runnable sync, long maxLatencyNanos) {
+    this.sync = sync;
+    this.maxLatencyNanos = maxLatencyNanos;
+    this.thread = new Thread(this::run, name);
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  /**
+   * Mark that a writer is writing bytes, followed by {@link #append()} or {@link #abandon()}.
+   */
+  void begin() {
+    writing.incrementAndGet();
+  }
+
+  /**
+   * Return a new ticket for bytes that have been completely written.
+   */
+  long append() {
+    final long ticket = appended.incrementAndGet();
+    writing.decrementAndGet();
+    return ticket;
+  }
+
+  /**
+   * Mark that a writer started with {@link #begin()} did not write.
+   */
+  void abandon() {
+    writing.decrementAndGet();
+  }
+
+  /**
+   * Return the ticket covering all writes appended so far.
+   */
+  long ticket() {
+    return appended.get();
+  }
+
+  /**
+   * Return true if the ticket has been committed.
+   */
+  boolean isCommitted(long ticket) {
+    return committedTicket >= ticket;
+  }
+
+  /**
+   * Wait for the ticket to be committed.
+   *
+   * @return false if the timeout elapsed or the committer stopped before the ticket was committed
+   */
+  boolean await(long ticket, long timeoutNanos) throws InterruptedException {
+    if (committedTicket >= ticket) {
+      return true;
+    }
+    lock.lock();
+    try {
+      requested.signal();
+      long remaining = timeoutNanos;
+      while (committedTicket < ticket) {
+        if (remaining <= 0 || !thread.isAlive()) {
+          return false;
+        }
+        remaining = committed.awaitNanos(remaining);
+      }
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Commit any outstanding writes and stop the committer thread.
+   */
+  void stop() throws InterruptedException {
+    running = false;
+    lock.lock();
+    try {
+      requested.signal();
+    } finally {
+      lock.unlock();
+    }
+    thread.join(TimeUnit.SECONDS.toMillis(10));
+  }
+
+  private void run() {
+    while (running || committedTicket < appended.get()) {
+      if (!awaitWork()) {
+        continue;
+      }
+      gather();
+      final long target = appended.get();
+      sync.run();
+      lock.lock();
+      try {
+        committedTicket = target;
+        committed.signalAll();
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Delay the commit to include writers part way through writing, up to the max latency.
+   */
+  private void gather() {
+    final long deadline = System.nanoTime() + maxLatencyNanos;
+    long remaining = maxLatencyNanos;
+    while (remaining > 0 && writing.get() > 0) {
+      LockSupport.parkNanos(Math.min(remaining, GATHER_STEP_NANOS));
+      remaining = deadline - System.nanoTime();
+    }
+  }
+
+  private boolean awaitWork() {
+    if (committedTicket < appended.get()) {
+      return true;
+    }
+    lock.lock();
+    try {
+      if (running && committedTicket >= appended.get()) {
+        requested.awaitNanos(IDLE_NANOS);
+      }
+    } catch (InterruptedException e) {
+      running = false;
+    } finally {
+      lock.unlock();
+    }
+    return committedTicket < appended.get();
+  }
+}
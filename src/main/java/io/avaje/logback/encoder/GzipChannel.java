@@ -0,0 +1,126 @@
+package io.avaje.logback.encoder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Channel that writes a streaming gzip member to the underlying channel.
+ * <p>
+ * Each (gathering) write is treated as a batch boundary and ends with a
+ * {@link Deflater#SYNC_FLUSH} such that everything written so far can be
+ * decompressed by the receiver without waiting for the stream to close.
+ * <p>
+ * Not thread safe, intended to be used by a single sender thread.
+ */
+final class GzipChannel implements GatheringByteChannel {
+
+  private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+  private final WritableByteChannel target;
+  private final CompressionMetrics metrics;
+  private final Deflater deflater;
+  private final CRC32 crc = new CRC32();
+  private final ByteBuffer output = ByteBuffer.allocate(64 * 1024);
+  private long totalIn;
+  private boolean headerWritten;
+  private boolean open = true;
+
+  GzipChannel(WritableByteChannel target, int level, CompressionMetrics metrics) {
+    this.target = target;
+    this.metrics = metrics;
+    this.deflater = new Deflater(level, true);
+  }
+
+  @Override
+  public int write(ByteBuffer src) throws IOException {
+    return (int) write(new ByteBuffer[]{src}, 0, 1);
+  }
+
+  @Override
+  public long write(ByteBuffer[] srcs) throws IOException {
+    return write(srcs, 0, srcs.length);
+  }
+
+  @Override
+  public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+    if (!headerWritten) {
+      output.put(HEADER);
+      headerWritten = true;
+    }
+    long consumed = 0;
+    for (int i = offset; i < offset + length; i++) {
+      final ByteBuffer src = srcs[i];
+      final int remaining = src.remaining();
+      crc.update(src.duplicate());
+      deflater.setInput(src);
+      while (!deflater.needsInput()) {
+        deflate(Deflater.NO_FLUSH);
+      }
+      consumed += remaining;
+    }
+    // batch boundary, flush such that the receiver can decompress everything written
+    while (deflate(Deflater.SYNC_FLUSH) > 0 && !output.hasRemaining()) {
+      // output buffer was filled, continue flushing
+    }
+    drain();
+    totalIn += consumed;
+    metrics.add(consumed, 0);
+    return consumed;
+  }
+
+  private int deflate(int flush) throws IOException {
+    if (!output.hasRemaining()) {
+      drain();
+    }
+    return deflater.deflate(output, flush);
+  }
+
+  private void drain() throws IOException {
+    output.flip();
+    final int count = output.remaining();
+    while (output.hasRemaining()) {
+      target.write(output);
+    }
+    output.clear();
+    metrics.add(0, count);
+  }
+
+  @Override
+  public boolean isOpen() {
+    return open;
+  }
+
+  /**
+   * Finish the gzip member (writing the trailer) and close the underlying channel.
+   */
+  @Override
+  public void close() throws IOException {
+    if (!open) {
+      return;
+    }
+    open = false;
+    try {
+      if (headerWritten) {
+        deflater.finish();
+        while (!deflater.finished()) {
+          deflate(Deflater.NO_FLUSH);
+        }
+        if (output.remaining() < 8) {
+          drain();
+        }
+        output.order(ByteOrder.LITTLE_ENDIAN);
+        output.putInt((int) crc.getValue());
+        output.putInt((int) totalIn);
+        drain();
+      }
+    } finally {
+      deflater.end();
+      target.close();
+    }
+  }
+}
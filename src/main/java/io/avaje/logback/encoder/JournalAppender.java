@@ -0,0 +1,178 @@
+package io.avaje.logback.encoder;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import ch.qos.logback.core.encoder.Encoder;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Appender that sends systemd journal native protocol entries as datagrams that defaults
+ * to using JournalEncoder.
+ * <p>
+ * journald receives native entries on the {@code /run/systemd/journal/socket} Unix
+ * datagram socket. The JDK only supports Unix domain stream sockets (from Java 16) and
+ * cannot pass a memfd for large entries, so without native code the entries are sent to a
+ * UDP destination that is bridged to the journal socket, for example with
+ * {@code socat -u -b 65536 UDP-RECV:19531,bind=127.0.0.1 UNIX-SENDTO:/run/systemd/journal/socket}
+ * (the {@code -b} buffer size must be at least maxEntrySize, socat otherwise truncates
+ * entries to its default 8192 bytes).
+ * <p>
+ * Entries larger than the max entry size are resent without the stacktrace field (the
+ * {@code STACKHASH} field is kept) and otherwise dropped and counted. Dropped entries are
+ * reported at most once per 10 seconds, such as while the bridge is down.
+ *
+ * <pre>{@code
+ *
+ *   <appender name="journal" class="io.avaje.logback.encoder.JournalAppender">
+ *     <destination>127.0.0.1:19531</destination>
+ *   </appender>
+ *
+ * }</pre>
+ */
+public final class JournalAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
+
+  private static final String UNIX_PREFIX = "unix:";
+  /** Report dropped entries at most once per interval. */
+  private static final long WARN_INTERVAL_MILLIS = 10_000;
+
+  private final AtomicLong droppedCount = new AtomicLong();
+  private final AtomicLong unreportedCount = new AtomicLong();
+  private final AtomicLong nextWarnMillis = new AtomicLong();
+  private Encoder<ILoggingEvent> encoder;
+  private String destination;
+  private int maxEntrySize = 65507;
+  private DatagramChannel channel;
+
+  public JournalAppender() {
+    this.encoder = new JournalEncoder();
+  }
+
+  @Override
+  public void start() {
+    if (destination == null) {
+      addError("No destination set for appender [" + name + "]");
+      return;
+    }
+    if (destination.startsWith(UNIX_PREFIX)) {
+      addError("Unix domain datagram sockets are not supported by the JDK, use a host:port destination bridged to " +
+        destination.substring(UNIX_PREFIX.length()));
+      return;
+    }
+    final int colon = destination.lastIndexOf(':');
+    if (colon < 1) {
+      addError("Invalid destination " + destination + " expected host:port");
+      return;
+    }
+    try {
+      final int port = Integer.parseInt(destination.substring(colon + 1).trim());
+      channel = DatagramChannel.open();
+      channel.connect(new InetSocketAddress(destination.substring(0, colon), port));
+    } catch (IOException | NumberFormatException e) {
+      addError("Failed to open datagram channel to " + destination, e);
+      return;
+    }
+    encoder.start();
+    super.start();
+  }
+
+  @Override
+  public void stop() {
+    if (!isStarted()) {
+      return;
+    }
+    super.stop();
+    try {
+      channel.close();
+    } catch (IOException e) {
+      addWarn("Failed to close datagram channel", e);
+    }
+    encoder.stop();
+  }
+
+  @Override
+  protected void append(ILoggingEvent event) {
+    byte[] entry = encoder.encode(event);
+    if (entry.length > maxEntrySize && encoder instanceof JournalEncoder) {
+      entry = ((JournalEncoder) encoder).encode(event, false);
+    }
+    if (entry.length > maxEntrySize) {
+      dropped("Dropped journal entry of " + entry.length + " bytes exceeding maxEntrySize " + maxEntrySize, null);
+      return;
+    }
+    try {
+      channel.write(ByteBuffer.wrap(entry));
+    } catch (IOException e) {
+      dropped("Failed to send journal entry to " + destination, e);
+    }
+  }
+
+  /**
+   * Count the dropped entry and warn, at most once per interval such that a bridge that is
+   * down does not flood the status manager.
+   */
+  private void dropped(String message, Throwable error) {
+    droppedCount.incrementAndGet();
+    unreportedCount.incrementAndGet();
+    final long now = System.currentTimeMillis();
+    final long next = nextWarnMillis.get();
+    if (now >= next && nextWarnMillis.compareAndSet(next, now + WARN_INTERVAL_MILLIS)) {
+      final long count = unreportedCount.getAndSet(0);
+      addWarn(message + (count > 1 ? ", dropped " + count + " entries since the last warning" : ""), error);
+    }
+  }
+
+  /**
+   * Return the number of entries dropped as they were too large or failed to send.
+   */
+  public long getDroppedCount() {
+    return droppedCount.get();
+  }
+
+  /**
+   * Change the encoder from the default JournalEncoder.
+   */
+  public void setEncoder(Encoder<ILoggingEvent> encoder) {
+    this.encoder = encoder;
+  }
+
+  /**
+   * Set the destination as {@code host:port} of a datagram bridge to the journal socket.
+   */
+  public void setDestination(String destination) {
+    this.destination = Eval.eval(destination);
+  }
+
+  /**
+   * Set the max size of an entry datagram (defaults to 65507, the max UDP payload).
+   */
+  public void setMaxEntrySize(int maxEntrySize) {
+    this.maxEntrySize = maxEntrySize;
+  }
+
+  /**
+   * Set the component on an underlying JournalEncoder otherwise throw IllegalStateException.
+   */
+  public void setComponent(String component) {
+    if (encoder instanceof JournalEncoder) {
+      ((JournalEncoder) encoder).setComponent(component);
+    } else {
+      throw new IllegalStateException("Can only set component when using JournalEncoder");
+    }
+  }
+
+  /**
+   * Set the environment on an underlying JournalEncoder otherwise throw IllegalStateException.
+   */
+  public void setEnvironment(String environment) {
+    if (encoder instanceof JournalEncoder) {
+      ((JournalEncoder) encoder).setEnvironment(environment);
+    } else {
+      throw new IllegalStateException("Can only set environment when using JournalEncoder");
+    }
+  }
+}
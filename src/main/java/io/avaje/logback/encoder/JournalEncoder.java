@@ -0,0 +1,206 @@
+package io.avaje.logback.encoder;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import ch.qos.logback.classic.pattern.ThrowableHandlingConverter;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.encoder.EncoderBase;
+import io.avaje.json.mapper.JsonMapper;
+
+/**
+ * Encoder of systemd journal entries using the journal native protocol.
+ * <p>
+ * Each field is written as {@code KEY=value\n}, or for values containing a newline as
+ * {@code KEY\n} followed by the little endian 64 bit length, the value and {@code \n}.
+ * The level maps to {@code PRIORITY}, the component to {@code SYSLOG_IDENTIFIER}, and the
+ * logger, thread, stack hash, stacktrace, custom fields and MDC keys map to journal fields
+ * (upper case with invalid characters replaced, and prefixed with {@code FIELD_} when they
+ * would use a reserved field like {@code MESSAGE}). The static fields are encoded once on start.
+ */
+public final class JournalEncoder extends EncoderBase<ILoggingEvent> {
+
+  private static final byte[] EMPTY_BYTES = {};
+  private static final byte[] MESSAGE = field("MESSAGE");
+  private static final byte[] PRIORITY = field("PRIORITY=");
+  private static final byte[] LOGGER = field("LOGGER");
+  private static final byte[] THREAD = field("THREAD_NAME");
+  private static final byte[] STACKHASH = field("STACKHASH");
+  private static final byte[] STACKTRACE = field("STACKTRACE");
+  private static final int MAX_FIELD_NAME = 64;
+  private static final int MAX_CACHED_NAMES = 1000;
+  /** Fields written by the encoder or with a meaning to journald, prefixed when used by MDC or custom fields. */
+  private static final Set<String> RESERVED = Set.of("MESSAGE", "MESSAGE_ID", "PRIORITY", "SYSLOG_IDENTIFIER",
+    "SYSLOG_FACILITY", "SYSLOG_PID", "SYSLOG_TIMESTAMP", "ENVIRONMENT", "LOGGER", "THREAD_NAME", "STACKHASH", "STACKTRACE");
+
+  private final EventFields eventFields = new EventFields();
+  private final Map<String, byte[]> mdcFieldNames = new ConcurrentHashMap<>();
+  private String component;
+  private String environment;
+  private byte[] staticFields;
+
+  public JournalEncoder() {
+    this.component = Eval.defaultComponent();
+    this.environment = System.getenv("ENVIRONMENT");
+  }
+
+  @Override
+  public void start() {
+    final var out = new ByteArrayOutputStream(128);
+    if (component != null) {
+      write(out, field("SYSLOG_IDENTIFIER"), component);
+    }
+    if (environment != null) {
+      write(out, field("ENVIRONMENT"), environment);
+    }
+    eventFields.customValues().forEach((key, value) -> write(out, field(userField(key)), String.valueOf(value)));
+    staticFields = out.toByteArray();
+    eventFields.start();
+    super.start();
+  }
+
+  @Override
+  public void stop() {
+    super.stop();
+    eventFields.stop();
+  }
+
+  @Override
+  public byte[] headerBytes() {
+    return EMPTY_BYTES;
+  }
+
+  @Override
+  public byte[] footerBytes() {
+    return EMPTY_BYTES;
+  }
+
+  @Override
+  public byte[] encode(ILoggingEvent event) {
+    return encode(event, true);
+  }
+
+  /**
+   * Encode the event optionally excluding the stacktrace (keeping the stack hash).
+   */
+  byte[] encode(ILoggingEvent event, boolean includeStackTrace) {
+    final String stackTraceBody = eventFields.stackTrace(event);
+    final String message = event.getFormattedMessage();
+    final int bufferSize = 100 + staticFields.length + message.length() + stackTraceBody.length();
+    final var out = new ByteArrayOutputStream(bufferSize);
+    write(out, MESSAGE, message);
+    out.write(PRIORITY, 0, PRIORITY.length);
+    out.write('0' + SyslogSeverity.of(event.getLevel()));
+    out.write('\n');
+    out.write(staticFields, 0, staticFields.length);
+    write(out, LOGGER, event.getLoggerName());
+    write(out, THREAD, event.getThreadName());
+    final String stackHash = eventFields.stackHash(event, stackTraceBody);
+    if (stackHash != null) {
+      write(out, STACKHASH, stackHash);
+    }
+    if (includeStackTrace && !stackTraceBody.isEmpty()) {
+      write(out, STACKTRACE, stackTraceBody);
+    }
+    event.getMDCPropertyMap().forEach((key, value) -> {
+      if (value != null) {
+        write(out, mdcField(key), value);
+      }
+    });
+    return out.toByteArray();
+  }
+
+  private byte[] mdcField(String key) {
+    final byte[] name = mdcFieldNames.get(key);
+    if (name != null) {
+      return name;
+    }
+    final byte[] newName = field(userField(key));
+    if (mdcFieldNames.size() < MAX_CACHED_NAMES) {
+      mdcFieldNames.put(key, newName);
+    }
+    return newName;
+  }
+
+  private static byte[] field(String name) {
+    return name.getBytes(StandardCharsets.US_ASCII);
+  }
+
+  /**
+   * Write the field using the binary safe form when the value contains a newline.
+   */
+  private static void write(ByteArrayOutputStream out, byte[] name, String value) {
+    final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.write(name, 0, name.length);
+    if (value.indexOf('\n') < 0) {
+      out.write('=');
+    } else {
+      out.write('\n');
+      long length = bytes.length;
+      for (int i = 0; i < 8; i++) {
+        out.write((int) (length & 0xFF));
+        length >>>= 8;
+      }
+    }
+    out.write(bytes, 0, bytes.length);
+    out.write('\n');
+  }
+
+  /**
+   * Return the field name for an MDC key or custom field, prefixed with {@code FIELD_} when
+   * it is reserved such that it does not duplicate a field like {@code MESSAGE} or {@code PRIORITY}.
+   */
+  static String userField(String key) {
+    final String name = fieldName(key);
+    if (!RESERVED.contains(name)) {
+      return name;
+    }
+    final String prefixed = "FIELD_" + name;
+    return prefixed.length() > MAX_FIELD_NAME ? prefixed.substring(0, MAX_FIELD_NAME) : prefixed;
+  }
+
+  /**
+   * Return a valid journal field name, upper case letters, digits and underscore not starting with an underscore or digit.
+   */
+  static String fieldName(String key) {
+    final StringBuilder sb = new StringBuilder(Math.min(key.length(), MAX_FIELD_NAME));
+    for (int i = 0; i < key.length() && sb.length() < MAX_FIELD_NAME; i++) {
+      final char ch = Character.toUpperCase(key.charAt(i));
+      final boolean valid = (ch >= 'A' && ch <= 'Z') || (ch >= '0' && ch <= '9') || ch == '_';
+      if (sb.length() == 0 && (!valid || ch == '_' || (ch >= '0' && ch <= '9'))) {
+        continue;
+      }
+      sb.append(valid ? ch : '_');
+    }
+    return sb.length() == 0 ? "FIELD" : sb.toString();
+  }
+
+  /**
+   * Set the component which is written as the {@code SYSLOG_IDENTIFIER}.
+   */
+  public void setComponent(String component) {
+    this.component = Eval.eval(component);
+  }
+
+  public void setEnvironment(String environment) {
+    this.environment = Eval.eval(environment);
+  }
+
+  public void setIncludeStackHash(boolean includeStackHash) {
+    eventFields.setIncludeStackHash(includeStackHash);
+  }
+
+  public void setThrowableConverter(ThrowableHandlingConverter throwableConverter) {
+    eventFields.setThrowableConverter(throwableConverter);
+  }
+
+  /**
+   * Set custom fields as JSON like {@code {"region":"us-east"}} that are added as journal fields.
+   */
+  public void setCustomFields(String customFields) {
+    eventFields.addCustomFields(JsonMapper.builder().build(), customFields, key -> key);
+  }
+}
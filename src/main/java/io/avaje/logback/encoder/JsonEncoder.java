@@ -1,62 +1,141 @@
 package io.avaje.logback.encoder;
 
 import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
 
+import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.pattern.ThrowableHandlingConverter;
 import ch.qos.logback.classic.spi.ILoggingEvent;
-import ch.qos.logback.classic.spi.IThrowableProxy;
-import ch.qos.logback.classic.spi.ThrowableProxy;
 import ch.qos.logback.core.encoder.EncoderBase;
+import io.avaje.json.JsonAdapter;
+import io.avaje.json.JsonWriter;
 import io.avaje.json.PropertyNames;
 import io.avaje.json.mapper.JsonMapper;
 import io.avaje.json.stream.JsonStream;
+import org.slf4j.Marker;
+import org.slf4j.event.KeyValuePair;
 
 public final class JsonEncoder extends EncoderBase<ILoggingEvent> {
 
   private static final byte[] EMPTY_BYTES = {};
+  /** The standard fields in the order they are written. */
+  private static final List<String> FIELDS = List.of("component", "env", "timestamp", "level", "logger", "message", "thread", "stackhash", "stacktrace", "msghash", "markers", "caller");
+  private static final List<String> SHORT_KEYS = List.of("c", "e", "t", "l", "lg", "m", "th", "sh", "st", "mh", "mk", "cl");
+  /** The fields that can be shed to fit maxEventBytes, in the default order. */
+  private static final List<String> SHED_FIELDS = List.of("stacktrace", "mdc", "message");
+  /** Space for the truncated array added when shedding. */
+  private static final int SHED_RESERVE = ",\"truncated\":[\"message\",\"stacktrace\",\"mdc\"]".length();
+  /** Space for the chunk fields excluding the eventId value, with up to 10 digits per number. */
+  private static final int CHUNK_RESERVE = ",\"eventId\":\"\",\"chunk\":,\"chunks\":".length() + 20;
+  private static final int MIN_CHUNK_BYTES = 64;
+  /** Report events dropped over maxEventBytes at most once per interval. */
+  private static final long WARN_INTERVAL_MILLIS = 10_000;
   private final JsonStream json;
-  private final Map<String, String> customFieldsMap = new HashMap<>();
-  private final PropertyNames properties;
-  private final StackHasher stackHasher;
-  private ThrowableHandlingConverter throwableConverter = new ShortenedThrowableConverter();
+  private final Map<String, String> fieldNames = new HashMap<>();
+  private final Set<String> excludeFields = new HashSet<>();
+  private final List<String> includeMdcKeys = new ArrayList<>();
+  private final List<String> excludeMdcKeys = new ArrayList<>();
+  private final List<String> nestMdcPrefixes = new ArrayList<>();
+  private int maxMdcKeys = Integer.MAX_VALUE;
+  private int maxMdcValueBytes = Integer.MAX_VALUE;
+  private int maxMessageBytes = Integer.MAX_VALUE;
+  private int maxStackTraceBytes = Integer.MAX_VALUE;
+  private int maxEventBytes = Integer.MAX_VALUE;
+  private List<String> shedOrder = SHED_FIELDS;
+  private boolean chunkMessages;
+  private final String instanceId = Integer.toHexString(ThreadLocalRandom.current().nextInt());
+  private final AtomicLong sequence = new AtomicLong();
+  private final AtomicLong droppedCount = new AtomicLong();
+  private final AtomicLong unreportedCount = new AtomicLong();
+  private final AtomicLong nextWarnMillis = new AtomicLong();
+  private MDCRules mdcRules = MDCRules.ALL;
+  private Set<String> includeFields;
+  private boolean shortKeys;
+  /** The field names and inclusion resolved at start. */
+  private PropertyNames properties;
+  private String[] names;
+  private boolean[] include;
+  /** The names of included standard, custom and other fields that key value pairs are prefixed to avoid. */
+  private Set<String> reservedNames;
+  private final EventFields eventFields = new EventFields();
+  private final TypedValueWriter typedValueWriter;
+  private final MessageHasher messageHasher = new MessageHasher();
+  private final MarkerArrays markerArrays = new MarkerArrays();
+  private final CallerFrames callerFrames = new CallerFrames();
+  private final List<String> callerLoggers = new ArrayList<>();
+  /** Events at or above this level include the caller. */
+  private Level callerLevel = Level.OFF;
 
   private DateTimeFormatter formatter;
   private TimeZone timeZone = TimeZone.getDefault();
   /** Null implies default of ISO_OFFSET_DATE_TIME */
   private String timestampPattern;
-  private int fieldExtra;
   private String component;
   private String environment;
-  private boolean includeStackHash = true;
+  private boolean includeMsgHash;
+  private boolean includeKeyValues = true;
+  private boolean includeArguments;
+  private boolean rawMessage;
+  /** With rawMessage, events at or above this level are still formatted. */
+  private Level formatMessageLevel = Level.OFF;
+  private String bulkIndex;
+  private String bulkIndexDatePattern = "yyyy.MM.dd";
+  private String bulkAction = "index";
+  private boolean bulkIncludeId;
+  private BulkActionLine bulkActionLine;
 
   public JsonEncoder() {
     this.json = JsonStream.builder().build();
-    this.properties = json.properties("component", "env", "timestamp", "level", "logger", "message", "thread", "stackhash", "stacktrace");
+    this.typedValueWriter = new TypedValueWriter();
     this.component = Eval.defaultComponent();
     this.environment = System.getenv("ENVIRONMENT");
-    this.stackHasher = new StackHasher(StackElementFilter.builder().allFilters().build());
   }
 
   @Override
   public void start() {
     formatter = TimeZoneUtils.formatter(timestampPattern, timeZone.toZoneId());
-    fieldExtra =
-        customFieldsMap.entrySet().stream()
-            .mapToInt(e -> e.getKey().length() + e.getValue().length())
-            .sum();
+    names = new String[FIELDS.size()];
+    include = new boolean[FIELDS.size()];
+    final Map<String, String> fieldsByName = new HashMap<>();
+    for (int i = 0; i < names.length; i++) {
+      final String field = FIELDS.get(i);
+      names[i] = fieldNames.getOrDefault(field, shortKeys ? SHORT_KEYS.get(i) : field);
+      include[i] = (includeFields == null || includeFields.contains(field)) && !excludeFields.contains(field);
+      final String other = include[i] ? fieldsByName.put(names[i], field) : null;
+      if (other != null) {
+        throw new IllegalStateException("Fields " + other + " and " + field + " both have the name " + names[i]);
+      }
+    }
+    properties = json.properties(names);
+    reservedNames = new HashSet<>(fieldsByName.keySet());
+    reservedNames.addAll(List.of("arguments", "eventId", "chunk", "chunks", "truncated"));
+    if (!includeMdcKeys.isEmpty() || !excludeMdcKeys.isEmpty() || !nestMdcPrefixes.isEmpty()
+      || maxMdcKeys != Integer.MAX_VALUE || maxMdcValueBytes != Integer.MAX_VALUE) {
+      mdcRules = new MDCRules(includeMdcKeys, excludeMdcKeys, nestMdcPrefixes, maxMdcKeys, maxMdcValueBytes);
+    }
+    if (bulkIndex != null) {
+      bulkActionLine = new BulkActionLine(bulkAction, bulkIndex, bulkIndexDatePattern, timeZone.toZoneId(), bulkIncludeId);
+    }
     super.start();
-    throwableConverter.start();
+    eventFields.start();
   }
 
   @Override
   public void stop() {
     super.stop();
-    throwableConverter.stop();
+    eventFields.stop();
   }
 
   @Override
@@ -71,63 +150,698 @@ public final class JsonEncoder extends EncoderBase<ILoggingEvent> {
 
   @Override
   public byte[] encode(ILoggingEvent event) {
-    final String stackTraceBody = throwableConverter.convert(event);
-    final int extra = stackTraceBody.isEmpty() ? 0 : 20 + stackTraceBody.length();
+    final Parts parts = parts(event);
+    parts.timestamp = formatter.format(Instant.ofEpochMilli(event.getTimeStamp()));
+    final byte[] bytes = encode(event, parts);
+    final int overflow = bytes.length - parts.actionLineSize - maxEventBytes;
+    return overflow <= 0 ? bytes : shed(event, parts, overflow);
+  }
 
-    final var threadName = event.getThreadName();
-    final var message = event.getFormattedMessage();
-    final var loggerName = event.getLoggerName();
-    final int bufferSize = 100 + extra + fieldExtra + message.length() + threadName.length() + loggerName.length();
-    final var outputStream = new ByteArrayOutputStream(bufferSize);
+  /**
+   * Encode the events into one buffer with the offset of each event.
+   */
+  public EncodedBatch encodeBatch(List<? extends ILoggingEvent> events) {
+    return encodeBatch(events, new EncodedBatch(events.size() * 512));
+  }
 
+  /**
+   * Encode the array of events into the given batch, reusing its buffer.
+   */
+  public EncodedBatch encodeBatch(ILoggingEvent[] events, EncodedBatch batch) {
+    return encodeBatch(Arrays.asList(events), batch);
+  }
+
+  /**
+   * Encode the events into the given batch, reusing its buffer.
+   * <p>
+   * A single writer is used for all the events and the timestamp is formatted once for
+   * events in the same millisecond. The batch is reset before encoding such that a sink can
+   * reuse one batch rather than allocating a buffer per batch. An event that is dropped as it
+   * does not fit maxEventBytes after shedding has a length of 0.
+   */
+  public EncodedBatch encodeBatch(List<? extends ILoggingEvent> events, EncodedBatch batch) {
+    batch.reset(events.size());
+    final EncodedBatch.Buffer outputStream = batch.buffer();
+    long lastMillis = Long.MIN_VALUE;
+    String timestamp = null;
     try (var writer = json.writer(outputStream)) {
-      writer.beginObject(properties);
-      if (component != null) {
-        writer.name(0);
-        writer.value(component);
-      }
-      if (environment != null) {
-        writer.name(1);
-        writer.value(environment);
+      for (ILoggingEvent event : events) {
+        final Parts parts = parts(event);
+        if (event.getTimeStamp() != lastMillis) {
+          lastMillis = event.getTimeStamp();
+          timestamp = formatter.format(Instant.ofEpochMilli(lastMillis));
+        }
+        parts.timestamp = timestamp;
+        final int start = outputStream.size();
+        writeEvent(writer, outputStream, event, parts);
+        final int overflow = outputStream.size() - start - parts.actionLineSize - maxEventBytes;
+        if (overflow > 0) {
+          // the writer is flushed so the event can be replaced with the shed version
+          outputStream.truncate(start);
+          final List<String> chunks = shedFields(event, parts, overflow);
+          final int count = chunks == null ? 1 : chunks.size();
+          for (int i = 0; i < count; i++) {
+            if (chunks != null) {
+              parts.message = chunks.get(i);
+              parts.chunk = i + 1;
+            }
+            final int recordStart = outputStream.size();
+            writeEvent(writer, outputStream, event, parts);
+            final int size = outputStream.size() - recordStart - parts.actionLineSize;
+            if (size > maxEventBytes) {
+              outputStream.truncate(start);
+              dropped(size);
+              break;
+            }
+          }
+        }
+        batch.add(outputStream.size());
       }
+    }
+    return batch;
+  }
+
+  private Parts parts(ILoggingEvent event) {
+    final Parts parts = new Parts();
+    final String stackTrace = eventFields.stackTrace(event);
+    parts.stackTrace = truncate(stackTrace, Utf8Budget.cut(stackTrace, maxStackTraceBytes));
+    parts.stackTraceTruncated = parts.stackTrace != stackTrace;
+    parts.raw = rawMessage && !event.getLevel().isGreaterOrEqual(formatMessageLevel);
+    final String message = parts.raw ? event.getMessage() : event.getFormattedMessage();
+    parts.message = truncate(message, Utf8Budget.cut(message, maxMessageBytes));
+    parts.messageTruncated = parts.message != message;
+    parts.stackHash = eventFields.stackHash(event, stackTrace);
+    if (include[11] && includeCaller(event)) {
+      parts.caller = callerFrames.json(event);
+    }
+    return parts;
+  }
+
+  private byte[] encode(ILoggingEvent event, Parts parts) {
+    final var outputStream = new ByteArrayOutputStream(eventFields.bufferSize(100, event, parts.message, parts.stackTrace));
+    if (bulkActionLine != null) {
+      bulkActionLine.write(outputStream, event.getTimeStamp(), parts.stackHash);
+      parts.actionLineSize = outputStream.size();
+    }
+
+    try (var writer = json.writer(outputStream)) {
+      writeEvent(writer, event, parts);
+    }
+    return outputStream.toByteArray();
+  }
+
+  /** Write the event with its action line to the batch, flushing the writer. */
+  private void writeEvent(JsonWriter writer, ByteArrayOutputStream outputStream, ILoggingEvent event, Parts parts) {
+    if (bulkActionLine != null) {
+      final int start = outputStream.size();
+      bulkActionLine.write(outputStream, event.getTimeStamp(), parts.stackHash);
+      parts.actionLineSize = outputStream.size() - start;
+    }
+    writeEvent(writer, event, parts);
+    writer.flush();
+  }
+
+  private void writeEvent(JsonWriter writer, ILoggingEvent event, Parts parts) {
+    final String loggerName = event.getLoggerName();
+    final String stackTraceBody = parts.stackTrace;
+    writer.beginObject(properties);
+    if (component != null && include[0]) {
+      writer.name(0);
+      writer.value(component);
+    }
+    if (environment != null && include[1]) {
+      writer.name(1);
+      writer.value(environment);
+    }
+    if (include[2]) {
       writer.name(2);
-      writer.value(formatter.format(Instant.ofEpochMilli(event.getTimeStamp())));
+      writer.value(parts.timestamp);
+    }
+    if (include[3]) {
       writer.name(3);
       writer.value(event.getLevel().toString());
+    }
+    if (include[4]) {
       writer.name(4);
       writer.value(loggerName);
+    }
+    if (include[5]) {
       writer.name(5);
-      writer.value(message);
+      writer.value(parts.message);
+    }
+    if (include[6]) {
       writer.name(6);
-      writer.value(threadName);
-      if (!stackTraceBody.isEmpty()) {
-        if (includeStackHash) {
-          IThrowableProxy throwableProxy = event.getThrowableProxy();
-          if (throwableProxy instanceof ThrowableProxy) {
-            String hash = stackHasher.hexHash(((ThrowableProxy) throwableProxy).getThrowable());
-            writer.name(7);
-            writer.value(hash);
-          }
+      writer.value(event.getThreadName());
+    }
+    if (includeMsgHash && include[9]) {
+      writer.name(9);
+      writer.value(messageHasher.hexHash(event.getMessage(), loggerName));
+    }
+    if (include[10]) {
+      final List<Marker> markers = event.getMarkerList();
+      if (markers != null && !markers.isEmpty()) {
+        writer.name(10);
+        writer.rawValue(markerArrays.json(markers));
+      }
+    }
+    if (parts.caller != null) {
+      writer.name(11);
+      writer.rawValue(parts.caller);
+    }
+    if (parts.stackHash != null && include[7]) {
+      writer.name(7);
+      writer.value(parts.stackHash);
+    }
+    if (!stackTraceBody.isEmpty() && include[8]) {
+      writer.name(8);
+      writer.value(stackTraceBody);
+    }
+    eventFields.writeCustomFields(writer);
+    if (includeKeyValues) {
+      final List<KeyValuePair> keyValuePairs = event.getKeyValuePairs();
+      if (keyValuePairs != null) {
+        for (KeyValuePair pair : keyValuePairs) {
+          writer.name(keyName(pair.key));
+          typedValueWriter.write(writer, pair.value);
         }
-        writer.name(8);
-        writer.value(stackTraceBody);
-      }
-      customFieldsMap.forEach((k, v) -> {
-        writer.name(k);
-        writer.rawValue(v);
-      });
-      event.getMDCPropertyMap().forEach((k, v) -> {
-        writer.name(k);
-        writer.value(v);
-      });
-      writer.endObject();
-      writer.writeNewLine();
+      }
+    }
+    if (includeArguments || parts.raw) {
+      final Object[] arguments = event.getArgumentArray();
+      if (arguments != null && arguments.length > 0) {
+        writer.name("arguments");
+        writer.beginArray();
+        for (Object argument : arguments) {
+          typedValueWriter.write(writer, argument);
+        }
+        writer.endArray();
+      }
+    }
+    if (parts.includeMdc) {
+      final Map<String, String> mdc = event.getMDCPropertyMap();
+      if (mdc instanceof MDCSnapshot || !mdcRules.isAll()) {
+        final MDCRules.Fragment fragment = mdcFragment(mdc);
+        if (!fragment.json.isEmpty()) {
+          writer.rawChunkStart();
+          writer.rawChunk(fragment.json);
+          writer.rawChunkEnd();
+        }
+        parts.mdcTruncated |= fragment.truncated;
+      } else {
+        mdc.forEach((k, v) -> {
+          writer.name(k);
+          writer.value(v);
+        });
+      }
+    }
+    if (parts.chunks > 0) {
+      writer.name("eventId");
+      writer.value(parts.eventId);
+      writer.name("chunk");
+      writer.value(parts.chunk);
+      writer.name("chunks");
+      writer.value(parts.chunks);
+    }
+    if (parts.messageTruncated || parts.stackTraceTruncated || parts.mdcTruncated) {
+      writer.name("truncated");
+      writer.beginArray();
+      if (parts.messageTruncated) {
+        writer.value("message");
+      }
+      if (parts.stackTraceTruncated) {
+        writer.value("stacktrace");
+      }
+      if (parts.mdcTruncated) {
+        writer.value("mdc");
+      }
+      writer.endArray();
+    }
+    writer.endObject();
+    writer.writeNewLine();
+  }
+
+  /**
+   * Return the key prefixed with {@code kv_} when it is the name of another field.
+   */
+  private String keyName(String key) {
+    return reservedNames.contains(key) || eventFields.hasCustomField(key) ? "kv_" + key : key;
+  }
+
+  private boolean includeCaller(ILoggingEvent event) {
+    if (event.getLevel().isGreaterOrEqual(callerLevel)) {
+      return true;
+    }
+    final String loggerName = event.getLoggerName();
+    for (String callerLogger : callerLoggers) {
+      if (loggerName.startsWith(callerLogger)
+        && (loggerName.length() == callerLogger.length() || loggerName.charAt(callerLogger.length()) == '.')) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private MDCRules.Fragment mdcFragment(Map<String, String> mdc) {
+    return mdc instanceof MDCSnapshot ? ((MDCSnapshot) mdc).fragment(mdcRules) : mdcRules.fragment(mdc);
+  }
+
+  /**
+   * Shorten or drop fields in shed order until the event is within maxEventBytes.
+   * <p>
+   * The encoded size of each field is known, so the fields to shed are determined from the
+   * overflow of the first encoding and the event is then encoded once more. When the event
+   * still does not fit, for example as the fields that are never shed exceed maxEventBytes,
+   * it is dropped rather than written over the limit.
+   */
+  private byte[] shed(ILoggingEvent event, Parts parts, int overflow) {
+    final List<String> chunks = shedFields(event, parts, overflow);
+    if (chunks == null) {
+      final byte[] bytes = encode(event, parts);
+      final int size = bytes.length - parts.actionLineSize;
+      return size > maxEventBytes ? dropped(size) : bytes;
+    }
+    final var outputStream = new ByteArrayOutputStream(chunks.size() * (maxEventBytes + parts.actionLineSize));
+    for (int i = 0; i < chunks.size(); i++) {
+      parts.message = chunks.get(i);
+      parts.chunk = i + 1;
+      final byte[] bytes = encode(event, parts);
+      final int size = bytes.length - parts.actionLineSize;
+      if (size > maxEventBytes) {
+        return dropped(size);
+      }
+      outputStream.writeBytes(bytes);
     }
     return outputStream.toByteArray();
   }
 
+  /**
+   * Count the event dropped as over maxEventBytes and warn, at most once per interval.
+   */
+  private byte[] dropped(int size) {
+    droppedCount.incrementAndGet();
+    unreportedCount.incrementAndGet();
+    final long now = System.currentTimeMillis();
+    final long next = nextWarnMillis.get();
+    if (now >= next && nextWarnMillis.compareAndSet(next, now + WARN_INTERVAL_MILLIS)) {
+      final long count = unreportedCount.getAndSet(0);
+      addWarn("Dropped event of " + size + " bytes after shedding that exceeds maxEventBytes " + maxEventBytes
+        + (count > 1 ? ", dropped " + count + " events since the last warning" : ""));
+    }
+    return EMPTY_BYTES;
+  }
+
+  /**
+   * Shed the fields returning the message chunks when chunking, otherwise null.
+   */
+  private List<String> shedFields(ILoggingEvent event, Parts parts, int overflow) {
+    int remaining = overflow + SHED_RESERVE;
+    for (String field : shedOrder) {
+      if (remaining <= 0) {
+        break;
+      }
+      switch (field) {
+        case "stacktrace":
+          remaining -= shedStackTrace(parts, remaining);
+          break;
+        case "mdc":
+          remaining -= shedMdc(event, parts);
+          break;
+        default:
+          if (chunkMessages) {
+            return chunks(event, parts, remaining);
+          }
+          remaining -= shedMessage(parts, remaining);
+      }
+    }
+    return null;
+  }
+
+  /** Drop whole stack frames from the end, or the stacktrace when it all needs to go. */
+  private int shedStackTrace(Parts parts, int remaining) {
+    final String stackTrace = parts.stackTrace;
+    if (stackTrace.isEmpty() || !include[8]) {
+      return 0;
+    }
+    parts.stackTraceTruncated = true;
+    final int size = Utf8Budget.size(stackTrace);
+    if (remaining >= size) {
+      parts.stackTrace = "";
+      return size + Utf8Budget.size(names[8]) + 6;
+    }
+    int cut = Utf8Budget.cut(stackTrace, size - remaining);
+    final int lineEnd = stackTrace.lastIndexOf('\n', cut - 1);
+    if (lineEnd > 0) {
+      cut = lineEnd;
+    }
+    parts.stackTrace = stackTrace.substring(0, cut);
+    return size - Utf8Budget.size(parts.stackTrace);
+  }
+
+  /** Drop all the MDC keys. */
+  private int shedMdc(ILoggingEvent event, Parts parts) {
+    final Map<String, String> mdc = event.getMDCPropertyMap();
+    if (!parts.includeMdc || mdc.isEmpty()) {
+      return 0;
+    }
+    int size = 0;
+    if (mdc instanceof MDCSnapshot || !mdcRules.isAll()) {
+      final String fragment = mdcFragment(mdc).json;
+      size = fragment.isEmpty() ? 0 : fragment.getBytes(StandardCharsets.UTF_8).length + 1;
+    } else {
+      for (Map.Entry<String, String> entry : mdc.entrySet()) {
+        size += Utf8Budget.size(entry.getKey()) + Utf8Budget.size(entry.getValue()) + 6;
+      }
+    }
+    if (size > 0) {
+      parts.includeMdc = false;
+      parts.mdcTruncated = true;
+    }
+    return size;
+  }
+
+  private int shedMessage(Parts parts, int remaining) {
+    if (!include[5]) {
+      return 0;
+    }
+    final int size = Utf8Budget.size(parts.message);
+    parts.message = parts.message.substring(0, Utf8Budget.cut(parts.message, Math.max(0, size - remaining)));
+    parts.messageTruncated = true;
+    return size - Utf8Budget.size(parts.message);
+  }
+
+  /**
+   * Split the message over chunk records that each fit maxEventBytes and share an eventId.
+   */
+  private List<String> chunks(ILoggingEvent event, Parts parts, int remaining) {
+    parts.eventId = Long.toHexString(event.getTimeStamp()) + '-' + instanceId + '-' + Long.toHexString(sequence.getAndIncrement());
+    final String message = parts.message;
+    final int budget = Utf8Budget.size(message) - remaining - CHUNK_RESERVE - parts.eventId.length();
+    if (!include[5] || budget < MIN_CHUNK_BYTES) {
+      // the other fields alone exceed the budget
+      shedMessage(parts, remaining);
+      return null;
+    }
+    final List<String> pieces = new ArrayList<>();
+    for (int start = 0; start < message.length(); ) {
+      final int end = Utf8Budget.cut(message, start, budget);
+      pieces.add(message.substring(start, end));
+      start = end;
+    }
+    parts.chunks = pieces.size();
+    return pieces;
+  }
+
+  /** The per event values, shortened when shedding fields. */
+  private static final class Parts {
+
+    String message;
+    String stackTrace;
+    String stackHash;
+    String timestamp;
+    String caller;
+    boolean raw;
+    boolean includeMdc = true;
+    boolean messageTruncated;
+    boolean stackTraceTruncated;
+    boolean mdcTruncated;
+    int actionLineSize;
+    String eventId;
+    int chunk;
+    int chunks;
+  }
+
+  /**
+   * Return the prefix of the value up to the cut, the value itself when it is not cut.
+   * <p>
+   * JsonWriter has no method to write part of a string, so a cut value is copied. The copy is
+   * only made when the value is over its budget and is bounded by the budget, and the same
+   * shortened value is then used for both sizing and writing when shedding to maxEventBytes.
+   */
+  private static String truncate(String value, int cut) {
+    return cut < value.length() ? value.substring(0, cut) : value;
+  }
+
+  /**
+   * Rename standard fields like {@code timestamp=@timestamp,level=log.level}.
+   * <p>
+   * Two included fields with the same name are rejected on start.
+   */
+  public void setFieldNames(String fieldNames) {
+    for (String entry : fieldNames.split(",")) {
+      if (entry.isBlank()) {
+        continue;
+      }
+      final int pos = entry.indexOf('=');
+      final String name = pos > 0 ? entry.substring(pos + 1).trim() : "";
+      if (name.isEmpty()) {
+        addWarn("Ignoring field name [" + entry.trim() + "], expecting field=name like timestamp=@timestamp");
+      } else {
+        this.fieldNames.put(standardField(entry.substring(0, pos)), name);
+      }
+    }
+  }
+
+  /**
+   * Set the standard fields to exclude, comma delimited like {@code thread,stackhash}.
+   */
+  public void setExcludeFields(String excludeFields) {
+    for (String field : excludeFields.split(",")) {
+      if (!field.isBlank()) {
+        this.excludeFields.add(standardField(field));
+      }
+    }
+  }
+
+  /**
+   * Set the only standard fields to include, comma delimited like {@code timestamp,level,message}.
+   */
+  public void setIncludeFields(String includeFields) {
+    this.includeFields = new HashSet<>();
+    for (String field : includeFields.split(",")) {
+      if (!field.isBlank()) {
+        this.includeFields.add(standardField(field));
+      }
+    }
+  }
+
+  /**
+   * Set to true to use short field names like {@code t}, {@code l} and {@code m} (renamed fields take precedence).
+   */
+  public void setShortKeys(boolean shortKeys) {
+    this.shortKeys = shortKeys;
+  }
+
+  private static String standardField(String field) {
+    final String name = field.trim();
+    if (!FIELDS.contains(name)) {
+      throw new IllegalArgumentException("Unknown field " + name + ", expecting one of " + FIELDS);
+    }
+    return name;
+  }
+
+  /**
+   * Set to false to exclude the SLF4J key value pairs (included by default as typed fields).
+   * <p>
+   * Keys that are the name of a standard or custom field are prefixed with {@code kv_}.
+   */
+  public void setIncludeKeyValues(boolean includeKeyValues) {
+    this.includeKeyValues = includeKeyValues;
+  }
+
+  /**
+   * Set to true to include the log message arguments as a typed {@code arguments} array.
+   */
+  public void setIncludeArguments(boolean includeArguments) {
+    this.includeArguments = includeArguments;
+  }
+
+  /**
+   * Set to true to write the message template and the {@code arguments} array rather than
+   * formatting the message, leaving formatting to the backend.
+   */
+  public void setRawMessage(boolean rawMessage) {
+    this.rawMessage = rawMessage;
+  }
+
+  /**
+   * Set the level at or above which events include the caller (like {@code WARN}).
+   * <p>
+   * Finding the caller walks the stack so it is off by default and best limited to the
+   * levels or loggers that need it.
+   */
+  public void setCallerLevel(String callerLevel) {
+    this.callerLevel = Level.toLevel(callerLevel, Level.OFF);
+  }
+
+  /**
+   * Set the logger names whose events, and those of their descendant loggers, include the
+   * caller at any level. For example {@code org.foo} matches {@code org.foo.Bar} but not
+   * {@code org.foobar}.
+   */
+  public void setCallerLoggers(String callerLoggers) {
+    addNames(callerLoggers, this.callerLoggers);
+  }
+
+  /**
+   * With rawMessage, set the level at or above which messages are still formatted (like {@code WARN}).
+   */
+  public void setFormatMessageLevel(String formatMessageLevel) {
+    this.formatMessageLevel = Level.toLevel(formatMessageLevel, Level.OFF);
+  }
+
+  /**
+   * Register a JsonAdapter used to write key value pair and argument values of the given type.
+   */
+  public <T> void putAdapter(Class<T> type, JsonAdapter<T> adapter) {
+    typedValueWriter.putAdapter(type, adapter);
+  }
+
+  /**
+   * Set the only MDC keys to include, comma delimited names or prefixes like {@code requestId,http.*}.
+   * <p>
+   * Prefixes match on a {@code .} boundary, {@code http.*} does not match {@code httpVersion}.
+   */
+  public void setIncludeMdcKeys(String includeMdcKeys) {
+    addNames(includeMdcKeys, this.includeMdcKeys);
+  }
+
+  /**
+   * Set the MDC keys to exclude, comma delimited names or prefixes like {@code password,internal.*}.
+   */
+  public void setExcludeMdcKeys(String excludeMdcKeys) {
+    addNames(excludeMdcKeys, this.excludeMdcKeys);
+  }
+
+  /**
+   * Set prefixes of MDC keys to nest under an object, like {@code http} such that
+   * {@code http.method} is written as {@code "http":{"method":..}}.
+   * <p>
+   * A key that is the group name itself, like {@code http}, is written in the object as {@code _value}.
+   */
+  public void setNestMdcPrefixes(String nestMdcPrefixes) {
+    addNames(nestMdcPrefixes, this.nestMdcPrefixes);
+  }
+
+  /**
+   * Set the maximum number of MDC keys written per event.
+   */
+  public void setMaxMdcKeys(int maxMdcKeys) {
+    this.maxMdcKeys = maxMdcKeys;
+  }
+
+  /**
+   * Set the maximum size of each MDC value in encoded UTF-8 bytes.
+   */
+  public void setMaxMdcValueBytes(int maxMdcValueBytes) {
+    this.maxMdcValueBytes = maxMdcValueBytes;
+  }
+
+  /**
+   * Set the maximum size of the message in encoded UTF-8 bytes.
+   */
+  public void setMaxMessageBytes(int maxMessageBytes) {
+    this.maxMessageBytes = maxMessageBytes;
+  }
+
+  /**
+   * Set the maximum size of the stacktrace in encoded UTF-8 bytes.
+   */
+  public void setMaxStackTraceBytes(int maxStackTraceBytes) {
+    this.maxStackTraceBytes = maxStackTraceBytes;
+  }
+
+  /**
+   * Set the maximum size of each encoded event in bytes including the trailing newline.
+   * <p>
+   * Events over this size shed fields in shedOrder until they fit. Events that still do not
+   * fit are dropped with a warning.
+   */
+  public void setMaxEventBytes(int maxEventBytes) {
+    this.maxEventBytes = maxEventBytes;
+  }
+
+  /**
+   * Return the number of events dropped as they did not fit maxEventBytes after shedding.
+   */
+  public long getDroppedCount() {
+    return droppedCount.get();
+  }
+
+  /**
+   * Set the order fields are shed to fit maxEventBytes, defaults to {@code stacktrace,mdc,message}.
+   * <p>
+   * The stacktrace loses whole frames from the end, the MDC is dropped and the message is
+   * shortened or split into chunks. Fields not listed are never shed.
+   */
+  public void setShedOrder(String shedOrder) {
+    final List<String> fields = new ArrayList<>();
+    for (String field : shedOrder.split(",")) {
+      final String name = field.trim();
+      if (!SHED_FIELDS.contains(name)) {
+        throw new IllegalArgumentException("Unknown shed field " + name + ", expecting one of " + SHED_FIELDS);
+      }
+      fields.add(name);
+    }
+    this.shedOrder = fields;
+  }
+
+  /**
+   * Set true to split an oversized message into chunk records sharing an eventId rather than
+   * shortening it.
+   */
+  public void setChunkMessages(boolean chunkMessages) {
+    this.chunkMessages = chunkMessages;
+  }
+
+  private static void addNames(String value, List<String> names) {
+    for (String name : value.split(",")) {
+      if (!name.isBlank()) {
+        names.add(name.trim());
+      }
+    }
+  }
+
+  /**
+   * Set to true to include a {@code msghash} of the message template and logger name, for grouping
+   * events by log statement.
+   */
+  public void setIncludeMsgHash(boolean includeMsgHash) {
+    this.includeMsgHash = includeMsgHash;
+  }
+
   public void setIncludeStackHash(boolean includeStackHash) {
-    this.includeStackHash = includeStackHash;
+    eventFields.setIncludeStackHash(includeStackHash);
+  }
+
+  /**
+   * Set the Elasticsearch index to write a {@code _bulk} action line before each event.
+   * <p>
+   * The index is suffixed with the event date using the bulkIndexDatePattern like
+   * {@code logs-app-2024.05.01}.
+   */
+  public void setBulkIndex(String bulkIndex) {
+    this.bulkIndex = Eval.eval(bulkIndex);
+  }
+
+  /**
+   * Set the daily date pattern of the bulk index suffix (defaults to {@code yyyy.MM.dd}), empty for no suffix.
+   */
+  public void setBulkIndexDatePattern(String bulkIndexDatePattern) {
+    this.bulkIndexDatePattern = bulkIndexDatePattern;
+  }
+
+  /**
+   * Set the bulk action (defaults to {@code index}), use {@code create} for data streams.
+   */
+  public void setBulkAction(String bulkAction) {
+    this.bulkAction = bulkAction;
+  }
+
+  /**
+   * Set to true to include an {@code _id} in the bulk action line such that resent batches do not duplicate events.
+   */
+  public void setBulkIncludeId(boolean bulkIncludeId) {
+    this.bulkIncludeId = bulkIncludeId;
   }
 
   public void setComponent(String component) {
@@ -139,20 +853,11 @@ public final class JsonEncoder extends EncoderBase<ILoggingEvent> {
   }
 
   public void setThrowableConverter(ThrowableHandlingConverter throwableConverter) {
-    this.throwableConverter = throwableConverter;
+    eventFields.setThrowableConverter(throwableConverter);
   }
 
   public void setCustomFields(String customFields) {
-    if (customFields == null || customFields.isBlank()) {
-      return;
-    }
-    var mapper = JsonMapper.builder().jsonStream(json).build();
-    mapper.map().fromJson(customFields).forEach((key, value) -> {
-      if (value instanceof String) {
-        value = Eval.eval((String) value);
-      }
-      customFieldsMap.put(key, mapper.toJson(value));
-    });
+    eventFields.addCustomFields(JsonMapper.builder().jsonStream(json).build(), customFields, key -> key);
   }
 
   public void setTimestampPattern(String pattern) {
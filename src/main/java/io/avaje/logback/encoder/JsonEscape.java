@@ -0,0 +1,56 @@
+package io.avaje.logback.encoder;
+
+/**
+ * Escaping of JSON strings for fragments that are encoded once and then written raw.
+ */
+final class JsonEscape {
+
+  private JsonEscape() {
+  }
+
+  /**
+   * Append the value as a quoted and escaped JSON string.
+   */
+  static void appendString(StringBuilder sb, String value) {
+    appendString(sb, value, value.length());
+  }
+
+  /**
+   * Append the chars of the value up to end as a quoted and escaped JSON string, without
+   * copying the prefix.
+   */
+  static void appendString(StringBuilder sb, String value, int end) {
+    sb.append('"');
+    for (int i = 0; i < end; i++) {
+      final char ch = value.charAt(i);
+      switch (ch) {
+        case '"':
+        case '\\':
+          sb.append('\\').append(ch);
+          break;
+        case '\n':
+          sb.append("\\n");
+          break;
+        case '\r':
+          sb.append("\\r");
+          break;
+        case '\t':
+          sb.append("\\t");
+          break;
+        case '\b':
+          sb.append("\\b");
+          break;
+        case '\f':
+          sb.append("\\f");
+          break;
+        default:
+          if (ch < 0x20) {
+            sb.append(String.format("\\u%04x", (int) ch));
+          } else {
+            sb.append(ch);
+          }
+      }
+    }
+    sb.append('"');
+  }
+}
@@ -0,0 +1,526 @@
+package io.avaje.logback.encoder;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import ch.qos.logback.core.encoder.Encoder;
+import ch.qos.logback.core.util.Duration;
+import ch.qos.logback.core.util.FileSize;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+
+/**
+ * Appender that pushes batches of newline delimited events to an HTTP collector
+ * (for example a generic NDJSON endpoint or Elasticsearch {@code _bulk}) that defaults
+ * to using JsonEncoder.
+ * <p>
+ * Logging threads encode the event and add it to a bounded in-memory buffer. A sender
+ * thread accumulates events into batches bounded by size and time, gzip compresses
+ * each batch and posts it via {@link HttpClient} with up to {@code maxInFlight}
+ * requests in flight. Failed requests (IO errors, 429 and 5xx responses) are retried
+ * with exponential backoff.
+ * <p>
+ * With {@link #setSpool(String)} events that overflow the buffer are appended to a disk
+ * spool instead of being dropped, retryable failures are retried until they succeed and
+ * spooled events are replayed in order once the collector recovers. On stop, requests
+ * still retrying after the request timeout are abandoned and their events left
+ * unacknowledged in (or appended to) the spool, such that they are replayed on the next start.
+ *
+ * <pre>{@code
+ *
+ *   <appender name="http" class="io.avaje.logback.encoder.JsonHttpAppender">
+ *     <url>http://localhost:8080/ingest</url>
+ *     <header>Authorization: Bearer ${LOG_TOKEN}</header>
+ *     <batchSize>1MB</batchSize>
+ *     <batchInterval>1 second</batchInterval>
+ *   </appender>
+ *
+ * }</pre>
+ */
+public final class JsonHttpAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
+
+  private static final int MAX_BATCH_COUNT = 10_000;
+  private static final long POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+  private static final long MAX_RETRY_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+  private final Map<String, String> headers = new LinkedHashMap<>();
+  private final AtomicLong failedCount = new AtomicLong();
+  private final CompressionMetrics compressionMetrics = new CompressionMetrics();
+  private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+  private final Set<CompletableFuture<?>> retries = ConcurrentHashMap.newKeySet();
+  private Encoder<ILoggingEvent> encoder;
+  private String url;
+  private String contentType;
+  private FileSize bufferSize = new FileSize(16 * FileSize.MB_COEFFICIENT);
+  private FileSize batchSize = new FileSize(FileSize.MB_COEFFICIENT);
+  private Duration batchInterval = Duration.buildBySeconds(1);
+  private Duration requestTimeout = Duration.buildBySeconds(10);
+  private Duration retryDelay = Duration.buildByMilliseconds(500);
+  private int maxRetries = 5;
+  private int maxInFlight = 2;
+  private boolean compress = true;
+  private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+  private String spool;
+  private FileSize spoolSize = new FileSize(FileSize.GB_COEFFICIENT);
+  private FileSize spoolSegmentSize = new FileSize(16 * FileSize.MB_COEFFICIENT);
+
+  private HttpClient client;
+  private URI uri;
+  private Semaphore inFlight;
+  private SendBuffer buffer;
+  private Thread sender;
+  private volatile boolean running;
+  /** Cleared when stop gives up waiting, abandoning any further retries. */
+  private volatile boolean retrying;
+  /** Set once the spool is closed, after which sends are no longer acknowledged. */
+  private boolean closed;
+
+  public JsonHttpAppender() {
+    this.encoder = new JsonEncoder();
+  }
+
+  @Override
+  public void start() {
+    if (url == null) {
+      addError("No url set for appender [" + name + "]");
+      return;
+    }
+    try {
+      uri = URI.create(url);
+    } catch (IllegalArgumentException e) {
+      addError("Invalid url " + url, e);
+      return;
+    }
+    DiskSpool diskSpool = null;
+    if (spool != null) {
+      try {
+        diskSpool = DiskSpool.open(Paths.get(spool), spoolSegmentSize.getSize(), spoolSize.getSize());
+      } catch (IOException e) {
+        addError("Failed to open spool " + spool, e);
+        return;
+      }
+    }
+    encoder.start();
+    if (contentType == null) {
+      contentType = encoder instanceof BatchFraming ? ((BatchFraming) encoder).batchContentType() : "application/x-ndjson";
+    }
+    client = HttpClient.newBuilder()
+      .connectTimeout(java.time.Duration.ofMillis(requestTimeout.getMilliseconds()))
+      .build();
+    inFlight = new Semaphore(maxInFlight);
+    buffer = new SendBuffer(bufferSize.getSize(), diskSpool);
+    running = true;
+    retrying = true;
+    sender = new Thread(this::send, "json-http-" + name);
+    sender.setDaemon(true);
+    sender.start();
+    super.start();
+  }
+
+  @Override
+  public void stop() {
+    if (!isStarted()) {
+      return;
+    }
+    super.stop();
+    running = false;
+    buffer.wakeup();
+    final long timeoutMillis = requestTimeout.getMilliseconds();
+    try {
+      // allow the sender and in-flight requests (with their retries) the request timeout to complete
+      final long deadline = System.currentTimeMillis() + timeoutMillis;
+      sender.join(timeoutMillis);
+      if (!awaitInFlight(deadline - System.currentTimeMillis())) {
+        abandonRetries();
+        // interrupt the sender should it be blocked waiting for an in-flight permit
+        sender.interrupt();
+        sender.join(timeoutMillis);
+        if (!awaitInFlight(timeoutMillis)) {
+          addWarn("Timed out waiting for in-flight requests to " + url + ", abandoning them");
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      abandonRetries();
+    }
+    final List<byte[]> unsent = new ArrayList<>();
+    synchronized (pending) {
+      // requests completing after this are not acknowledged and replayed from the spool
+      closed = true;
+      for (Pending request : pending) {
+        if (!request.done) {
+          unsent.addAll(request.unspooled);
+        }
+      }
+    }
+    try {
+      buffer.close(unsent);
+    } catch (IOException e) {
+      addError("Failed to close spool " + spool, e);
+    }
+    encoder.stop();
+  }
+
+  private boolean awaitInFlight(long timeoutMillis) throws InterruptedException {
+    if (inFlight.tryAcquire(maxInFlight, Math.max(timeoutMillis, 0), TimeUnit.MILLISECONDS)) {
+      inFlight.release(maxInFlight);
+      return true;
+    }
+    return false;
+  }
+
+  private void abandonRetries() {
+    retrying = false;
+    retries.forEach(retry -> retry.cancel(false));
+  }
+
+  @Override
+  protected void append(ILoggingEvent event) {
+    buffer.offer(encoder.encode(event));
+  }
+
+  /**
+   * Return the number of events dropped because the buffer was full.
+   */
+  public long getDroppedCount() {
+    return buffer == null ? 0 : buffer.dropped();
+  }
+
+  /**
+   * Return the number of batches that failed after all retries.
+   */
+  public long getFailedBatchCount() {
+    return failedCount.get();
+  }
+
+  /**
+   * Return the bytes of unsent events evicted from the spool to keep it under its size cap.
+   */
+  public long getSpoolEvictedBytes() {
+    return buffer == null ? 0 : buffer.spoolEvicted();
+  }
+
+  /**
+   * Return the bytes in and out of batch compression.
+   */
+  public CompressionMetrics getCompressionMetrics() {
+    return compressionMetrics;
+  }
+
+  private void send() {
+    final long maxBatchBytes = batchSize.getSize();
+    final long intervalNanos = TimeUnit.MILLISECONDS.toNanos(batchInterval.getMilliseconds());
+    final List<byte[]> batch = new ArrayList<>();
+    // events drained from memory rather than the spool, to spool should the batch be abandoned
+    final List<byte[]> unspooled = new ArrayList<>();
+    // with a spool, events not yet sent stay in it on stop and are replayed on start
+    while ((running || (spool == null && !buffer.isEmpty())) && !Thread.currentThread().isInterrupted()) {
+      long batchBytes = 0;
+      final long deadline = System.nanoTime() + intervalNanos;
+      while (batchBytes < maxBatchBytes) {
+        final long remaining = deadline - System.nanoTime();
+        if (remaining <= 0 || (!running && (spool != null || buffer.isEmpty()))) {
+          break;
+        }
+        final int from = batch.size();
+        batchBytes += buffer.drain(batch, MAX_BATCH_COUNT, maxBatchBytes - batchBytes, Math.min(remaining, POLL_NANOS));
+        if (spool != null && !buffer.drainedSpool()) {
+          unspooled.addAll(batch.subList(from, batch.size()));
+        }
+      }
+      final IOException spoolError = buffer.takeSpoolError();
+      if (spoolError != null) {
+        addError("Spool error for " + spool, spoolError);
+      }
+      if (!batch.isEmpty()) {
+        post(batch, batchBytes, new Pending(buffer.position(), List.copyOf(unspooled)));
+        batch.clear();
+        unspooled.clear();
+      }
+    }
+  }
+
+  private void post(List<byte[]> batch, long batchBytes, Pending request) {
+    final byte[] body;
+    try {
+      body = body(batch, batchBytes);
+    } catch (IOException e) {
+      addError("Failed to compress batch for " + url, e);
+      return;
+    }
+    synchronized (pending) {
+      pending.add(request);
+    }
+    try {
+      inFlight.acquire();
+    } catch (InterruptedException e) {
+      // interrupted on stop, left pending such that its events are spooled
+      Thread.currentThread().interrupt();
+      return;
+    }
+    send(body, 0).whenComplete((ok, error) -> {
+      if (error == null) {
+        completed(request);
+      } else if (spool == null) {
+        // abandoned on stop without a spool to replay from
+        failedCount.incrementAndGet();
+      }
+      // an abandoned request is left pending so it and later requests are not acknowledged
+      inFlight.release();
+    });
+  }
+
+  /**
+   * Acknowledge spooled events in order, only once all earlier requests have completed.
+   */
+  private void completed(Pending request) {
+    DiskSpool.Position position = null;
+    synchronized (pending) {
+      if (closed) {
+        return;
+      }
+      request.done = true;
+      while (!pending.isEmpty() && pending.peek().done) {
+        position = pending.poll().position;
+      }
+      buffer.acknowledge(position);
+    }
+  }
+
+  private byte[] body(List<byte[]> batch, long batchBytes) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream((int) (compress ? batchBytes / 4 : batchBytes) + 64);
+    try (OutputStream target = compress ? new LevelGzipOutputStream(out, 8192, compressionLevel) : out) {
+      if (encoder instanceof BatchFraming) {
+        final BatchFraming framing = (BatchFraming) encoder;
+        target.write(framing.batchHeader());
+        for (int i = 0; i < batch.size(); i++) {
+          if (i > 0) {
+            target.write(framing.batchSeparator());
+          }
+          target.write(batch.get(i));
+        }
+        target.write(framing.batchFooter());
+      } else {
+        for (byte[] event : batch) {
+          target.write(event);
+        }
+      }
+    }
+    if (compress) {
+      compressionMetrics.add(batchBytes, out.size());
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * Send the body with retries, completing exceptionally when abandoned on stop.
+   */
+  private CompletableFuture<Boolean> send(byte[] body, int attempt) {
+    final HttpRequest.Builder builder = HttpRequest.newBuilder(uri)
+      .timeout(java.time.Duration.ofMillis(requestTimeout.getMilliseconds()))
+      .header("Content-Type", contentType)
+      .POST(HttpRequest.BodyPublishers.ofByteArray(body));
+    if (compress) {
+      builder.header("Content-Encoding", "gzip");
+    }
+    headers.forEach(builder::header);
+    return client.sendAsync(builder.build(), HttpResponse.BodyHandlers.discarding())
+      .handle((response, error) -> {
+        if (error == null && response.statusCode() < 300) {
+          return CompletableFuture.completedFuture(true);
+        }
+        final boolean retryable = error != null || response.statusCode() == 429 || response.statusCode() >= 500;
+        final String reason = error != null ? error.toString() : "status " + response.statusCode();
+        // with a spool retry until the collector recovers
+        if (retryable && !retrying) {
+          return CompletableFuture.<Boolean>failedFuture(new CancellationException("Stopped"));
+        }
+        if (!retryable || (attempt >= maxRetries && spool == null)) {
+          failedCount.incrementAndGet();
+          addError("Failed to send batch to " + url + " after " + (attempt + 1) + " attempts, " + reason);
+          return CompletableFuture.completedFuture(false);
+        }
+        final long delay = Math.min(retryDelay.getMilliseconds() << Math.min(attempt, 10), MAX_RETRY_DELAY_MILLIS);
+        addWarn("Retry sending batch to " + url + " in " + delay + " millis, " + reason);
+        final CompletableFuture<Void> retry = CompletableFuture.runAsync(() -> { }, CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS));
+        retries.add(retry);
+        if (!retrying) {
+          // abandoned while scheduling, the others may have already been cancelled
+          retry.cancel(false);
+        }
+        return retry.whenComplete((ignored, cancelled) -> retries.remove(retry))
+          .thenCompose(ignored -> retrying ? send(body, attempt + 1) : CompletableFuture.<Boolean>failedFuture(new CancellationException("Stopped")));
+      })
+      .thenCompose(result -> result);
+  }
+
+  /**
+   * Change the encoder from the default JsonEncoder.
+   */
+  public void setEncoder(Encoder<ILoggingEvent> encoder) {
+    this.encoder = encoder;
+  }
+
+  /**
+   * Set the url that batches are posted to.
+   */
+  public void setUrl(String url) {
+    this.url = Eval.eval(url);
+  }
+
+  /**
+   * Set the content type of the batches (defaults to {@code application/x-ndjson}, or
+   * {@code application/json} with an encoder that frames batches like OtlpJsonEncoder).
+   */
+  public void setContentType(String contentType) {
+    this.contentType = contentType;
+  }
+
+  /**
+   * Add a request header in the form {@code Name: value}.
+   */
+  public void addHeader(String header) {
+    final int colon = header.indexOf(':');
+    if (colon < 1) {
+      throw new IllegalArgumentException("Invalid header " + header + " expected Name: value");
+    }
+    headers.put(header.substring(0, colon).trim(), Eval.eval(header.substring(colon + 1).trim()));
+  }
+
+  /**
+   * Set the base path of a disk spool for events that overflow the buffer, like {@code logs/spool/http}.
+   */
+  public void setSpool(String spool) {
+    this.spool = Eval.eval(spool);
+  }
+
+  /**
+   * Set the max total size of the spool with the oldest events evicted first (defaults to 1GB).
+   */
+  public void setSpoolSize(FileSize spoolSize) {
+    this.spoolSize = spoolSize;
+  }
+
+  /**
+   * Set the size of each spool segment file (defaults to 16MB).
+   */
+  public void setSpoolSegmentSize(FileSize spoolSegmentSize) {
+    this.spoolSegmentSize = spoolSegmentSize;
+  }
+
+  /**
+   * Set the max bytes buffered in memory waiting to be batched (defaults to 16MB).
+   */
+  public void setBufferSize(FileSize bufferSize) {
+    this.bufferSize = bufferSize;
+  }
+
+  /**
+   * Set the max uncompressed bytes per batch (defaults to 1MB).
+   */
+  public void setBatchSize(FileSize batchSize) {
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * Set the max time events are accumulated before the batch is sent (defaults to 1 second).
+   */
+  public void setBatchInterval(Duration batchInterval) {
+    this.batchInterval = batchInterval;
+  }
+
+  /**
+   * Set the connect and request timeout (defaults to 10 seconds).
+   */
+  public void setRequestTimeout(Duration requestTimeout) {
+    this.requestTimeout = requestTimeout;
+  }
+
+  /**
+   * Set the initial delay before a retry, doubled on each attempt (defaults to 500 milliseconds).
+   */
+  public void setRetryDelay(Duration retryDelay) {
+    this.retryDelay = retryDelay;
+  }
+
+  /**
+   * Set the maximum number of retries of a failed batch (defaults to 5).
+   */
+  public void setMaxRetries(int maxRetries) {
+    this.maxRetries = maxRetries;
+  }
+
+  /**
+   * Set the maximum number of requests in flight (defaults to 2).
+   */
+  public void setMaxInFlight(int maxInFlight) {
+    this.maxInFlight = maxInFlight;
+  }
+
+  /**
+   * Set to false to send batches uncompressed (defaults to gzip).
+   */
+  public void setCompress(boolean compress) {
+    this.compress = compress;
+  }
+
+  /**
+   * Set the compression level from 0 to 9 (defaults to the Deflater default of 6).
+   */
+  public void setCompressionLevel(int compressionLevel) {
+    this.compressionLevel = compressionLevel;
+  }
+
+  /**
+   * Set the component on an underlying JsonEncoder otherwise throw IllegalStateException.
+   */
+  public void setComponent(String component) {
+    if (encoder instanceof JsonEncoder) {
+      ((JsonEncoder) encoder).setComponent(component);
+    } else {
+      throw new IllegalStateException("Can only set component when using JsonEncoder");
+    }
+  }
+
+  /**
+   * Set the environment on an underlying JsonEncoder otherwise throw IllegalStateException.
+   */
+  public void setEnvironment(String environment) {
+    if (encoder instanceof JsonEncoder) {
+      ((JsonEncoder) encoder).setEnvironment(environment);
+    } else {
+      throw new IllegalStateException("Can only set environment when using JsonEncoder");
+    }
+  }
+
+  private static final class Pending {
+
+    private final DiskSpool.Position position;
+    private final List<byte[]> unspooled;
+    private boolean done;
+
+    Pending(DiskSpool.Position position, List<byte[]> unspooled) {
+      this.position = position;
+      this.unspooled = unspooled;
+    }
+  }
+}
@@ -0,0 +1,441 @@
+package io.avaje.logback.encoder;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import ch.qos.logback.core.encoder.Encoder;
+import ch.qos.logback.core.util.Duration;
+import ch.qos.logback.core.util.FileSize;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.Deflater;
+
+/**
+ * Appender that sends newline delimited events over TCP or a Unix domain socket
+ * to a local log shipper (like Vector or Fluent Bit) that defaults to using JsonEncoder.
+ * <p>
+ * Logging threads encode the event and add it to a bounded in-memory buffer and never
+ * block on the socket. A sender thread drains the buffer in batches using gathering
+ * writes, reconnecting with exponential backoff while the buffer holds events up to
+ * its byte budget (after which events are dropped and counted).
+ * <p>
+ * The destination is either {@code host:port} or {@code unix:/path/to/socket}
+ * (Unix domain sockets require Java 16+).
+ * <p>
+ * With {@link #setSpool(String)} events that overflow the buffer are appended to a disk
+ * spool instead of being dropped and replayed in order once the destination recovers.
+ *
+ * <pre>{@code
+ *
+ *   <appender name="shipper" class="io.avaje.logback.encoder.JsonSocketAppender">
+ *     <destination>unix:/var/run/vector.sock</destination>
+ *     <bufferSize>8MB</bufferSize>
+ *   </appender>
+ *
+ * }</pre>
+ */
+public final class JsonSocketAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
+
+  private static final String UNIX_PREFIX = "unix:";
+  private static final int MAX_BATCH_COUNT = 256;
+  private static final long BATCH_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+  private static final long STOP_WAIT_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+  private Encoder<ILoggingEvent> encoder;
+  private String destination;
+  private FileSize bufferSize = new FileSize(8 * FileSize.MB_COEFFICIENT);
+  private FileSize batchSize = new FileSize(64 * FileSize.KB_COEFFICIENT);
+  private Duration reconnectDelay = Duration.buildByMilliseconds(100);
+  private Duration maxReconnectDelay = Duration.buildBySeconds(30);
+  private Duration connectTimeout = Duration.buildBySeconds(5);
+  private boolean compress;
+  private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+  private final CompressionMetrics compressionMetrics = new CompressionMetrics();
+  private String spool;
+  private FileSize spoolSize = new FileSize(FileSize.GB_COEFFICIENT);
+  private FileSize spoolSegmentSize = new FileSize(16 * FileSize.MB_COEFFICIENT);
+
+  private SendBuffer buffer;
+  private Thread sender;
+  private volatile boolean running;
+  /** Set when stop gives up waiting for the sender, which then stops without reconnecting. */
+  private volatile boolean abandoned;
+  /** The connected socket, closed by stop to abandon a blocked write. */
+  private volatile SocketChannel socket;
+  /** Events the sender drained from memory but did not send, set when it exits. */
+  private List<byte[]> unsent = List.of();
+
+  public JsonSocketAppender() {
+    this.encoder = new JsonEncoder();
+  }
+
+  @Override
+  public void start() {
+    if (destination == null) {
+      addError("No destination set for appender [" + name + "]");
+      return;
+    }
+    DiskSpool diskSpool = null;
+    if (spool != null) {
+      try {
+        diskSpool = DiskSpool.open(Paths.get(spool), spoolSegmentSize.getSize(), spoolSize.getSize());
+      } catch (IOException e) {
+        addError("Failed to open spool " + spool, e);
+        return;
+      }
+    }
+    encoder.start();
+    buffer = new SendBuffer(bufferSize.getSize(), diskSpool);
+    running = true;
+    abandoned = false;
+    unsent = List.of();
+    sender = new Thread(this::send, "json-socket-" + name);
+    sender.setDaemon(true);
+    sender.start();
+    super.start();
+  }
+
+  @Override
+  public void stop() {
+    if (!isStarted()) {
+      return;
+    }
+    super.stop();
+    running = false;
+    buffer.wakeup();
+    LockSupport.unpark(sender);
+    try {
+      sender.join(STOP_WAIT_MILLIS);
+      if (sender.isAlive()) {
+        addWarn("Timed out sending to " + destination + ", abandoning the connection");
+        abandon();
+      }
+      // the sender must be done with the spool before it is closed
+      sender.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      abandon();
+    }
+    try {
+      buffer.close(unsent);
+    } catch (IOException e) {
+      addError("Failed to close spool " + spool, e);
+    }
+    encoder.stop();
+  }
+
+  @Override
+  protected void append(ILoggingEvent event) {
+    buffer.offer(encoder.encode(event));
+  }
+
+  /**
+   * Return the number of events dropped because the buffer was full.
+   */
+  public long getDroppedCount() {
+    return buffer == null ? 0 : buffer.dropped();
+  }
+
+  /**
+   * Return the bytes of unsent events evicted from the spool to keep it under its size cap.
+   */
+  public long getSpoolEvictedBytes() {
+    return buffer == null ? 0 : buffer.spoolEvicted();
+  }
+
+  /**
+   * Return the bytes in and out of compression when compress is true.
+   */
+  public CompressionMetrics getCompressionMetrics() {
+    return compressionMetrics;
+  }
+
+  /**
+   * Stop the sender without waiting further, closing the socket to fail a blocked write.
+   */
+  private void abandon() {
+    abandoned = true;
+    LockSupport.unpark(sender);
+    final SocketChannel connected = socket;
+    if (connected != null) {
+      try {
+        connected.close();
+      } catch (IOException e) {
+        addWarn("Failed to close connection to " + destination, e);
+      }
+    }
+  }
+
+  private void send() {
+    final List<byte[]> batch = new ArrayList<>(MAX_BATCH_COUNT);
+    final long maxBatchBytes = batchSize.getSize();
+    GatheringByteChannel channel = null;
+    DiskSpool.Position position = null;
+    boolean fromSpool = false;
+    long delayMillis = reconnectDelay.getMilliseconds();
+    while (!abandoned && (running || !buffer.isEmpty() || !batch.isEmpty())) {
+      if (channel == null) {
+        try {
+          channel = connect();
+          delayMillis = reconnectDelay.getMilliseconds();
+          if (abandoned) {
+            // stop closed the socket before it was published
+            break;
+          }
+        } catch (IOException e) {
+          if (!running) {
+            break;
+          }
+          addWarn("Failed to connect to " + destination + ", retry in " + delayMillis + " millis", e);
+          LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(delayMillis));
+          delayMillis = Math.min(delayMillis * 2, maxReconnectDelay.getMilliseconds());
+          continue;
+        }
+      }
+      if (batch.isEmpty()) {
+        final long drained = buffer.drain(batch, MAX_BATCH_COUNT, maxBatchBytes, BATCH_WAIT_NANOS);
+        reportSpoolError();
+        if (drained == 0) {
+          continue;
+        }
+        fromSpool = buffer.drainedSpool();
+        position = buffer.position();
+      }
+      try {
+        write(channel, batch);
+        batch.clear();
+        buffer.acknowledge(position);
+      } catch (IOException e) {
+        // keep the batch and resend it on the next connection
+        if (!abandoned) {
+          addWarn("Failed to write to " + destination, e);
+        }
+        close(channel);
+        channel = null;
+      }
+    }
+    if (channel != null) {
+      close(channel);
+    }
+    socket = null;
+    if (!fromSpool && !batch.isEmpty()) {
+      // spooled on close, a batch read from the spool is unacknowledged and replayed from there
+      unsent = new ArrayList<>(batch);
+    }
+  }
+
+  private void reportSpoolError() {
+    final IOException error = buffer.takeSpoolError();
+    if (error != null) {
+      addError("Spool error for " + spool, error);
+    }
+  }
+
+  private GatheringByteChannel connect() throws IOException {
+    SocketChannel socketChannel = open();
+    socket = socketChannel;
+    GatheringByteChannel channel = socketChannel;
+    if (compress) {
+      channel = new GzipChannel(socketChannel, compressionLevel, compressionMetrics);
+    }
+    final byte[] header = encoder.headerBytes();
+    if (header != null && header.length > 0) {
+      try {
+        write(channel, List.of(header));
+      } catch (IOException e) {
+        socketChannel.close();
+        throw e;
+      }
+    }
+    addInfo("Connected to " + destination);
+    return channel;
+  }
+
+  private SocketChannel open() throws IOException {
+    if (destination.startsWith(UNIX_PREFIX)) {
+      return openUnix(destination.substring(UNIX_PREFIX.length()));
+    }
+    final int colon = destination.lastIndexOf(':');
+    if (colon < 1) {
+      throw new IOException("Invalid destination " + destination + " expected host:port or unix:/path");
+    }
+    final String host = destination.substring(0, colon);
+    final int port = Integer.parseInt(destination.substring(colon + 1).trim());
+    final SocketChannel channel = SocketChannel.open();
+    try {
+      channel.socket().connect(new InetSocketAddress(host, port), (int) connectTimeout.getMilliseconds());
+      channel.socket().setTcpNoDelay(true);
+      return channel;
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Open a Unix domain socket channel via reflection as the API requires Java 16+.
+   */
+  private static SocketChannel openUnix(String path) throws IOException {
+    try {
+      final Class<?> addressType = Class.forName("java.net.UnixDomainSocketAddress");
+      final SocketAddress address = (SocketAddress) addressType.getMethod("of", String.class).invoke(null, path);
+      final ProtocolFamily unix = StandardProtocolFamily.valueOf("UNIX");
+      final SocketChannel channel = (SocketChannel) SocketChannel.class.getMethod("open", ProtocolFamily.class).invoke(null, unix);
+      try {
+        channel.connect(address);
+        return channel;
+      } catch (IOException e) {
+        channel.close();
+        throw e;
+      }
+    } catch (InvocationTargetException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException("Failed to open unix domain socket " + path, e.getCause());
+    } catch (ReflectiveOperationException | IllegalArgumentException e) {
+      throw new IOException("Unix domain sockets require Java 16+", e);
+    }
+  }
+
+  private static void write(GatheringByteChannel channel, List<byte[]> batch) throws IOException {
+    final int count = batch.size();
+    final ByteBuffer[] buffers = new ByteBuffer[count];
+    for (int i = 0; i < count; i++) {
+      buffers[i] = ByteBuffer.wrap(batch.get(i));
+    }
+    int offset = 0;
+    while (offset < count) {
+      channel.write(buffers, offset, count - offset);
+      while (offset < count && !buffers[offset].hasRemaining()) {
+        offset++;
+      }
+    }
+  }
+
+  private void close(GatheringByteChannel channel) {
+    try {
+      channel.close();
+    } catch (IOException e) {
+      addWarn("Failed to close connection to " + destination, e);
+    }
+  }
+
+  /**
+   * Change the encoder from the default JsonEncoder.
+   */
+  public void setEncoder(Encoder<ILoggingEvent> encoder) {
+    this.encoder = encoder;
+  }
+
+  /**
+   * Set the destination as {@code host:port} or {@code unix:/path/to/socket}.
+   */
+  public void setDestination(String destination) {
+    this.destination = Eval.eval(destination);
+  }
+
+  /**
+   * Set the max bytes buffered in memory while the destination is slow or disconnected (defaults to 8MB).
+   */
+  public void setBufferSize(FileSize bufferSize) {
+    this.bufferSize = bufferSize;
+  }
+
+  /**
+   * Set the base path of a disk spool for events that overflow the buffer, like {@code logs/spool/shipper}.
+   */
+  public void setSpool(String spool) {
+    this.spool = Eval.eval(spool);
+  }
+
+  /**
+   * Set the max total size of the spool with the oldest events evicted first (defaults to 1GB).
+   */
+  public void setSpoolSize(FileSize spoolSize) {
+    this.spoolSize = spoolSize;
+  }
+
+  /**
+   * Set the size of each spool segment file (defaults to 16MB).
+   */
+  public void setSpoolSegmentSize(FileSize spoolSegmentSize) {
+    this.spoolSegmentSize = spoolSegmentSize;
+  }
+
+  /**
+   * Set the approximate max bytes written per batch (defaults to 64KB).
+   */
+  public void setBatchSize(FileSize batchSize) {
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * Set the initial delay before reconnecting, doubled on each failure (defaults to 100 milliseconds).
+   */
+  public void setReconnectDelay(Duration reconnectDelay) {
+    this.reconnectDelay = reconnectDelay;
+  }
+
+  /**
+   * Set the maximum delay between reconnection attempts (defaults to 30 seconds).
+   */
+  public void setMaxReconnectDelay(Duration maxReconnectDelay) {
+    this.maxReconnectDelay = maxReconnectDelay;
+  }
+
+  /**
+   * Set the TCP connect timeout (defaults to 5 seconds).
+   */
+  public void setConnectTimeout(Duration connectTimeout) {
+    this.connectTimeout = connectTimeout;
+  }
+
+  /**
+   * Set to true to send a streaming gzip stream, flushed at each batch.
+   */
+  public void setCompress(boolean compress) {
+    this.compress = compress;
+  }
+
+  /**
+   * Set the compression level from 0 to 9 (defaults to the Deflater default of 6).
+   */
+  public void setCompressionLevel(int compressionLevel) {
+    this.compressionLevel = compressionLevel;
+  }
+
+  /**
+   * Set the component on an underlying JsonEncoder otherwise throw IllegalStateException.
+   */
+  public void setComponent(String component) {
+    if (encoder instanceof JsonEncoder) {
+      ((JsonEncoder) encoder).setComponent(component);
+    } else {
+      throw new IllegalStateException("Can only set component when using JsonEncoder");
+    }
+  }
+
+  /**
+   * Set the environment on an underlying JsonEncoder otherwise throw IllegalStateException.
+   */
+  public void setEnvironment(String environment) {
+    if (encoder instanceof JsonEncoder) {
+      ((JsonEncoder) encoder).setEnvironment(environment);
+    } else {
+      throw new IllegalStateException("Can only set environment when using JsonEncoder");
+    }
+  }
+}
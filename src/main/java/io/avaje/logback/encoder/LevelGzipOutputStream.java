@@ -0,0 +1,16 @@
+package io.avaje.logback.encoder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * GZIPOutputStream with a configurable compression level.
+ */
+final class LevelGzipOutputStream extends GZIPOutputStream {
+
+  LevelGzipOutputStream(OutputStream out, int size, int level) throws IOException {
+    super(out, size);
+    def.setLevel(level);
+  }
+}
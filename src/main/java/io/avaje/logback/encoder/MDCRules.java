@@ -0,0 +1,199 @@
+package io.avaje.logback.encoder;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compiled MDC rules of include and exclude keys (exact names or prefixes like {@code http.*}),
+ * nesting of prefixed keys under an object, a cap on the number of keys per event and a
+ * budget of UTF-8 bytes per value.
+ * <p>
+ * Prefixes match on a {@code .} boundary, {@code http.*} (or {@code http*}) matches
+ * {@code http.method} but not {@code httpVersion}. A key that is the name of a nest group,
+ * like {@code http} with the group {@code http}, is written in the group object as
+ * {@code _value} such that the group is always an object and never a duplicate key.
+ * <p>
+ * The decision for each key is computed once and cached, so applying the rules is a map
+ * lookup per key. The MDC is encoded as a JSON fragment like {@code "k1":"v1","http":{"method":"GET"}}.
+ */
+final class MDCRules {
+
+  /** Rules that include all keys without nesting. */
+  static final MDCRules ALL = new MDCRules(List.of(), List.of(), List.of(), Integer.MAX_VALUE, Integer.MAX_VALUE);
+
+  private static final int MAX_CACHE = 1000;
+  private static final Key EXCLUDED = new Key(-1, null);
+  /** The name in the group object of a key that is the group name. */
+  static final String GROUP_VALUE = "_value";
+
+  private final Set<String> includeNames = new HashSet<>();
+  private final String[] includePrefixes;
+  private final Set<String> excludeNames = new HashSet<>();
+  private final String[] excludePrefixes;
+  /** The nest group names and their key prefixes like {@code http.} */
+  private final String[] groups;
+  private final String[] groupPrefixes;
+  private final int maxKeys;
+  private final int maxValueBytes;
+  private final boolean includeAll;
+  private final Map<String, Key> keys = new ConcurrentHashMap<>();
+
+  MDCRules(List<String> include, List<String> exclude, List<String> nest, int maxKeys, int maxValueBytes) {
+    this.includePrefixes = compile(include, includeNames);
+    this.excludePrefixes = compile(exclude, excludeNames);
+    this.groups = nest.toArray(new String[0]);
+    this.groupPrefixes = new String[groups.length];
+    for (int i = 0; i < groups.length; i++) {
+      groupPrefixes[i] = groups[i] + ".";
+    }
+    this.maxKeys = maxKeys;
+    this.maxValueBytes = maxValueBytes;
+    this.includeAll = include.isEmpty();
+  }
+
+  private static String[] compile(List<String> rules, Set<String> names) {
+    final List<String> prefixes = new ArrayList<>();
+    for (String rule : rules) {
+      if (rule.endsWith("*")) {
+        final String prefix = rule.substring(0, rule.length() - 1);
+        prefixes.add(prefix.isEmpty() || prefix.endsWith(".") ? prefix : prefix + ".");
+      } else {
+        names.add(rule);
+      }
+    }
+    return prefixes.toArray(new String[0]);
+  }
+
+  /**
+   * Return true if these rules write all keys as is.
+   */
+  boolean isAll() {
+    return this == ALL;
+  }
+
+  /**
+   * Return the MDC as a JSON fragment, empty when no keys are included.
+   */
+  Fragment fragment(Map<String, String> mdc) {
+    if (mdc.isEmpty()) {
+      return Fragment.EMPTY;
+    }
+    boolean truncated = false;
+    final StringBuilder sb = new StringBuilder(32 * mdc.size());
+    StringBuilder[] nested = null;
+    int count = 0;
+    for (Map.Entry<String, String> entry : mdc.entrySet()) {
+      if (entry.getValue() == null) {
+        continue;
+      }
+      final Key key = key(entry.getKey());
+      if (key == EXCLUDED) {
+        continue;
+      }
+      if (++count > maxKeys) {
+        break;
+      }
+      StringBuilder target = sb;
+      if (key.group >= 0) {
+        if (nested == null) {
+          nested = new StringBuilder[groups.length];
+        }
+        if (nested[key.group] == null) {
+          nested[key.group] = new StringBuilder(64);
+        }
+        target = nested[key.group];
+      }
+      if (target.length() > 0) {
+        target.append(',');
+      }
+      JsonEscape.appendString(target, key.name);
+      target.append(':');
+      final String value = entry.getValue();
+      final int cut = Utf8Budget.cut(value, maxValueBytes);
+      truncated |= cut < value.length();
+      JsonEscape.appendString(target, value, cut);
+    }
+    if (nested != null) {
+      for (int i = 0; i < nested.length; i++) {
+        if (nested[i] != null) {
+          if (sb.length() > 0) {
+            sb.append(',');
+          }
+          JsonEscape.appendString(sb, groups[i]);
+          sb.append(":{").append(nested[i]).append('}');
+        }
+      }
+    }
+    return new Fragment(sb.toString(), truncated);
+  }
+
+  private Key key(String name) {
+    Key key = keys.get(name);
+    if (key == null) {
+      key = compute(name);
+      if (keys.size() < MAX_CACHE) {
+        keys.put(name, key);
+      }
+    }
+    return key;
+  }
+
+  private Key compute(String name) {
+    if (excludeNames.contains(name) || startsWithAny(name, excludePrefixes)) {
+      return EXCLUDED;
+    }
+    if (!includeAll && !includeNames.contains(name) && !startsWithAny(name, includePrefixes)) {
+      return EXCLUDED;
+    }
+    for (int i = 0; i < groupPrefixes.length; i++) {
+      if (name.startsWith(groupPrefixes[i]) && name.length() > groupPrefixes[i].length()) {
+        return new Key(i, name.substring(groupPrefixes[i].length()));
+      }
+      if (name.equals(groups[i])) {
+        return new Key(i, GROUP_VALUE);
+      }
+    }
+    return new Key(-1, name);
+  }
+
+  private static boolean startsWithAny(String name, String[] prefixes) {
+    for (String prefix : prefixes) {
+      if (name.startsWith(prefix)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static final class Key {
+
+    /** The nest group index or -1 for a top level key. */
+    final int group;
+    final String name;
+
+    Key(int group, String name) {
+      this.group = group;
+      this.name = name;
+    }
+  }
+
+  /**
+   * The encoded MDC and whether any value was truncated.
+   */
+  static final class Fragment {
+
+    static final Fragment EMPTY = new Fragment("", false);
+
+    final String json;
+    final boolean truncated;
+
+    Fragment(String json, boolean truncated) {
+      this.json = json;
+      this.truncated = truncated;
+    }
+  }
+}
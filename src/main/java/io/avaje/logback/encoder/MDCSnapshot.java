@@ -0,0 +1,82 @@
+package io.avaje.logback.encoder;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable MDC map shared by the events logged while the MDC is unchanged, holding the
+ * lazily encoded JSON fragment of the key values like {@code "k1":"v1","k2":"v2"}.
+ * <p>
+ * The fragment is encoded once for the MDC rules of each encoder (up to 4 encoders with
+ * different rules) and then written raw by JsonEncoder for each event.
+ */
+final class MDCSnapshot extends AbstractMap<String, String> {
+
+  private static final int MAX_CACHED = 4;
+  private static final Cached[] EMPTY = {};
+
+  private final Map<String, String> map;
+  private volatile Cached[] cached = EMPTY;
+
+  MDCSnapshot(Map<String, String> map) {
+    this.map = map;
+  }
+
+  /**
+   * Return the JSON fragment of the key values for the rules.
+   */
+  MDCRules.Fragment fragment(MDCRules rules) {
+    final Cached[] current = cached;
+    for (Cached entry : current) {
+      if (entry.rules == rules) {
+        return entry.fragment;
+      }
+    }
+    final Cached added = new Cached(rules, rules.fragment(map));
+    if (current.length < MAX_CACHED) {
+      // copy on write, a racing add can be lost which only costs encoding it again
+      final Cached[] next = Arrays.copyOf(current, current.length + 1);
+      next[current.length] = added;
+      cached = next;
+    }
+    return added.fragment;
+  }
+
+  @Override
+  public Set<Entry<String, String>> entrySet() {
+    return map.entrySet();
+  }
+
+  @Override
+  public String get(Object key) {
+    return map.get(key);
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return map.containsKey(key);
+  }
+
+  @Override
+  public int size() {
+    return map.size();
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return map.isEmpty();
+  }
+
+  private static final class Cached {
+
+    final MDCRules rules;
+    final MDCRules.Fragment fragment;
+
+    Cached(MDCRules rules, MDCRules.Fragment fragment) {
+      this.rules = rules;
+      this.fragment = fragment;
+    }
+  }
+}
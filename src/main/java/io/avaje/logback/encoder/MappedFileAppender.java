@@ -0,0 +1,488 @@
+package io.avaje.logback.encoder;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import ch.qos.logback.core.encoder.Encoder;
+import ch.qos.logback.core.util.Duration;
+import ch.qos.logback.core.util.FileSize;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.Deflater;
+
+/**
+ * Appender that writes to pre-sized memory mapped segment files that defaults to using JsonEncoder.
+ * <p>
+ * Writers claim a region of the current segment with an atomic position and copy the
+ * encoded event into the mapped memory, avoiding a write syscall per event. When a
+ * segment is full (or the roll interval has passed) a new segment is created and the
+ * full segment is truncated to its written length and closed asynchronously.
+ * <p>
+ * Segment files are named {@code <file>.<sequence>} like {@code logs/app.log.00000012}.
+ * On start, segments that were not closed cleanly (for example due to a crash) are
+ * truncated after their last complete line.
+ * <p>
+ * With {@link #setDurable(boolean)} events are on disk before {@code append} returns.
+ * Concurrent writers are batched into group commits where a single force of the
+ * mapped segment covers all events appended since the previous commit.
+ * <p>
+ * With {@link #setCompress(boolean)} rolled segments are gzip compressed on a low
+ * priority background thread (never on the logging thread).
+ *
+ * <pre>{@code
+ *
+ *   <appender name="file" class="io.avaje.logback.encoder.MappedFileAppender">
+ *     <file>logs/app.log</file>
+ *     <segmentSize>64MB</segmentSize>
+ *     <rollInterval>1 hour</rollInterval>
+ *     <maxSegments>48</maxSegments>
+ *   </appender>
+ *
+ * }</pre>
+ */
+public final class MappedFileAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
+
+  private static final FileSize DEFAULT_SEGMENT_SIZE = new FileSize(64 * FileSize.MB_COEFFICIENT);
+
+  private final ReentrantLock rollLock = new ReentrantLock();
+  private Encoder<ILoggingEvent> encoder;
+  private String file;
+  private FileSize segmentSize = DEFAULT_SEGMENT_SIZE;
+  private Duration rollInterval;
+  private int maxSegments;
+  private FileSize totalSizeCap;
+  private boolean durable;
+  private boolean awaitCommit = true;
+  private Duration maxCommitLatency = Duration.buildByMilliseconds(1);
+  private boolean compress;
+  private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+  private final CompressionMetrics compressionMetrics = new CompressionMetrics();
+
+  private final Queue<MappedSegment> rolled = new ConcurrentLinkedQueue<>();
+  private SegmentFiles segmentFiles;
+  private ExecutorService closer;
+  private GroupCommit groupCommit;
+  private SegmentCompressor compressor;
+  private long nextSequence;
+  private volatile long currentSequence;
+  private volatile MappedSegment current;
+
+  public MappedFileAppender() {
+    this.encoder = new JsonEncoder();
+  }
+
+  @Override
+  public void start() {
+    if (file == null) {
+      addError("No file set for appender [" + name + "]");
+      return;
+    }
+    if (segmentSize.getSize() > MappedSegment.MAX_CAPACITY) {
+      addError("segmentSize " + segmentSize + " exceeds the maximum of " + MappedSegment.MAX_CAPACITY + " bytes");
+      return;
+    }
+    encoder.start();
+    segmentFiles = new SegmentFiles(Paths.get(file));
+    closer = Executors.newSingleThreadExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "mapped-file-" + name);
+      thread.setDaemon(true);
+      return thread;
+    });
+    if (compress) {
+      compressor = new SegmentCompressor("mapped-file-compress-" + name, compressionLevel, compressionMetrics);
+    }
+    try {
+      Files.createDirectories(segmentFiles.dir());
+      nextSequence = recoverSegments() + 1;
+      current = createSegment(System.currentTimeMillis(), 0);
+    } catch (IOException e) {
+      addError("Failed to open segment for " + file, e);
+      closer.shutdown();
+      stopCompressor();
+      return;
+    }
+    if (durable) {
+      long latencyNanos = TimeUnit.MILLISECONDS.toNanos(maxCommitLatency.getMilliseconds());
+      groupCommit = new GroupCommit("mapped-file-commit-" + name, this::sync, latencyNanos);
+    }
+    super.start();
+  }
+
+  private long recoverSegments() throws IOException {
+    segmentFiles.deleteTemporary();
+    long lastSequence = 0;
+    for (SegmentFiles.Entry entry : segmentFiles.list()) {
+      lastSequence = entry.sequence();
+      if (entry.compressed()) {
+        continue;
+      }
+      if (SegmentFiles.needsRecovery(entry.path())) {
+        long length = SegmentFiles.recover(entry.path());
+        addInfo("Recovered segment " + entry.path() + " truncated to " + length + " bytes");
+      }
+      if (compressor != null) {
+        // compress segments left uncompressed by a previous run
+        compressor.submit(entry.path(), this::compressed);
+      }
+    }
+    return lastSequence;
+  }
+
+  @Override
+  public void stop() {
+    if (!isStarted()) {
+      return;
+    }
+    super.stop();
+    rollLock.lock();
+    try {
+      MappedSegment segment = current;
+      current = null;
+      if (segment != null) {
+        segment.seal();
+        retire(segment);
+      }
+    } finally {
+      rollLock.unlock();
+    }
+    if (groupCommit != null) {
+      try {
+        groupCommit.stop();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      groupCommit = null;
+    }
+    MappedSegment remaining;
+    while ((remaining = rolled.poll()) != null) {
+      final MappedSegment segment = remaining;
+      closer.execute(() -> closeSegment(segment));
+    }
+    closer.shutdown();
+    try {
+      if (!closer.awaitTermination(10, TimeUnit.SECONDS)) {
+        addWarn("Timed out waiting for segments to close");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    stopCompressor();
+    encoder.stop();
+  }
+
+  private void stopCompressor() {
+    if (compressor != null) {
+      try {
+        compressor.stop(TimeUnit.SECONDS.toMillis(30));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      compressor = null;
+    }
+  }
+
+  @Override
+  protected void append(ILoggingEvent event) {
+    final byte[] bytes = encoder.encode(event);
+    final GroupCommit commit = groupCommit;
+    if (commit == null) {
+      write(bytes, event.getTimeStamp());
+      return;
+    }
+    commit.begin();
+    boolean written = false;
+    try {
+      written = write(bytes, event.getTimeStamp());
+    } finally {
+      if (!written) {
+        commit.abandon();
+      }
+    }
+    if (written) {
+      final long ticket = commit.append();
+      if (awaitCommit) {
+        try {
+          commit.await(ticket, Long.MAX_VALUE);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+  }
+
+  private boolean write(byte[] bytes, long timestamp) {
+    MappedSegment segment = current;
+    if (segment != null && segment.expired(timestamp)) {
+      segment = roll(segment, timestamp, 0);
+    }
+    while (segment != null && !segment.write(bytes)) {
+      segment = roll(segment, timestamp, bytes.length);
+    }
+    return segment != null;
+  }
+
+  /**
+   * Return the commit ticket covering all events appended so far.
+   * <p>
+   * Use with {@link #awaitCommit(long, long)} to wait for a group of events to be on
+   * disk, typically with {@link #setAwaitCommit(boolean)} false.
+   */
+  public long commitTicket() {
+    return durableCommit().ticket();
+  }
+
+  /**
+   * Wait for the events covered by the ticket to be on disk.
+   *
+   * @param ticket        the ticket obtained via {@link #commitTicket()}
+   * @param timeoutMillis the maximum time to wait
+   * @return true if the events are on disk, false if the timeout elapsed
+   */
+  public boolean awaitCommit(long ticket, long timeoutMillis) throws InterruptedException {
+    return durableCommit().await(ticket, TimeUnit.MILLISECONDS.toNanos(timeoutMillis));
+  }
+
+  private GroupCommit durableCommit() {
+    final GroupCommit commit = groupCommit;
+    if (commit == null) {
+      throw new IllegalStateException("Commit tickets require durable mode and a started appender");
+    }
+    return commit;
+  }
+
+  /**
+   * Force all segments written to since the last commit, run by the group commit thread.
+   * <p>
+   * The current segment is read before draining the rolled segments. A segment is added to
+   * rolled before its successor becomes current, so any segment older than the one read has
+   * been rolled and is drained here, and the one read is forced here even if it rolls meanwhile.
+   */
+  private void sync() {
+    try {
+      final MappedSegment active = current;
+      boolean activeForced = false;
+      MappedSegment segment;
+      while ((segment = rolled.poll()) != null) {
+        segment.awaitWritten();
+        segment.force();
+        activeForced |= segment == active;
+        final MappedSegment full = segment;
+        closer.execute(() -> closeSegment(full));
+      }
+      if (active != null && !activeForced) {
+        active.force();
+      }
+    } catch (RuntimeException e) {
+      addError("Failed to force segment for " + file, e);
+    }
+  }
+
+  /**
+   * Close the sealed segment, in durable mode after the next commit has forced it.
+   */
+  private void retire(MappedSegment segment) {
+    if (durable) {
+      rolled.add(segment);
+    } else {
+      closer.execute(() -> closeSegment(segment));
+    }
+  }
+
+  /**
+   * Replace the full or expired segment with a new one unless another writer already has.
+   *
+   * @param required the number of bytes the new segment must hold
+   * @return the new current segment or null if the appender is stopped or failed
+   */
+  private MappedSegment roll(MappedSegment full, long timestamp, int required) {
+    rollLock.lock();
+    try {
+      if (current != full) {
+        return current;
+      }
+      full.seal();
+      // retire before publishing the new segment so a commit that sees it also forces the full one
+      retire(full);
+      current = createSegment(timestamp, required);
+      return current;
+    } catch (IOException e) {
+      addError("Failed to roll segment for " + file, e);
+      current = null;
+      return null;
+    } finally {
+      rollLock.unlock();
+    }
+  }
+
+  private MappedSegment createSegment(long timestamp, int required) throws IOException {
+    final long sequence = nextSequence++;
+    final long deadline = rollInterval == null ? Long.MAX_VALUE : timestamp + rollInterval.getMilliseconds();
+    final byte[] header = encoder.headerBytes();
+    final int headerLength = header == null ? 0 : header.length;
+    final int capacity = (int) Math.max(segmentSize.getSize(), (long) required + headerLength);
+    MappedSegment segment = MappedSegment.create(segmentFiles.path(sequence), sequence, deadline, capacity);
+    if (durable) {
+      // make the new file itself durable, not only the pages later forced into it
+      segment.forceMetadata();
+      SegmentFiles.forceDirectory(segmentFiles.dir());
+    }
+    currentSequence = sequence;
+    if (headerLength > 0) {
+      segment.write(header);
+    }
+    return segment;
+  }
+
+  private void closeSegment(MappedSegment segment) {
+    boolean complete = false;
+    try {
+      complete = segment.close();
+      if (!complete) {
+        addWarn("Writers still in flight closing segment " + segment.path() + ", leaving it for recovery on start");
+      }
+    } catch (IOException e) {
+      addError("Failed to close segment " + segment.path(), e);
+    }
+    final SegmentCompressor segmentCompressor = compressor;
+    if (segmentCompressor != null && complete) {
+      segmentCompressor.submit(segment.path(), this::compressed);
+    } else {
+      applyRetention();
+    }
+  }
+
+  private void compressed(Path segment, IOException error) {
+    if (error != null) {
+      addError("Failed to compress segment " + segment, error);
+    }
+    applyRetention();
+  }
+
+  private void applyRetention() {
+    try {
+      segmentFiles.retain(maxSegments, totalSizeCap == null ? 0 : totalSizeCap.getSize(), currentSequence);
+    } catch (IOException e) {
+      addError("Failed to apply retention for " + file, e);
+    }
+  }
+
+  /**
+   * Change the encoder from the default JsonEncoder.
+   */
+  public void setEncoder(Encoder<ILoggingEvent> encoder) {
+    this.encoder = encoder;
+  }
+
+  /**
+   * Set the base file path, segments are named with a sequence suffix like {@code app.log.00000012}.
+   */
+  public void setFile(String file) {
+    this.file = file;
+  }
+
+  /**
+   * Set the pre-allocated size of each segment (defaults to 64MB).
+   */
+  public void setSegmentSize(FileSize segmentSize) {
+    this.segmentSize = segmentSize;
+  }
+
+  /**
+   * Set the interval after which the current segment is rolled even if it is not full.
+   */
+  public void setRollInterval(Duration rollInterval) {
+    this.rollInterval = rollInterval;
+  }
+
+  /**
+   * Set the maximum number of segment files to retain with the oldest deleted first.
+   */
+  public void setMaxSegments(int maxSegments) {
+    this.maxSegments = maxSegments;
+  }
+
+  /**
+   * Set the maximum total size of all segment files with the oldest deleted first.
+   */
+  public void setTotalSizeCap(FileSize totalSizeCap) {
+    this.totalSizeCap = totalSizeCap;
+  }
+
+  /**
+   * Set to true for events to be on disk before append returns using group commits.
+   * <p>
+   * New segment files and their directory entry are also forced when created.
+   */
+  public void setDurable(boolean durable) {
+    this.durable = durable;
+  }
+
+  /**
+   * Set the max time a commit is delayed to gather more events into it (defaults to 1 millisecond).
+   * <p>
+   * A commit is only delayed while other events are part way through being written.
+   */
+  public void setMaxCommitLatency(Duration maxCommitLatency) {
+    this.maxCommitLatency = maxCommitLatency;
+  }
+
+  /**
+   * Set to false for append to not wait for the commit in durable mode.
+   * <p>
+   * Callers then wait on a ticket via {@link #commitTicket()} and {@link #awaitCommit(long, long)}.
+   */
+  public void setAwaitCommit(boolean awaitCommit) {
+    this.awaitCommit = awaitCommit;
+  }
+
+  /**
+   * Set to true to gzip compress rolled segments on a low priority background thread.
+   */
+  public void setCompress(boolean compress) {
+    this.compress = compress;
+  }
+
+  /**
+   * Set the compression level from 0 to 9 (defaults to the Deflater default of 6).
+   */
+  public void setCompressionLevel(int compressionLevel) {
+    this.compressionLevel = compressionLevel;
+  }
+
+  /**
+   * Return the bytes in and out of segment compression.
+   */
+  public CompressionMetrics getCompressionMetrics() {
+    return compressionMetrics;
+  }
+
+  /**
+   * Set the component on an underlying JsonEncoder otherwise throw IllegalStateException.
+   */
+  public void setComponent(String component) {
+    if (encoder instanceof JsonEncoder) {
+      ((JsonEncoder) encoder).setComponent(component);
+    } else {
+      throw new IllegalStateException("Can only set component when using JsonEncoder");
+    }
+  }
+
+  /**
+   * Set the environment on an underlying JsonEncoder otherwise throw IllegalStateException.
+   */
+  public void setEnvironment(String environment) {
+    if (encoder instanceof JsonEncoder) {
+      ((JsonEncoder) encoder).setEnvironment(environment);
+    } else {
+      throw new IllegalStateException("Can only set environment when using JsonEncoder");
+    }
+  }
+}
@@ -0,0 +1,166 @@
+package io.avaje.logback.encoder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * A pre-sized memory mapped segment file that concurrent writers append to.
+ * <p>
+ * Writers claim a region of the segment by atomically advancing the position and
+ * then copy their bytes into the claimed region. A claim that does not fit marks
+ * the segment as full and the writer moves on to the next segment.
+ */
+final class MappedSegment {
+
+  /** Limit segments such that claimed positions can not overflow. */
+  static final int MAX_CAPACITY = Integer.MAX_VALUE / 4;
+
+  private static final long CLOSE_WAIT_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+  private final Path path;
+  private final long sequence;
+  private final long deadline;
+  private final int capacity;
+  private final FileChannel channel;
+  private final MappedByteBuffer buffer;
+
+  /** The claimed position, can exceed capacity once the segment is full. */
+  private final AtomicInteger position = new AtomicInteger();
+  /** The number of bytes completely written into claimed regions. */
+  private final AtomicInteger written = new AtomicInteger();
+  /** The end of the valid data, set once the segment is full or sealed. */
+  private final AtomicInteger end = new AtomicInteger(Integer.MAX_VALUE);
+
+  private MappedSegment(Path path, long sequence, long deadline, int capacity) throws IOException {
+    this.path = path;
+    this.sequence = sequence;
+    this.deadline = deadline;
+    this.capacity = capacity;
+    this.channel = FileChannel.open(path, CREATE_NEW, READ, WRITE);
+    this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+  }
+
+  /**
+   * Create a new segment file of the given capacity.
+   *
+   * @param deadline the epoch millis at which the segment should be rolled
+   */
+  static MappedSegment create(Path path, long sequence, long deadline, int capacity) throws IOException {
+    return new MappedSegment(path, sequence, deadline, capacity);
+  }
+
+  Path path() {
+    return path;
+  }
+
+  long sequence() {
+    return sequence;
+  }
+
+  /**
+   * Return true if the segment should be rolled based on time.
+   */
+  boolean expired(long timestamp) {
+    return timestamp >= deadline;
+  }
+
+  /**
+   * Claim a region and write the bytes into it.
+   *
+   * @return false if the bytes did not fit (and the segment is now full)
+   */
+  boolean write(byte[] bytes) {
+    final int length = bytes.length;
+    final int start = position.getAndAdd(length);
+    if (start < 0 || start > capacity - length) {
+      if (start >= 0) {
+        end.accumulateAndGet(start, Math::min);
+      }
+      return false;
+    }
+    ByteBuffer target = buffer.duplicate();
+    target.position(start);
+    target.put(bytes);
+    written.addAndGet(length);
+    return true;
+  }
+
+  /**
+   * Seal the segment such that no further claims succeed.
+   */
+  void seal() {
+    final int sealedAt = position.getAndAdd(capacity + 1);
+    end.accumulateAndGet(sealedAt, Math::min);
+  }
+
+  /**
+   * Flush the file size and metadata to the storage device.
+   */
+  void forceMetadata() throws IOException {
+    channel.force(true);
+  }
+
+  /**
+   * Flush the mapped content to the storage device.
+   */
+  void force() {
+    buffer.force();
+  }
+
+  /**
+   * Wait for writers that claimed a region of this sealed segment to complete.
+   *
+   * @return the length of the valid data
+   */
+  int awaitWritten() {
+    final int validEnd = validEnd();
+    awaitWritten(validEnd);
+    return validEnd;
+  }
+
+  private int validEnd() {
+    return Math.min(end.get(), capacity);
+  }
+
+  private boolean awaitWritten(int validEnd) {
+    final long waitUntil = System.nanoTime() + CLOSE_WAIT_NANOS;
+    while (written.get() < validEnd) {
+      if (System.nanoTime() >= waitUntil) {
+        return false;
+      }
+      LockSupport.parkNanos(100_000);
+    }
+    return true;
+  }
+
+  /**
+   * Wait for in-flight writers, then truncate the file to the written length and close it.
+   * <p>
+   * If writers are still in flight after the wait the file is not truncated, as a writer
+   * copying into the mapping past the new end of file would fault. The zero filled tail is
+   * then left for recovery on the next start. The mapping itself is released when the
+   * buffer is garbage collected.
+   *
+   * @return false if writers were still in flight and the file was not truncated
+   */
+  boolean close() throws IOException {
+    final int validEnd = validEnd();
+    final boolean complete = awaitWritten(validEnd);
+    buffer.force();
+    if (complete) {
+      channel.truncate(validEnd);
+    }
+    channel.close();
+    return complete;
+  }
+}
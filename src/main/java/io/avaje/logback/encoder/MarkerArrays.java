@@ -0,0 +1,46 @@
+package io.avaje.logback.encoder;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Marker;
+
+/**
+ * Caches the encoded JSON array of marker names for each combination of markers.
+ * <p>
+ * Markers are a small fixed set, so each combination is encoded once and then written as
+ * is. The cache is bounded in case markers are created dynamically.
+ */
+final class MarkerArrays {
+
+  private static final int MAX_SIZE = 1000;
+
+  private final Map<List<Marker>, String> cache = new ConcurrentHashMap<>();
+
+  /**
+   * Return the JSON array of the marker names like {@code ["AUDIT","SECURITY"]}.
+   */
+  String json(List<Marker> markers) {
+    final String cached = cache.get(markers);
+    if (cached != null) {
+      return cached;
+    }
+    final String json = encode(markers);
+    if (cache.size() < MAX_SIZE) {
+      cache.put(List.copyOf(markers), json);
+    }
+    return json;
+  }
+
+  private static String encode(List<Marker> markers) {
+    final StringBuilder sb = new StringBuilder(16 * markers.size()).append('[');
+    for (int i = 0; i < markers.size(); i++) {
+      if (i > 0) {
+        sb.append(',');
+      }
+      JsonEscape.appendString(sb, markers.get(i).getName());
+    }
+    return sb.append(']').toString();
+  }
+}
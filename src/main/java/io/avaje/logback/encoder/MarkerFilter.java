@@ -0,0 +1,70 @@
+package io.avaje.logback.encoder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.filter.AbstractMatcherFilter;
+import ch.qos.logback.core.spi.FilterReply;
+import org.slf4j.Marker;
+
+/**
+ * Filter that matches events having any of the given markers (including referenced markers).
+ * <p>
+ * Used with any appender to route events by marker, for example to send AUDIT events to a
+ * dedicated appender:
+ *
+ * <pre>{@code
+ *
+ *   <appender name="audit" class="io.avaje.logback.encoder.JsonSocketAppender">
+ *     <filter class="io.avaje.logback.encoder.MarkerFilter">
+ *       <marker>AUDIT</marker>
+ *       <marker>SECURITY</marker>
+ *       <onMatch>ACCEPT</onMatch>
+ *       <onMismatch>DENY</onMismatch>
+ *     </filter>
+ *     ...
+ *   </appender>
+ *
+ * }</pre>
+ */
+public final class MarkerFilter extends AbstractMatcherFilter<ILoggingEvent> {
+
+  private final List<String> markers = new ArrayList<>();
+  private String[] names = {};
+
+  @Override
+  public void start() {
+    if (markers.isEmpty()) {
+      addError("No marker set for filter " + getName());
+      return;
+    }
+    names = markers.toArray(new String[0]);
+    super.start();
+  }
+
+  @Override
+  public FilterReply decide(ILoggingEvent event) {
+    if (!isStarted()) {
+      return FilterReply.NEUTRAL;
+    }
+    final List<Marker> eventMarkers = event.getMarkerList();
+    if (eventMarkers != null) {
+      for (Marker marker : eventMarkers) {
+        for (String name : names) {
+          if (marker.contains(name)) {
+            return onMatch;
+          }
+        }
+      }
+    }
+    return onMismatch;
+  }
+
+  /**
+   * Add a marker name to match.
+   */
+  public void addMarker(String marker) {
+    markers.add(marker.trim());
+  }
+}
@@ -0,0 +1,49 @@
+package io.avaje.logback.encoder;
+
+/**
+ * Generates a hash of the message template and logger name such that events from the
+ * same log statement have the same hash.
+ * <p>
+ * Templates are usually string literals, so the hex hash is cached by the identity of the
+ * template and logger name in a fixed size direct mapped cache, making the hash a single
+ * lookup in the common case. The hex format is the same as {@link StackHasher}.
+ */
+final class MessageHasher {
+
+  private static final int SIZE = 1024;
+
+  private final Entry[] cache = new Entry[SIZE];
+
+  /**
+   * Return the hexadecimal hash of the message template and logger name.
+   */
+  String hexHash(String template, String loggerName) {
+    final int slot = (31 * System.identityHashCode(template) + System.identityHashCode(loggerName)) & (SIZE - 1);
+    final Entry entry = cache[slot];
+    if (entry != null && entry.template == template && entry.loggerName == loggerName) {
+      return entry.hexHash;
+    }
+    final String hexHash = String.format("%08x", hash(template, loggerName));
+    // entries are immutable so a racing write only costs a recompute
+    cache[slot] = new Entry(template, loggerName, hexHash);
+    return hexHash;
+  }
+
+  static int hash(String template, String loggerName) {
+    final int hash = loggerName == null ? 0 : loggerName.hashCode();
+    return 31 * hash + (template == null ? 0 : template.hashCode());
+  }
+
+  private static final class Entry {
+
+    final String template;
+    final String loggerName;
+    final String hexHash;
+
+    Entry(String template, String loggerName, String hexHash) {
+      this.template = template;
+      this.loggerName = loggerName;
+      this.hexHash = hexHash;
+    }
+  }
+}
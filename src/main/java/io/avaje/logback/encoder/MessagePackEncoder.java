@@ -0,0 +1,15 @@
+package io.avaje.logback.encoder;
+
+/**
+ * Encoder of MessagePack maps with the same fields as JsonEncoder.
+ * <p>
+ * Events are written as a stream of MessagePack maps with the timestamp as
+ * epoch milliseconds.
+ */
+public final class MessagePackEncoder extends BinaryEncoder {
+
+  @Override
+  BinaryWriter writer(int initialCapacity) {
+    return new MessagePackWriter(initialCapacity);
+  }
+}
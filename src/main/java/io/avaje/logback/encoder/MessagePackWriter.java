@@ -0,0 +1,104 @@
+package io.avaje.logback.encoder;
+
+/**
+ * MessagePack primitives using the smallest representation of each value.
+ */
+final class MessagePackWriter extends BinaryWriter {
+
+  MessagePackWriter(int initialCapacity) {
+    super(initialCapacity);
+  }
+
+  @Override
+  void mapHeader(int size) {
+    if (size < 16) {
+      write(0x80 | size);
+    } else if (size < 0x10000) {
+      write(0xDE);
+      writeBigEndian(size, 2);
+    } else {
+      write(0xDF);
+      writeBigEndian(size, 4);
+    }
+  }
+
+  @Override
+  void arrayHeader(int size) {
+    if (size < 16) {
+      write(0x90 | size);
+    } else if (size < 0x10000) {
+      write(0xDC);
+      writeBigEndian(size, 2);
+    } else {
+      write(0xDD);
+      writeBigEndian(size, 4);
+    }
+  }
+
+  @Override
+  void stringHeader(int length) {
+    if (length < 32) {
+      write(0xA0 | length);
+    } else if (length < 0x100) {
+      write(0xD9);
+      write(length);
+    } else if (length < 0x10000) {
+      write(0xDA);
+      writeBigEndian(length, 2);
+    } else {
+      write(0xDB);
+      writeBigEndian(length, 4);
+    }
+  }
+
+  @Override
+  void writeLong(long value) {
+    if (value >= 0) {
+      if (value < 128) {
+        write((int) value);
+      } else if (value < 0x100) {
+        write(0xCC);
+        write((int) value);
+      } else if (value < 0x10000) {
+        write(0xCD);
+        writeBigEndian(value, 2);
+      } else if (value < 0x100000000L) {
+        write(0xCE);
+        writeBigEndian(value, 4);
+      } else {
+        write(0xCF);
+        writeBigEndian(value, 8);
+      }
+    } else if (value >= -32) {
+      write((int) value);
+    } else if (value >= Byte.MIN_VALUE) {
+      write(0xD0);
+      write((int) value);
+    } else if (value >= Short.MIN_VALUE) {
+      write(0xD1);
+      writeBigEndian(value, 2);
+    } else if (value >= Integer.MIN_VALUE) {
+      write(0xD2);
+      writeBigEndian(value, 4);
+    } else {
+      write(0xD3);
+      writeBigEndian(value, 8);
+    }
+  }
+
+  @Override
+  void writeDouble(double value) {
+    write(0xCB);
+    writeBigEndian(Double.doubleToLongBits(value), 8);
+  }
+
+  @Override
+  void writeBoolean(boolean value) {
+    write(value ? 0xC3 : 0xC2);
+  }
+
+  @Override
+  void writeNull() {
+    write(0xC0);
+  }
+}
@@ -0,0 +1,339 @@
+package io.avaje.logback.encoder;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.pattern.ThrowableHandlingConverter;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.core.CoreConstants;
+import ch.qos.logback.core.encoder.EncoderBase;
+import io.avaje.json.JsonWriter;
+import io.avaje.json.PropertyNames;
+import io.avaje.json.mapper.JsonMapper;
+import io.avaje.json.stream.JsonStream;
+
+/**
+ * Encoder of OpenTelemetry log records using the OTLP/JSON encoding.
+ * <p>
+ * Each event is encoded as a {@code LogRecord} with timeUnixNano from the event instant,
+ * severityNumber and severityText from the level, the message as body, MDC and custom
+ * fields as attributes (with custom field lists and objects as arrayValue and kvlistValue), {@code exception.*} attributes from the throwable and the trace
+ * and span id from configurable MDC keys.
+ * <p>
+ * With {@link JsonHttpAppender} each batch of records is framed as an
+ * {@code ExportLogsServiceRequest} with the resource attributes (service.name from the
+ * component, deployment.environment from env and host.name) encoded once on start.
+ *
+ * <pre>{@code
+ *
+ *   <appender name="otlp" class="io.avaje.logback.encoder.JsonHttpAppender">
+ *     <url>http://collector:4318/v1/logs</url>
+ *     <encoder class="io.avaje.logback.encoder.OtlpJsonEncoder"/>
+ *   </appender>
+ *
+ * }</pre>
+ */
+public final class OtlpJsonEncoder extends EncoderBase<ILoggingEvent> implements BatchFraming {
+
+  private static final byte[] EMPTY_BYTES = {};
+  private static final byte[] SEPARATOR = {','};
+  private static final byte[] FOOTER = "]}]}]}".getBytes(StandardCharsets.UTF_8);
+
+  private final JsonStream json;
+  private final JsonMapper mapper;
+  private final PropertyNames properties;
+  private final EventFields eventFields = new EventFields();
+  private String component;
+  private String environment;
+  private String host;
+  private String traceIdKey = "trace_id";
+  private String spanIdKey = "span_id";
+
+  private byte[] header;
+  /** The pre-encoded custom field attributes. */
+  private String[] customAttributes;
+
+  public OtlpJsonEncoder() {
+    this.json = JsonStream.builder().build();
+    this.mapper = JsonMapper.builder().jsonStream(json).build();
+    this.properties = json.properties("timeUnixNano", "observedTimeUnixNano", "severityNumber", "severityText", "traceId", "spanId");
+    this.component = Eval.defaultComponent();
+    this.environment = System.getenv("ENVIRONMENT");
+  }
+
+  @Override
+  public void start() {
+    if (host == null) {
+      host = context == null ? null : context.getProperty(CoreConstants.HOSTNAME_KEY);
+    }
+    final StringBuilder sb = new StringBuilder(256).append("{\"resourceLogs\":[{\"resource\":{\"attributes\":[");
+    int count = 0;
+    count = resourceAttribute(sb, count, "service.name", component);
+    count = resourceAttribute(sb, count, "deployment.environment", environment);
+    resourceAttribute(sb, count, "host.name", host);
+    sb.append("]},\"scopeLogs\":[{\"scope\":{\"name\":\"io.avaje.logback.encoder\"},\"logRecords\":[");
+    header = sb.toString().getBytes(StandardCharsets.UTF_8);
+    customAttributes = eventFields.customValues().entrySet().stream()
+      .map(e -> attribute(e.getKey(), e.getValue()))
+      .toArray(String[]::new);
+    eventFields.start();
+    super.start();
+  }
+
+  private int resourceAttribute(StringBuilder sb, int count, String key, String value) {
+    if (value == null) {
+      return count;
+    }
+    if (count > 0) {
+      sb.append(',');
+    }
+    sb.append(attribute(key, value));
+    return count + 1;
+  }
+
+  /**
+   * Return the attribute as a JSON key value with the value as an AnyValue.
+   */
+  private String attribute(String key, Object value) {
+    final StringBuilder sb = new StringBuilder(64);
+    keyValue(sb, key, value);
+    return sb.toString();
+  }
+
+  private void keyValue(StringBuilder sb, String key, Object value) {
+    sb.append("{\"key\":").append(mapper.toJson(key)).append(",\"value\":");
+    anyValue(sb, value);
+    sb.append('}');
+  }
+
+  /**
+   * Append the value as an AnyValue, with lists as arrayValue and maps as kvlistValue.
+   */
+  private void anyValue(StringBuilder sb, Object value) {
+    if (value == null) {
+      sb.append("{}");
+    } else if (value instanceof Boolean) {
+      sb.append("{\"boolValue\":").append(value).append('}');
+    } else if (value instanceof Double || value instanceof Float) {
+      sb.append("{\"doubleValue\":").append(mapper.toJson(value)).append('}');
+    } else if (value instanceof Number) {
+      // 64 bit integers are strings in OTLP/JSON
+      sb.append("{\"intValue\":\"").append(value).append("\"}");
+    } else if (value instanceof List) {
+      sb.append("{\"arrayValue\":{\"values\":[");
+      int count = 0;
+      for (Object element : (List<?>) value) {
+        if (count++ > 0) {
+          sb.append(',');
+        }
+        anyValue(sb, element);
+      }
+      sb.append("]}}");
+    } else if (value instanceof Map) {
+      sb.append("{\"kvlistValue\":{\"values\":[");
+      int count = 0;
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        if (count++ > 0) {
+          sb.append(',');
+        }
+        keyValue(sb, String.valueOf(entry.getKey()), entry.getValue());
+      }
+      sb.append("]}}");
+    } else {
+      sb.append("{\"stringValue\":").append(mapper.toJson(String.valueOf(value))).append('}');
+    }
+  }
+
+  @Override
+  public void stop() {
+    super.stop();
+    eventFields.stop();
+  }
+
+  @Override
+  public byte[] headerBytes() {
+    return EMPTY_BYTES;
+  }
+
+  @Override
+  public byte[] footerBytes() {
+    return EMPTY_BYTES;
+  }
+
+  @Override
+  public byte[] batchHeader() {
+    return header;
+  }
+
+  @Override
+  public byte[] batchSeparator() {
+    return SEPARATOR;
+  }
+
+  @Override
+  public byte[] batchFooter() {
+    return FOOTER;
+  }
+
+  @Override
+  public String batchContentType() {
+    return "application/json";
+  }
+
+  @Override
+  public byte[] encode(ILoggingEvent event) {
+    final String stackTraceBody = eventFields.stackTrace(event);
+    final String message = event.getFormattedMessage();
+    final Map<String, String> mdc = event.getMDCPropertyMap();
+    final int bufferSize = 250 + message.length() + stackTraceBody.length() + 40 * mdc.size();
+    final var outputStream = new ByteArrayOutputStream(bufferSize);
+
+    try (var writer = json.writer(outputStream)) {
+      writer.beginObject(properties);
+      writer.name(0);
+      writer.value(unixNanos(event.getInstant()));
+      writer.name(1);
+      writer.value(unixNanos(event.getInstant()));
+      writer.name(2);
+      writer.value(severityNumber(event.getLevel()));
+      writer.name(3);
+      writer.value(event.getLevel().toString());
+      final String traceId = mdc.get(traceIdKey);
+      if (traceId != null) {
+        writer.name(4);
+        writer.value(traceId);
+      }
+      final String spanId = mdc.get(spanIdKey);
+      if (spanId != null) {
+        writer.name(5);
+        writer.value(spanId);
+      }
+      writer.name("body");
+      writer.beginObject();
+      writer.name("stringValue");
+      writer.value(message);
+      writer.endObject();
+      writer.name("attributes");
+      writer.beginArray();
+      attribute(writer, "logger.name", event.getLoggerName());
+      attribute(writer, "thread.name", event.getThreadName());
+      if (!stackTraceBody.isEmpty()) {
+        final IThrowableProxy throwableProxy = event.getThrowableProxy();
+        if (throwableProxy != null) {
+          attribute(writer, "exception.type", throwableProxy.getClassName());
+          if (throwableProxy.getMessage() != null) {
+            attribute(writer, "exception.message", throwableProxy.getMessage());
+          }
+        }
+        attribute(writer, "exception.stacktrace", stackTraceBody);
+        final String stackHash = eventFields.stackHash(event, stackTraceBody);
+        if (stackHash != null) {
+          attribute(writer, "stackhash", stackHash);
+        }
+      }
+      for (String customAttribute : customAttributes) {
+        writer.rawValue(customAttribute);
+      }
+      mdc.forEach((k, v) -> {
+        if (v != null && !k.equals(traceIdKey) && !k.equals(spanIdKey)) {
+          attribute(writer, k, v);
+        }
+      });
+      writer.endArray();
+      writer.endObject();
+    }
+    return outputStream.toByteArray();
+  }
+
+  private static void attribute(JsonWriter writer, String key, String value) {
+    writer.beginObject();
+    writer.name("key");
+    writer.value(key);
+    writer.name("value");
+    writer.beginObject();
+    writer.name("stringValue");
+    writer.value(value);
+    writer.endObject();
+    writer.endObject();
+  }
+
+  /**
+   * Return the instant as nanoseconds since the epoch, as a string per the OTLP/JSON encoding of 64 bit integers.
+   */
+  static String unixNanos(Instant instant) {
+    return Long.toString(instant.getEpochSecond() * 1_000_000_000L + instant.getNano());
+  }
+
+  /**
+   * Return the OpenTelemetry severity number for the level.
+   */
+  static int severityNumber(Level level) {
+    switch (level.toInt()) {
+      case Level.ERROR_INT:
+        return 17;
+      case Level.WARN_INT:
+        return 13;
+      case Level.INFO_INT:
+        return 9;
+      case Level.DEBUG_INT:
+        return 5;
+      default:
+        return 1;
+    }
+  }
+
+  /**
+   * Set the service.name resource attribute.
+   */
+  public void setComponent(String component) {
+    this.component = Eval.eval(component);
+  }
+
+  /**
+   * Set the deployment.environment resource attribute.
+   */
+  public void setEnvironment(String environment) {
+    this.environment = Eval.eval(environment);
+  }
+
+  /**
+   * Set the host.name resource attribute (defaults to the logback HOSTNAME property).
+   */
+  public void setHost(String host) {
+    this.host = Eval.eval(host);
+  }
+
+  /**
+   * Set the MDC key holding the trace id (defaults to {@code trace_id}).
+   */
+  public void setTraceIdKey(String traceIdKey) {
+    this.traceIdKey = traceIdKey;
+  }
+
+  /**
+   * Set the MDC key holding the span id (defaults to {@code span_id}).
+   */
+  public void setSpanIdKey(String spanIdKey) {
+    this.spanIdKey = spanIdKey;
+  }
+
+  public void setIncludeStackHash(boolean includeStackHash) {
+    eventFields.setIncludeStackHash(includeStackHash);
+  }
+
+  public void setThrowableConverter(ThrowableHandlingConverter throwableConverter) {
+    eventFields.setThrowableConverter(throwableConverter);
+  }
+
+  /**
+   * Set custom fields as JSON like {@code {"region":"us-east"}} that are added as attributes.
+   */
+  public void setCustomFields(String customFields) {
+    eventFields.addCustomFields(mapper, customFields, key -> key);
+  }
+}
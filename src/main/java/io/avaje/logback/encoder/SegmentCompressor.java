@@ -0,0 +1,87 @@
+package io.avaje.logback.encoder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Gzip compresses rolled segment files on a low priority background thread.
+ * <p>
+ * A segment {@code app.log.00000012} is compressed to {@code app.log.00000012.gz}
+ * via a temporary file that is atomically moved into place, and then the uncompressed
+ * segment is deleted.
+ */
+final class SegmentCompressor {
+
+  static final String SUFFIX = ".gz";
+  static final String TEMP_SUFFIX = ".gz.tmp";
+
+  private final ExecutorService executor;
+  private final CompressionMetrics metrics;
+  private final int level;
+
+  SegmentCompressor(String name, int level, CompressionMetrics metrics) {
+    this.level = level;
+    this.metrics = metrics;
+    this.executor = Executors.newSingleThreadExecutor(runnable -> {
+      Thread thread = new Thread(runnable, name);
+      thread.setDaemon(true);
+      thread.setPriority(Thread.MIN_PRIORITY);
+      return thread;
+    });
+  }
+
+  /**
+   * Compress the segment in the background, then run the callback with any error.
+   */
+  void submit(Path segment, Callback callback) {
+    executor.execute(() -> {
+      try {
+        compress(segment);
+        callback.compressed(segment, null);
+      } catch (IOException e) {
+        callback.compressed(segment, e);
+      }
+    });
+  }
+
+  void compress(Path segment) throws IOException {
+    final String fileName = segment.getFileName().toString();
+    final Path temp = segment.resolveSibling(fileName + TEMP_SUFFIX);
+    try (InputStream in = Files.newInputStream(segment);
+         OutputStream out = new LevelGzipOutputStream(Files.newOutputStream(temp), 64 * 1024, level)) {
+      in.transferTo(out);
+    }
+    final long bytesIn = Files.size(segment);
+    final long bytesOut = Files.size(temp);
+    Files.move(temp, segment.resolveSibling(fileName + SUFFIX), ATOMIC_MOVE, REPLACE_EXISTING);
+    Files.delete(segment);
+    metrics.add(bytesIn, bytesOut);
+  }
+
+  /**
+   * Stop accepting segments and wait for queued compression to complete.
+   * <p>
+   * Segments not compressed within the timeout are left uncompressed and are
+   * compressed on the next start.
+   */
+  void stop(long timeoutMillis) throws InterruptedException {
+    executor.shutdown();
+    if (!executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS)) {
+      executor.shutdownNow();
+    }
+  }
+
+  interface Callback {
+
+    void compressed(Path segment, IOException error);
+  }
+}
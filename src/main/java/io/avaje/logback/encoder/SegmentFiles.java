@@ -0,0 +1,261 @@
+package io.avaje.logback.encoder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Naming, listing, retention and crash recovery of numbered segment files.
+ * <p>
+ * Segment files are named {@code <base>.<sequence>} with an optional suffix
+ * like {@code .gz} for example {@code app.log.00000012}.
+ */
+final class SegmentFiles {
+
+  private static final int SCAN_BLOCK = 64 * 1024;
+
+  private final Path dir;
+  private final String prefix;
+
+  SegmentFiles(Path base) {
+    Path parent = base.toAbsolutePath().getParent();
+    this.dir = parent;
+    this.prefix = base.getFileName().toString() + ".";
+  }
+
+  Path dir() {
+    return dir;
+  }
+
+  /**
+   * Force the directory such that newly created entries survive a power loss.
+   * <p>
+   * Opening a directory is not supported on all platforms (like Windows) and there the
+   * directory is not forced.
+   */
+  static void forceDirectory(Path dir) {
+    try (FileChannel channel = FileChannel.open(dir, READ)) {
+      channel.force(true);
+    } catch (IOException e) {
+      // not supported on this platform
+    }
+  }
+
+  /**
+   * Return the path for the given sequence.
+   */
+  Path path(long sequence) {
+    return dir.resolve(prefix + String.format("%08d", sequence));
+  }
+
+  /**
+   * Return the existing segment files ordered by sequence.
+   */
+  List<Entry> list() throws IOException {
+    List<Entry> entries = new ArrayList<>();
+    if (!Files.isDirectory(dir)) {
+      return entries;
+    }
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, prefix + "*")) {
+      for (Path path : stream) {
+        final String fileName = path.getFileName().toString();
+        final long sequence = sequence(fileName);
+        if (sequence >= 0 && !fileName.endsWith(".tmp")) {
+          entries.add(new Entry(sequence, path, fileName.endsWith(SegmentCompressor.SUFFIX)));
+        }
+      }
+    }
+    entries.sort(Comparator.comparingLong(Entry::sequence));
+    return entries;
+  }
+
+  /**
+   * Delete temporary files left by compression that did not complete.
+   */
+  void deleteTemporary() throws IOException {
+    if (!Files.isDirectory(dir)) {
+      return;
+    }
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, prefix + "*" + SegmentCompressor.TEMP_SUFFIX)) {
+      for (Path path : stream) {
+        Files.deleteIfExists(path);
+      }
+    }
+  }
+
+  private long sequence(String fileName) {
+    int start = prefix.length();
+    int end = start;
+    while (end < fileName.length() && Character.isDigit(fileName.charAt(end))) {
+      end++;
+    }
+    if (end == start || (end < fileName.length() && fileName.charAt(end) != '.')) {
+      return -1;
+    }
+    return Long.parseLong(fileName.substring(start, end));
+  }
+
+  /**
+   * Delete the oldest segments (excluding the current one) that exceed the retention limits.
+   *
+   * @param maxSegments  the max number of segments to retain, 0 for unlimited
+   * @param totalSizeCap the max total size in bytes of all segments, 0 for unlimited
+   * @param current      the sequence of the segment currently being written
+   */
+  void retain(int maxSegments, long totalSizeCap, long current) throws IOException {
+    if (maxSegments <= 0 && totalSizeCap <= 0) {
+      return;
+    }
+    List<Entry> entries = list();
+    long totalSize = 0;
+    for (Entry entry : entries) {
+      totalSize += size(entry.path());
+    }
+    int count = entries.size();
+    for (Entry entry : entries) {
+      boolean overCount = maxSegments > 0 && count > maxSegments;
+      boolean overSize = totalSizeCap > 0 && totalSize > totalSizeCap;
+      if ((!overCount && !overSize) || entry.sequence() >= current) {
+        break;
+      }
+      totalSize -= size(entry.path());
+      Files.deleteIfExists(entry.path());
+      count--;
+    }
+  }
+
+  private static long size(Path path) {
+    try {
+      return Files.size(path);
+    } catch (IOException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * Return true if the file has trailing zero bytes, meaning it was pre-sized and not closed cleanly.
+   */
+  static boolean needsRecovery(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, READ)) {
+      long size = channel.size();
+      if (size == 0) {
+        return false;
+      }
+      ByteBuffer last = ByteBuffer.allocate(1);
+      channel.read(last, size - 1);
+      return last.get(0) == 0;
+    }
+  }
+
+  /**
+   * Recover a segment file that was not closed cleanly.
+   * <p>
+   * The file is truncated after the last complete line (dropping the zero filled tail
+   * and any partly written last event). Zero bytes left in the retained content by
+   * writers that did not complete are replaced with newlines such that they do not
+   * corrupt adjacent lines.
+   *
+   * @return the recovered length of the file
+   */
+  static long recover(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, READ, WRITE)) {
+      final long end = lastLineEnd(channel);
+      replaceZeros(channel, end);
+      channel.truncate(end);
+      channel.force(true);
+      return end;
+    }
+  }
+
+  private static long lastLineEnd(FileChannel channel) throws IOException {
+    ByteBuffer block = ByteBuffer.allocate(SCAN_BLOCK);
+    long blockEnd = channel.size();
+    boolean content = false;
+    while (blockEnd > 0) {
+      long blockStart = Math.max(0, blockEnd - SCAN_BLOCK);
+      block.clear().limit((int) (blockEnd - blockStart));
+      readFully(channel, block, blockStart);
+      for (int i = block.limit() - 1; i >= 0; i--) {
+        byte b = block.get(i);
+        if (b != 0) {
+          content = true;
+        }
+        if (content && b == '\n') {
+          return blockStart + i + 1;
+        }
+      }
+      blockEnd = blockStart;
+    }
+    return 0;
+  }
+
+  private static void replaceZeros(FileChannel channel, long end) throws IOException {
+    ByteBuffer block = ByteBuffer.allocate(SCAN_BLOCK);
+    long blockStart = 0;
+    while (blockStart < end) {
+      block.clear().limit((int) Math.min(SCAN_BLOCK, end - blockStart));
+      readFully(channel, block, blockStart);
+      boolean modified = false;
+      for (int i = 0; i < block.limit(); i++) {
+        if (block.get(i) == 0) {
+          block.put(i, (byte) '\n');
+          modified = true;
+        }
+      }
+      if (modified) {
+        block.flip();
+        long position = blockStart;
+        while (block.hasRemaining()) {
+          position += channel.write(block, position);
+        }
+      }
+      blockStart += block.limit();
+    }
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer block, long position) throws IOException {
+    while (block.hasRemaining()) {
+      int read = channel.read(block, position + block.position());
+      if (read < 0) {
+        break;
+      }
+    }
+  }
+
+  /**
+   * A segment file and its sequence.
+   */
+  static final class Entry {
+
+    private final long sequence;
+    private final Path path;
+    private final boolean compressed;
+
+    Entry(long sequence, Path path, boolean compressed) {
+      this.sequence = sequence;
+      this.path = path;
+      this.compressed = compressed;
+    }
+
+    long sequence() {
+      return sequence;
+    }
+
+    Path path() {
+      return path;
+    }
+
+    boolean compressed() {
+      return compressed;
+    }
+  }
+}
@@ -0,0 +1,227 @@
+package io.avaje.logback.encoder;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded in-memory buffer of encoded events between logging threads and a sender thread.
+ * <p>
+ * Logging threads never block, when the buffer is at its byte budget the event is
+ * dropped (and counted). A single sender thread drains events in batches.
+ * <p>
+ * With a {@link DiskSpool} events that overflow the byte budget are appended to the
+ * spool instead of being dropped. While the spool holds unread events new events
+ * also go to the spool such that events are drained in order.
+ */
+final class SendBuffer {
+
+  private final Queue<byte[]> queue = new ConcurrentLinkedQueue<>();
+  private final AtomicLong bytes = new AtomicLong();
+  private final AtomicLong dropped = new AtomicLong();
+  private final long maxBytes;
+  private final DiskSpool spool;
+  private volatile Thread waiter;
+  private volatile IOException spoolError;
+  private boolean drainedSpool;
+
+  SendBuffer(long maxBytes) {
+    this(maxBytes, null);
+  }
+
+  SendBuffer(long maxBytes, DiskSpool spool) {
+    this.maxBytes = maxBytes;
+    this.spool = spool;
+  }
+
+  /**
+   * Add the encoded event returning false if it was dropped as the buffer is full.
+   */
+  boolean offer(byte[] event) {
+    if (spool != null && spool.hasUnread()) {
+      return spool(event);
+    }
+    if (bytes.addAndGet(event.length) > maxBytes) {
+      bytes.addAndGet(-event.length);
+      if (spool != null) {
+        return spool(event);
+      }
+      dropped.incrementAndGet();
+      return false;
+    }
+    queue.add(event);
+    wakeup();
+    return true;
+  }
+
+  private boolean spool(byte[] event) {
+    try {
+      if (spool.append(event)) {
+        wakeup();
+        return true;
+      }
+    } catch (IOException e) {
+      spoolError = e;
+    }
+    dropped.incrementAndGet();
+    return false;
+  }
+
+  /**
+   * Drain up to maxCount events and roughly maxBatchBytes into the batch, waiting
+   * up to timeoutNanos for at least one event. Must only be called by the sender thread.
+   *
+   * @return the number of bytes added to the batch
+   */
+  long drain(List<byte[]> batch, int maxCount, long maxBatchBytes, long timeoutNanos) {
+    drainedSpool = false;
+    byte[] event = queue.poll();
+    if (event == null) {
+      waiter = Thread.currentThread();
+      try {
+        event = queue.poll();
+        if (event == null) {
+          if (spool != null && spool.hasUnread()) {
+            return readSpool(batch, maxCount, maxBatchBytes);
+          }
+          LockSupport.parkNanos(this, timeoutNanos);
+          event = queue.poll();
+          if (event == null) {
+            return readSpool(batch, maxCount, maxBatchBytes);
+          }
+        }
+      } finally {
+        waiter = null;
+      }
+    }
+    long batchBytes = 0;
+    int count = 0;
+    while (event != null) {
+      batch.add(event);
+      batchBytes += event.length;
+      if (++count >= maxCount || batchBytes >= maxBatchBytes) {
+        break;
+      }
+      event = queue.poll();
+    }
+    bytes.addAndGet(-batchBytes);
+    return batchBytes;
+  }
+
+  private long readSpool(List<byte[]> batch, int maxCount, long maxBatchBytes) {
+    if (spool == null || !spool.hasUnread()) {
+      return 0;
+    }
+    drainedSpool = true;
+    try {
+      return spool.read(batch, maxCount, maxBatchBytes);
+    } catch (IOException e) {
+      spoolError = e;
+      return 0;
+    }
+  }
+
+  /**
+   * Return true if the last drain read events from the spool rather than memory.
+   */
+  boolean drainedSpool() {
+    return drainedSpool;
+  }
+
+  /**
+   * Return the spool position after the events drained so far, or null without a spool.
+   */
+  DiskSpool.Position position() {
+    return spool == null ? null : spool.position();
+  }
+
+  /**
+   * Acknowledge that the events drained before the position have been sent.
+   */
+  void acknowledge(DiskSpool.Position position) {
+    if (spool != null && position != null) {
+      try {
+        spool.acknowledge(position);
+      } catch (IOException e) {
+        spoolError = e;
+      }
+    }
+  }
+
+  /**
+   * Return and clear the last spool error such that the owner can report it.
+   */
+  IOException takeSpoolError() {
+    final IOException error = spoolError;
+    if (error != null) {
+      spoolError = null;
+    }
+    return error;
+  }
+
+  /**
+   * Move events remaining in memory to the spool and close it.
+   */
+  void close() throws IOException {
+    close(List.of());
+  }
+
+  /**
+   * Append the unsent events drained from memory, then events remaining in memory, to the
+   * spool and close it.
+   */
+  void close(List<byte[]> unsent) throws IOException {
+    if (spool != null) {
+      for (byte[] event : unsent) {
+        spool(event);
+      }
+      byte[] event;
+      while ((event = queue.poll()) != null) {
+        bytes.addAndGet(-event.length);
+        spool(event);
+      }
+      spool.close();
+    }
+  }
+
+  /**
+   * Wake the sender thread if it is waiting for events.
+   */
+  void wakeup() {
+    final Thread sender = waiter;
+    if (sender != null) {
+      LockSupport.unpark(sender);
+    }
+  }
+
+  /**
+   * Return true if no events are held in memory (spooled events are replayed after a restart).
+   */
+  boolean isEmpty() {
+    return queue.isEmpty();
+  }
+
+  /**
+   * Return the bytes currently buffered.
+   */
+  long bytes() {
+    return bytes.get();
+  }
+
+  /**
+   * Return the number of events dropped because the buffer was full.
+   */
+  long dropped() {
+    return dropped.get();
+  }
+
+  /**
+   * Return the bytes of unread events evicted from the spool to keep it under its size cap.
+   */
+  long spoolEvicted() {
+    return spool == null ? 0 : spool.evictedBytes();
+  }
+}
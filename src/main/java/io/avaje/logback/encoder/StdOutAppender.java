@@ -4,14 +4,26 @@ import ch.qos.logback.classic.spi.ILoggingEvent;
 import ch.qos.logback.core.UnsynchronizedAppenderBase;
 import ch.qos.logback.core.encoder.Encoder;
 
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.channels.GatheringByteChannel;
 
 /**
  * Appender that writes to STDOUT that defaults to using JsonEncoder.
+ * <p>
+ * By default this writes via {@code System.out}. With {@link #setUseChannel(boolean)}
+ * it instead writes to file descriptor 1 via a {@link java.nio.channels.FileChannel}
+ * combining concurrent writers into gathering writes and without the synchronized
+ * {@code PrintStream}.
  */
 public final class StdOutAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
 
   private Encoder<ILoggingEvent> encoder;
+  private boolean useChannel;
+  private int queueSize = 8192;
+  private GatheringByteChannel channel;
+  private ChannelWriter channelWriter;
 
   public StdOutAppender() {
     this.encoder = new JsonEncoder();
@@ -20,7 +32,11 @@ public final class StdOutAppender extends UnsynchronizedAppenderBase<ILoggingEve
   @Override
   protected void append(ILoggingEvent event) {
     try {
-      System.out.write(encoder.encode(event));
+      if (channelWriter != null) {
+        channelWriter.write(encoder.encode(event));
+      } else {
+        System.out.write(encoder.encode(event));
+      }
     } catch (IOException e) {
       // NOTE: When actually running on AWS Lambda, an IOException would never happen
       e.printStackTrace();
@@ -30,9 +46,56 @@ public final class StdOutAppender extends UnsynchronizedAppenderBase<ILoggingEve
   @Override
   public void start() {
     encoder.start();
+    if (useChannel) {
+      // flush anything already buffered by System.out so that output stays in order,
+      // the channel is deliberately never closed as that would close STDOUT
+      System.out.flush();
+      if (channel == null) {
+        channel = new FileOutputStream(FileDescriptor.out).getChannel();
+      }
+      channelWriter = new ChannelWriter(channel, queueSize);
+    }
     super.start();
   }
 
+  @Override
+  public void stop() {
+    super.stop();
+    if (channelWriter != null) {
+      try {
+        channelWriter.drain();
+      } catch (IOException e) {
+        addError("Failed to drain queued events", e);
+      }
+    }
+    encoder.stop();
+  }
+
+  /** Write to the given channel rather than file descriptor 1, for testing. */
+  void setChannel(GatheringByteChannel channel) {
+    this.channel = channel;
+  }
+
+  /**
+   * Set to true to write to file descriptor 1 via a FileChannel rather than via {@code System.out}.
+   * <p>
+   * This avoids the lock of the synchronized {@code PrintStream} (which contends under load
+   * and pins virtual threads during blocking writes) with concurrent writers combined
+   * into gathering writes.
+   */
+  public void setUseChannel(boolean useChannel) {
+    this.useChannel = useChannel;
+  }
+
+  /**
+   * With useChannel, set the max number of events queued for writing (defaults to 8192).
+   * <p>
+   * When full, writers wait for the queued events to be written.
+   */
+  public void setQueueSize(int queueSize) {
+    this.queueSize = queueSize;
+  }
+
   /**
    * Change the encoder from the default JsonEncoder.
    */
@@ -0,0 +1,27 @@
+package io.avaje.logback.encoder;
+
+import ch.qos.logback.classic.Level;
+
+/**
+ * Mapping of logback levels to syslog severity as used by GELF and journald.
+ */
+final class SyslogSeverity {
+
+  private SyslogSeverity() {}
+
+  /**
+   * Return the syslog severity for the level.
+   */
+  static int of(Level level) {
+    switch (level.toInt()) {
+      case Level.ERROR_INT:
+        return 3;
+      case Level.WARN_INT:
+        return 4;
+      case Level.INFO_INT:
+        return 6;
+      default:
+        return 7;
+    }
+  }
+}
@@ -0,0 +1,193 @@
+package io.avaje.logback.encoder;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.avaje.json.JsonAdapter;
+import io.avaje.json.JsonWriter;
+
+/**
+ * Writes key value pair and argument values as typed JSON.
+ * <p>
+ * The way to write each class is resolved once and cached. Strings, numbers and booleans are
+ * written natively, maps, collections and arrays element by element (a char array as a string),
+ * classes with a registered JsonAdapter via that adapter and other classes using toString().
+ * <p>
+ * Maps, collections and arrays nested deeper than {@code MAX_DEPTH}, including those that
+ * contain themselves, are written as the string {@code "[max depth]"}.
+ */
+final class TypedValueWriter {
+
+  interface ValueWriter {
+    void write(JsonWriter writer, Object value, int depth);
+  }
+
+  static final int MAX_DEPTH = 16;
+  private static final ValueWriter STRING = (writer, value, depth) -> writer.value((String) value);
+  private static final ValueWriter LONG = (writer, value, depth) -> writer.value(((Number) value).longValue());
+  private static final ValueWriter DOUBLE = (writer, value, depth) -> writer.value(((Number) value).doubleValue());
+  private static final ValueWriter BOOLEAN = (writer, value, depth) -> writer.value((boolean) (Boolean) value);
+  private static final ValueWriter RAW_NUMBER = (writer, value, depth) -> writer.rawValue(value.toString());
+  private static final ValueWriter TO_STRING = (writer, value, depth) -> writer.value(value.toString());
+  private static final ValueWriter CHARS = (writer, value, depth) -> writer.value(new String((char[]) value));
+  private static final ValueWriter INTS = (writer, value, depth) -> {
+    writer.beginArray();
+    for (int element : (int[]) value) {
+      writer.value(element);
+    }
+    writer.endArray();
+  };
+  private static final ValueWriter LONGS = (writer, value, depth) -> {
+    writer.beginArray();
+    for (long element : (long[]) value) {
+      writer.value(element);
+    }
+    writer.endArray();
+  };
+  private static final ValueWriter SHORTS = (writer, value, depth) -> {
+    writer.beginArray();
+    for (short element : (short[]) value) {
+      writer.value(element);
+    }
+    writer.endArray();
+  };
+  private static final ValueWriter BYTES = (writer, value, depth) -> {
+    writer.beginArray();
+    for (byte element : (byte[]) value) {
+      writer.value(element);
+    }
+    writer.endArray();
+  };
+  private static final ValueWriter DOUBLES = (writer, value, depth) -> {
+    writer.beginArray();
+    for (double element : (double[]) value) {
+      writer.value(element);
+    }
+    writer.endArray();
+  };
+  private static final ValueWriter FLOATS = (writer, value, depth) -> {
+    writer.beginArray();
+    for (float element : (float[]) value) {
+      writer.value(element);
+    }
+    writer.endArray();
+  };
+  private static final ValueWriter BOOLEANS = (writer, value, depth) -> {
+    writer.beginArray();
+    for (boolean element : (boolean[]) value) {
+      writer.value(element);
+    }
+    writer.endArray();
+  };
+
+  private final Map<Class<?>, ValueWriter> writers = new ConcurrentHashMap<>();
+
+  /**
+   * Register the adapter used to write values of the given type.
+   */
+  @SuppressWarnings("unchecked")
+  <T> void putAdapter(Class<T> type, JsonAdapter<T> adapter) {
+    final JsonAdapter<Object> objectAdapter = (JsonAdapter<Object>) adapter;
+    writers.put(type, (writer, value, depth) -> objectAdapter.toJson(writer, value));
+  }
+
+  /**
+   * Write the value as typed JSON.
+   */
+  void write(JsonWriter writer, Object value) {
+    write(writer, value, 0);
+  }
+
+  private void write(JsonWriter writer, Object value, int depth) {
+    if (value == null) {
+      writer.nullValue();
+    } else {
+      writers.computeIfAbsent(value.getClass(), this::resolve).write(writer, value, depth);
+    }
+  }
+
+  private ValueWriter resolve(Class<?> type) {
+    if (type == String.class) {
+      return STRING;
+    }
+    if (type == Integer.class || type == Long.class || type == Short.class || type == Byte.class) {
+      return LONG;
+    }
+    if (type == Double.class || type == Float.class) {
+      return DOUBLE;
+    }
+    if (type == BigDecimal.class || type == BigInteger.class) {
+      return RAW_NUMBER;
+    }
+    if (type == Boolean.class) {
+      return BOOLEAN;
+    }
+    if (Map.class.isAssignableFrom(type)) {
+      return this::writeMap;
+    }
+    if (Collection.class.isAssignableFrom(type)) {
+      return (writer, value, depth) -> writeArray(writer, (Collection<?>) value, depth);
+    }
+    if (Object[].class.isAssignableFrom(type)) {
+      return (writer, value, depth) -> writeArray(writer, Arrays.asList((Object[]) value), depth);
+    }
+    if (type.isArray()) {
+      return primitiveArray(type.getComponentType());
+    }
+    return TO_STRING;
+  }
+
+  private static ValueWriter primitiveArray(Class<?> componentType) {
+    if (componentType == int.class) {
+      return INTS;
+    }
+    if (componentType == long.class) {
+      return LONGS;
+    }
+    if (componentType == double.class) {
+      return DOUBLES;
+    }
+    if (componentType == float.class) {
+      return FLOATS;
+    }
+    if (componentType == boolean.class) {
+      return BOOLEANS;
+    }
+    if (componentType == byte.class) {
+      return BYTES;
+    }
+    if (componentType == short.class) {
+      return SHORTS;
+    }
+    return CHARS;
+  }
+
+  private void writeMap(JsonWriter writer, Object value, int depth) {
+    if (depth >= MAX_DEPTH) {
+      writer.value("[max depth]");
+      return;
+    }
+    writer.beginObject();
+    for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+      writer.name(String.valueOf(entry.getKey()));
+      write(writer, entry.getValue(), depth + 1);
+    }
+    writer.endObject();
+  }
+
+  private void writeArray(JsonWriter writer, Collection<?> values, int depth) {
+    if (depth >= MAX_DEPTH) {
+      writer.value("[max depth]");
+      return;
+    }
+    writer.beginArray();
+    for (Object element : values) {
+      write(writer, element, depth + 1);
+    }
+    writer.endArray();
+  }
+}
@@ -0,0 +1,95 @@
+package io.avaje.logback.encoder;
+
+/**
+ * Finds where to truncate a string such that it fits a budget of encoded UTF-8 bytes.
+ * <p>
+ * The size includes the JSON escaping of each char, and the cut is at a char boundary so it
+ * never splits a surrogate pair or an escape sequence. Only the chars up to the budget are
+ * scanned, so the cost is bounded by the budget rather than the length of the string.
+ */
+final class Utf8Budget {
+
+  private Utf8Budget() {
+  }
+
+  /**
+   * Return the number of chars of the value that fit in maxBytes, the value length if it all fits.
+   */
+  static int cut(String value, int maxBytes) {
+    return cut(value, 0, maxBytes);
+  }
+
+  /**
+   * Return the end index such that the chars from start to it fit in maxBytes.
+   */
+  static int cut(String value, int start, int maxBytes) {
+    final int length = value.length();
+    if (length - start <= maxBytes / 6) {
+      // fits even if every char is escaped as backslash u
+      return length;
+    }
+    int bytes = 0;
+    int i = start;
+    while (i < length) {
+      final char ch = value.charAt(i);
+      final int size;
+      int chars = 1;
+      if (isPair(value, i, ch)) {
+        size = 4;
+        chars = 2;
+      } else {
+        size = size(ch);
+      }
+      if (bytes + size > maxBytes) {
+        return i;
+      }
+      bytes += size;
+      i += chars;
+    }
+    return length;
+  }
+
+  /**
+   * Return the encoded size of the value in bytes, excluding the enclosing quotes.
+   */
+  static int size(String value) {
+    final int length = value.length();
+    int bytes = 0;
+    int i = 0;
+    while (i < length) {
+      final char ch = value.charAt(i);
+      if (isPair(value, i, ch)) {
+        bytes += 4;
+        i += 2;
+      } else {
+        bytes += size(ch);
+        i++;
+      }
+    }
+    return bytes;
+  }
+
+  private static boolean isPair(String value, int i, char ch) {
+    return Character.isHighSurrogate(ch) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1));
+  }
+
+  private static int size(char ch) {
+    if (ch < 0x80) {
+      return ch == '"' || ch == '\\' ? 2 : ch < 0x20 ? escapedSize(ch) : 1;
+    }
+    return ch < 0x800 ? 2 : 3;
+  }
+
+  private static int escapedSize(char ch) {
+    switch (ch) {
+      case '\n':
+      case '\r':
+      case '\t':
+      case '\b':
+      case '\f':
+        return 2;
+      default:
+        return 6;
+    }
+  }
+}
@@ -8,5 +8,6 @@ module io.avaje.logback.encoder {
   requires transitive ch.qos.logback.core;
   requires transitive io.avaje.json;
   requires transitive org.slf4j;
+  requires java.net.http;
 
 }
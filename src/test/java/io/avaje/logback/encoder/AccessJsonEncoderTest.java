@@ -0,0 +1,109 @@
+package io.avaje.logback.encoder;
+
+import io.avaje.json.mapper.JsonMapper;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AccessJsonEncoderTest {
+
+  private final JsonMapper mapper = JsonMapper.builder().build();
+
+  static final class Access {
+
+    final long timeStamp;
+    final String uri;
+    final Map<String, String> headers;
+
+    Access(long timeStamp, String uri, Map<String, String> headers) {
+      this.timeStamp = timeStamp;
+      this.uri = uri;
+      this.headers = headers;
+    }
+  }
+
+  static final class TestAccessEncoder extends AccessJsonEncoder<Access> {
+
+    @Override
+    protected long timeStamp(Access event) {
+      return event.timeStamp;
+    }
+
+    @Override
+    protected String method(Access event) {
+      return "GET";
+    }
+
+    @Override
+    protected String requestUri(Access event) {
+      return event.uri;
+    }
+
+    @Override
+    protected int status(Access event) {
+      return 200;
+    }
+
+    @Override
+    protected long contentLength(Access event) {
+      return 1234;
+    }
+
+    @Override
+    protected long elapsedTime(Access event) {
+      return 17;
+    }
+
+    @Override
+    protected String remoteAddr(Access event) {
+      return "10.0.0.1";
+    }
+
+    @Override
+    protected String requestHeader(Access event, String name) {
+      return event.headers.get(name);
+    }
+  }
+
+  @Test
+  void encode() {
+    TestAccessEncoder encoder = new TestAccessEncoder();
+    encoder.setComponent("gateway");
+    encoder.setCustomFields("{\"region\":\"us-east\"}");
+    encoder.setIncludeHeaders("User-Agent, X-Request-Id");
+    encoder.setTimeZone("UTC");
+    encoder.start();
+
+    byte[] bytes = encoder.encode(new Access(1714564800000L, "/api/orders?id=1", Map.of("user-agent", "curl/8.0")));
+    assertThat(bytes[bytes.length - 1]).isEqualTo((byte) '\n');
+    Map<String, Object> asMap = mapper.map().fromJson(bytes);
+
+    assertThat(asMap).containsEntry("component", "gateway")
+      .containsEntry("timestamp", "2024-05-01T12:00:00Z")
+      .containsEntry("method", "GET")
+      .containsEntry("uri", "/api/orders?id=1")
+      .containsEntry("status", 200L)
+      .containsEntry("bytes", 1234L)
+      .containsEntry("elapsed", 17L)
+      .containsEntry("remoteAddr", "10.0.0.1")
+      .containsEntry("region", "us-east")
+      .containsEntry("headers", Map.of("user-agent", "curl/8.0"));
+  }
+
+  @Test
+  void encode_cachedTimestamp() {
+    TestAccessEncoder encoder = new TestAccessEncoder();
+    encoder.setTimeZone("UTC");
+    encoder.start();
+
+    String first = new String(encoder.encode(new Access(1714564800000L, "/a", Map.of())), StandardCharsets.UTF_8);
+    String second = new String(encoder.encode(new Access(1714564800000L, "/b", Map.of())), StandardCharsets.UTF_8);
+    String third = new String(encoder.encode(new Access(1714564800001L, "/c", Map.of())), StandardCharsets.UTF_8);
+    assertThat(first).contains("\"timestamp\":\"2024-05-01T12:00:00Z\"").doesNotContain("headers");
+    assertThat(second).contains("\"timestamp\":\"2024-05-01T12:00:00Z\"");
+    assertThat(third).contains("\"timestamp\":\"2024-05-01T12:00:00.001Z\"");
+  }
+}
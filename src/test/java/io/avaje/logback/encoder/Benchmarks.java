@@ -0,0 +1,206 @@
+package io.avaje.logback.encoder;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.classic.util.LogbackMDCAdapter;
+import ch.qos.logback.core.AppenderBase;
+import ch.qos.logback.core.encoder.Encoder;
+
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static ch.qos.logback.classic.Level.INFO;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Rough timings that are deliberately kept out of the surefire suite (the class name
+ * does not match the surefire includes). These are comparisons on the current machine,
+ * not rigorous benchmarks. Run after {@code mvn test-compile} with:
+ * <pre>{@code
+ *   mvn -q dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ *   java -cp target/classes:target/test-classes:$(cat target/cp.txt) io.avaje.logback.encoder.Benchmarks [channel] [binary] [caller]
+ * }</pre>
+ */
+public final class Benchmarks {
+
+  private static final int ROUNDS = 5;
+
+  public static void main(String[] args) throws Exception {
+    List<String> names = args.length == 0 ? List.of("channel", "binary", "caller") : List.of(args);
+    for (String name : names) {
+      switch (name) {
+        case "channel":
+          channelWriter();
+          break;
+        case "binary":
+          binaryEncoders();
+          break;
+        case "caller":
+          callerFrames();
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown benchmark " + name);
+      }
+    }
+  }
+
+  /**
+   * ChannelWriter with contending platform threads and virtual threads (Java 21+).
+   */
+  static void channelWriter() throws Exception {
+    final int threads = 8;
+    final int events = 20_000;
+    Path file = Files.createTempFile("channel-writer", ".log");
+    try {
+      for (int round = 0; round < ROUNDS; round++) {
+        ExecutorService platform = Executors.newFixedThreadPool(threads);
+        try {
+          report("channel platform", threads * events, writeAll(platform, file, threads, events));
+        } finally {
+          platform.shutdown();
+        }
+        ExecutorService virtual = virtualExecutor();
+        if (virtual != null) {
+          try {
+            report("channel virtual", threads * events, writeAll(virtual, file, threads, events));
+          } finally {
+            virtual.shutdown();
+          }
+        }
+      }
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+
+  /**
+   * Bytes per event and ns/event of the JSON encoder compared to CBOR and MessagePack.
+   */
+  static void binaryEncoders() {
+    final String custom = "{\"region\":\"us-east\",\"shard\":12,\"weight\":-1.5,\"tags\":[\"a\",\"b\"],\"on\":true}";
+    Logger logger = new LoggerContext().getLogger("org.example.Foo");
+    LoggingEvent event = new LoggingEvent(Logger.FQCN, logger, INFO, "Hi ünïcode " + "x".repeat(300), null, null);
+    event.setMDCPropertyMap(Map.of("requestId", "r1"));
+
+    JsonEncoder json = new JsonEncoder();
+    json.setComponent("my-component");
+    json.setEnvironment("dev");
+    json.setCustomFields(custom);
+    json.start();
+    CborEncoder cbor = new CborEncoder();
+    MessagePackEncoder messagePack = new MessagePackEncoder();
+    for (BinaryEncoder encoder : List.of(cbor, messagePack)) {
+      encoder.setComponent("my-component");
+      encoder.setEnvironment("dev");
+      encoder.setCustomFields(custom);
+      encoder.start();
+    }
+    for (int round = 0; round < ROUNDS; round++) {
+      encodeAll("json", json, event);
+      encodeAll("cbor", cbor, event);
+      encodeAll("msgpack", messagePack, event);
+    }
+  }
+
+  private static void encodeAll(String label, Encoder<ILoggingEvent> encoder, ILoggingEvent event) {
+    final int events = 200_000;
+    long bytes = 0;
+    long start = System.nanoTime();
+    for (int i = 0; i < events; i++) {
+      bytes += encoder.encode(event).length;
+    }
+    long nanos = System.nanoTime() - start;
+    System.out.println(label + " bytes/event:" + bytes / events + " ns/event:" + nanos / events);
+  }
+
+  /**
+   * The cost per event of INFO without the caller and WARN with the caller (callerLevel WARN).
+   */
+  static void callerFrames() {
+    LoggerContext context = new LoggerContext();
+    context.setMDCAdapter(new LogbackMDCAdapter());
+    JsonEncoder encoder = new JsonEncoder();
+    encoder.setCallerLevel("WARN");
+    encoder.setContext(context);
+    encoder.start();
+    EncodingAppender appender = new EncodingAppender(encoder);
+    appender.setContext(context);
+    appender.start();
+    context.getLogger(Logger.ROOT_LOGGER_NAME).addAppender(appender);
+    Logger logger = context.getLogger("org.example.Orders");
+
+    for (int round = 0; round < ROUNDS; round++) {
+      logAll("info", () -> logger.info("Hi"));
+      logAll("warn+caller", () -> logger.warn("Hi"));
+    }
+  }
+
+  private static void logAll(String label, Runnable log) {
+    final int events = 50_000;
+    long start = System.nanoTime();
+    for (int i = 0; i < events; i++) {
+      log.run();
+    }
+    report(label, events, System.nanoTime() - start);
+  }
+
+  private static final class EncodingAppender extends AppenderBase<ILoggingEvent> {
+
+    private final JsonEncoder encoder;
+
+    EncodingAppender(JsonEncoder encoder) {
+      this.encoder = encoder;
+    }
+
+    @Override
+    protected void append(ILoggingEvent event) {
+      encoder.encode(event);
+    }
+  }
+
+  private static long writeAll(ExecutorService executor, Path file, int threads, int events) throws Exception {
+    long start = System.nanoTime();
+    try (FileChannel channel = FileChannel.open(file, CREATE, WRITE, TRUNCATE_EXISTING)) {
+      ChannelWriter writer = new ChannelWriter(channel);
+      Future<?>[] futures = new Future<?>[threads];
+      for (int t = 0; t < threads; t++) {
+        final int thread = t;
+        futures[t] = executor.submit(() -> {
+          for (int i = 0; i < events; i++) {
+            writer.write(("{\"t\":" + thread + ",\"i\":" + i + "}\n").getBytes(StandardCharsets.UTF_8));
+          }
+          return null;
+        });
+      }
+      for (Future<?> future : futures) {
+        future.get(1, TimeUnit.MINUTES);
+      }
+      writer.drain();
+    }
+    return System.nanoTime() - start;
+  }
+
+  private static void report(String label, int events, long nanos) {
+    System.out.println(label + " events:" + events + " ns/event:" + nanos / events);
+  }
+
+  private static ExecutorService virtualExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException e) {
+      return null;
+    }
+  }
+}
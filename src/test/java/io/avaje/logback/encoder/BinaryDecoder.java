@@ -0,0 +1,134 @@
+package io.avaje.logback.encoder;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal CBOR and MessagePack decoder of the values written by the binary encoders, for tests.
+ */
+final class BinaryDecoder {
+
+  private final ByteBuffer buffer;
+  private final boolean cbor;
+
+  private BinaryDecoder(byte[] bytes, boolean cbor) {
+    this.buffer = ByteBuffer.wrap(bytes);
+    this.cbor = cbor;
+  }
+
+  static BinaryDecoder cbor(byte[] bytes) {
+    return new BinaryDecoder(bytes, true);
+  }
+
+  static BinaryDecoder messagePack(byte[] bytes) {
+    return new BinaryDecoder(bytes, false);
+  }
+
+  boolean hasRemaining() {
+    return buffer.hasRemaining();
+  }
+
+  @SuppressWarnings("unchecked")
+  Map<String, Object> readMap() {
+    return (Map<String, Object>) read();
+  }
+
+  Object read() {
+    return cbor ? readCbor() : readMessagePack();
+  }
+
+  private Object readCbor() {
+    final int initial = buffer.get() & 0xFF;
+    final int major = initial >>> 5;
+    final int info = initial & 0x1F;
+    if (major == 7) {
+      switch (initial) {
+        case 0xF4: return false;
+        case 0xF5: return true;
+        case 0xF6: return null;
+        case 0xFB: return buffer.getDouble();
+        default: throw new IllegalStateException("Unsupported " + initial);
+      }
+    }
+    final long value = info < 24 ? info : readUnsigned(1 << (info - 24));
+    switch (major) {
+      case 0: return value;
+      case 1: return -1 - value;
+      case 3: return string((int) value);
+      case 4: return list((int) value);
+      case 5: return map((int) value);
+      default: throw new IllegalStateException("Unsupported major type " + major);
+    }
+  }
+
+  private Object readMessagePack() {
+    final int b = buffer.get() & 0xFF;
+    if (b < 0x80) {
+      return (long) b;
+    } else if (b >= 0xE0) {
+      return (long) (byte) b;
+    } else if ((b & 0xF0) == 0x80) {
+      return map(b & 0x0F);
+    } else if ((b & 0xF0) == 0x90) {
+      return list(b & 0x0F);
+    } else if ((b & 0xE0) == 0xA0) {
+      return string(b & 0x1F);
+    }
+    switch (b) {
+      case 0xC0: return null;
+      case 0xC2: return false;
+      case 0xC3: return true;
+      case 0xCB: return buffer.getDouble();
+      case 0xCC: return readUnsigned(1);
+      case 0xCD: return readUnsigned(2);
+      case 0xCE: return readUnsigned(4);
+      case 0xCF: return buffer.getLong();
+      case 0xD0: return (long) buffer.get();
+      case 0xD1: return (long) buffer.getShort();
+      case 0xD2: return (long) buffer.getInt();
+      case 0xD3: return buffer.getLong();
+      case 0xD9: return string((int) readUnsigned(1));
+      case 0xDA: return string((int) readUnsigned(2));
+      case 0xDB: return string((int) readUnsigned(4));
+      case 0xDC: return list((int) readUnsigned(2));
+      case 0xDD: return list((int) readUnsigned(4));
+      case 0xDE: return map((int) readUnsigned(2));
+      case 0xDF: return map((int) readUnsigned(4));
+      default: throw new IllegalStateException("Unsupported " + b);
+    }
+  }
+
+  private long readUnsigned(int bytes) {
+    long value = 0;
+    for (int i = 0; i < bytes; i++) {
+      value = (value << 8) | (buffer.get() & 0xFF);
+    }
+    return value;
+  }
+
+  private String string(int length) {
+    final byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private List<Object> list(int size) {
+    final List<Object> list = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      list.add(read());
+    }
+    return list;
+  }
+
+  private Map<String, Object> map(int size) {
+    final Map<String, Object> map = new LinkedHashMap<>();
+    for (int i = 0; i < size; i++) {
+      map.put((String) read(), read());
+    }
+    return map;
+  }
+}
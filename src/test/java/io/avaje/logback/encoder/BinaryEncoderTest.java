@@ -0,0 +1,120 @@
+package io.avaje.logback.encoder;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import io.avaje.json.mapper.JsonMapper;
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static ch.qos.logback.classic.Level.INFO;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BinaryEncoderTest {
+
+  private static final String CUSTOM = "{\"region\":\"us-east\",\"shard\":12,\"weight\":-1.5,\"tags\":[\"a\",\"b\"],\"on\":true}";
+
+  private ILoggingEvent createLogEvent(Throwable throwable) {
+    Logger logger = (Logger) LoggerFactory.getLogger("org.example.Foo");
+    LoggingEvent event = new LoggingEvent("org.example.Foo", logger, INFO, "Hi ünïcode " + "x".repeat(300), throwable, null);
+    event.setMDCPropertyMap(Map.of("requestId", "r1"));
+    return event;
+  }
+
+  private <E extends BinaryEncoder> E configure(E encoder) {
+    encoder.setComponent("my-component");
+    encoder.setEnvironment("dev");
+    encoder.setCustomFields(CUSTOM);
+    encoder.start();
+    return encoder;
+  }
+
+  private Map<String, Object> json(ILoggingEvent event) {
+    JsonEncoder encoder = new JsonEncoder();
+    encoder.setComponent("my-component");
+    encoder.setEnvironment("dev");
+    encoder.setCustomFields(CUSTOM);
+    encoder.start();
+    return JsonMapper.builder().build().map().fromJson(encoder.encode(event));
+  }
+
+  @Test
+  void cbor_sameFieldsAsJson() {
+    assertSameFields(configure(new CborEncoder()), BinaryDecoder::cbor);
+  }
+
+  @Test
+  void messagePack_sameFieldsAsJson() {
+    assertSameFields(configure(new MessagePackEncoder()), BinaryDecoder::messagePack);
+  }
+
+  private void assertSameFields(BinaryEncoder encoder, Function<byte[], BinaryDecoder> decoder) {
+    ILoggingEvent event = createLogEvent(new IllegalStateException("boom"));
+    Map<String, Object> expected = json(event);
+    Map<String, Object> actual = decoder.apply(encoder.encode(event)).readMap();
+
+    assertThat(actual.keySet()).containsExactlyInAnyOrderElementsOf(expected.keySet());
+    assertThat(actual.get("timestamp")).isEqualTo(event.getTimeStamp());
+    assertThat(actual).containsEntry("component", "my-component")
+      .containsEntry("env", "dev")
+      .containsEntry("level", "INFO")
+      .containsEntry("message", event.getFormattedMessage())
+      .containsEntry("stackhash", expected.get("stackhash"))
+      .containsEntry("stacktrace", expected.get("stacktrace"))
+      .containsEntry("requestId", "r1")
+      .containsEntry("region", "us-east")
+      .containsEntry("shard", 12L)
+      .containsEntry("weight", -1.5)
+      .containsEntry("tags", List.of("a", "b"))
+      .containsEntry("on", true);
+  }
+
+  @Test
+  void stream_ofEvents() {
+    CborEncoder encoder = configure(new CborEncoder());
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (int i = 0; i < 3; i++) {
+      out.writeBytes(encoder.encode(createLogEvent(null)));
+    }
+    BinaryDecoder decoder = BinaryDecoder.cbor(out.toByteArray());
+    int count = 0;
+    while (decoder.hasRemaining()) {
+      assertThat(decoder.readMap()).containsEntry("logger", "org.example.Foo").doesNotContainKey("stacktrace");
+      count++;
+    }
+    assertThat(count).isEqualTo(3);
+  }
+
+  @Test
+  void writers_integerRanges() {
+    long[] values = {0, 23, 24, 127, 128, 255, 256, 65535, 65536, 4294967295L, 4294967296L, Long.MAX_VALUE,
+      -1, -24, -25, -32, -33, -128, -129, -32768, -32769, Integer.MIN_VALUE, Integer.MIN_VALUE - 1L, Long.MIN_VALUE};
+    for (long value : values) {
+      CborWriter cbor = new CborWriter(16);
+      cbor.writeLong(value);
+      assertThat(BinaryDecoder.cbor(cbor.toByteArray()).read()).isEqualTo(value);
+      MessagePackWriter msgpack = new MessagePackWriter(16);
+      msgpack.writeLong(value);
+      assertThat(BinaryDecoder.messagePack(msgpack.toByteArray()).read()).isEqualTo(value);
+    }
+  }
+
+  @Test
+  void smallerThanJson() {
+    ILoggingEvent plain = createLogEvent(null);
+    JsonEncoder jsonEncoder = new JsonEncoder();
+    jsonEncoder.setComponent("my-component");
+    jsonEncoder.setEnvironment("dev");
+    jsonEncoder.setCustomFields(CUSTOM);
+    jsonEncoder.start();
+    int jsonSize = jsonEncoder.encode(plain).length;
+
+    assertThat(configure(new CborEncoder()).encode(plain).length).isLessThan(jsonSize);
+    assertThat(configure(new MessagePackEncoder()).encode(plain).length).isLessThan(jsonSize);
+  }
+}
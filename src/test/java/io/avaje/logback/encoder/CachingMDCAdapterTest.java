@@ -0,0 +1,132 @@
+package io.avaje.logback.encoder;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.status.Status;
+import io.avaje.json.mapper.JsonMapper;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static ch.qos.logback.classic.Level.INFO;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CachingMDCAdapterTest {
+
+  private final CachingMDCAdapter adapter = new CachingMDCAdapter();
+  private final Logger logger;
+
+  CachingMDCAdapterTest() {
+    LoggerContext context = new LoggerContext();
+    context.setMDCAdapter(adapter);
+    logger = context.getLogger("org.example.Foo");
+  }
+
+  private LoggingEvent createLogEvent() {
+    return new LoggingEvent("org.example.Foo", logger, INFO, "Hi", null, null);
+  }
+
+  @Test
+  void snapshot_sharedUntilChanged() {
+    adapter.put("requestId", "r1");
+    adapter.put("user", "a\"b");
+    Map<String, String> first = createLogEvent().getMDCPropertyMap();
+    Map<String, String> second = createLogEvent().getMDCPropertyMap();
+    assertThat(second).isSameAs(first).containsEntry("requestId", "r1");
+
+    adapter.put("requestId", "r2");
+    Map<String, String> third = createLogEvent().getMDCPropertyMap();
+    assertThat(third).isNotSameAs(first).containsEntry("requestId", "r2");
+    assertThat(first).containsEntry("requestId", "r1");
+
+    adapter.clear();
+    assertThat(createLogEvent().getMDCPropertyMap()).isEmpty();
+  }
+
+  @Test
+  void encode_matchesUncached() {
+    adapter.put("requestId", "r1");
+    adapter.put("note", "line1\nline2 \"quoted\" \\ tab\t");
+    LoggingEvent event = createLogEvent();
+    event.setTimeStamp(1714564800000L);
+    event.setThreadName("main");
+    assertThat(event.getMDCPropertyMap()).isInstanceOf(MDCSnapshot.class);
+
+    LoggingEvent plain = new LoggingEvent("org.example.Foo", logger, INFO, "Hi", null, null);
+    plain.setTimeStamp(1714564800000L);
+    plain.setThreadName("main");
+    plain.setMDCPropertyMap(Map.copyOf(event.getMDCPropertyMap()));
+
+    JsonEncoder encoder = new JsonEncoder();
+    encoder.start();
+    String cached = new String(encoder.encode(event), StandardCharsets.UTF_8);
+    String uncached = new String(encoder.encode(plain), StandardCharsets.UTF_8);
+    assertThat(cached).contains("\"requestId\":\"r1\"", "\"thread\":\"main\",");
+    assertThat(cached.length()).isEqualTo(uncached.length());
+    JsonMapper mapper = JsonMapper.builder().build();
+    assertThat(mapper.map().fromJson(cached)).isEqualTo(mapper.map().fromJson(uncached));
+  }
+
+  @Test
+  void perThread() throws InterruptedException {
+    adapter.put("requestId", "main");
+    Map<String, String> mainMdc = createLogEvent().getMDCPropertyMap();
+
+    AtomicReference<Map<String, String>> other = new AtomicReference<>();
+    Thread thread = new Thread(() -> {
+      adapter.put("requestId", "other");
+      other.set(createLogEvent().getMDCPropertyMap());
+    });
+    thread.start();
+    thread.join();
+
+    assertThat(other.get()).containsEntry("requestId", "other");
+    assertThat(createLogEvent().getMDCPropertyMap()).isSameAs(mainMdc).containsEntry("requestId", "main");
+  }
+
+  @Test
+  void encode_mdcRules() {
+    adapter.put("requestId", "r1");
+    adapter.put("http.method", "GET");
+    LoggingEvent event = createLogEvent();
+
+    JsonEncoder encoder = new JsonEncoder();
+    encoder.setNestMdcPrefixes("http");
+    encoder.start();
+    JsonEncoder plain = new JsonEncoder();
+    plain.start();
+    assertThat(new String(encoder.encode(event), StandardCharsets.UTF_8)).contains("\"http\":{\"method\":\"GET\"}");
+    assertThat(new String(plain.encode(event), StandardCharsets.UTF_8)).contains("\"http.method\":\"GET\"");
+    assertThat(new String(encoder.encode(event), StandardCharsets.UTF_8)).contains("\"http\":{\"method\":\"GET\"}");
+  }
+
+  @Test
+  void snapshot_fragmentCachedPerRules() {
+    adapter.put("requestId", "r1");
+    adapter.put("http.method", "GET");
+    MDCSnapshot snapshot = (MDCSnapshot) createLogEvent().getMDCPropertyMap();
+    MDCRules nested = new MDCRules(List.of(), List.of(), List.of("http"), Integer.MAX_VALUE, Integer.MAX_VALUE);
+
+    MDCRules.Fragment all = snapshot.fragment(MDCRules.ALL);
+    MDCRules.Fragment nest = snapshot.fragment(nested);
+    assertThat(snapshot.fragment(MDCRules.ALL)).isSameAs(all);
+    assertThat(snapshot.fragment(nested)).isSameAs(nest);
+    assertThat(nest.json).contains("\"http\":{\"method\":\"GET\"}");
+  }
+
+  @Test
+  void serviceProvider_mdcAdapterSetOnce() {
+    CachingMDCServiceProvider provider = new CachingMDCServiceProvider();
+    provider.initialize();
+    LoggerContext context = (LoggerContext) provider.getLoggerFactory();
+
+    assertThat(context.getMDCAdapter()).isSameAs(provider.getMDCAdapter()).isInstanceOf(CachingMDCAdapter.class);
+    assertThat(context.getStatusManager().getCopyOfStatusList())
+      .noneMatch(status -> status.getLevel() == Status.WARN);
+    context.stop();
+  }
+}
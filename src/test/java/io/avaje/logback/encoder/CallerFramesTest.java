@@ -0,0 +1,135 @@
+package io.avaje.logback.encoder;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.classic.util.LogbackMDCAdapter;
+import ch.qos.logback.core.AppenderBase;
+import io.avaje.json.mapper.JsonMapper;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static ch.qos.logback.classic.Level.INFO;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CallerFramesTest {
+
+  private final JsonMapper mapper = JsonMapper.builder().build();
+
+  static final class EncodingAppender extends AppenderBase<ILoggingEvent> {
+
+    final JsonEncoder encoder;
+    final List<String> lines = new ArrayList<>();
+
+    EncodingAppender(JsonEncoder encoder) {
+      this.encoder = encoder;
+    }
+
+    @Override
+    protected void append(ILoggingEvent event) {
+      lines.add(new String(encoder.encode(event), StandardCharsets.UTF_8));
+    }
+  }
+
+  private static LoggerContext context() {
+    LoggerContext context = new LoggerContext();
+    context.setMDCAdapter(new LogbackMDCAdapter());
+    return context;
+  }
+
+  private static EncodingAppender appender(LoggerContext context, JsonEncoder encoder) {
+    encoder.setContext(context);
+    encoder.start();
+    EncodingAppender appender = new EncodingAppender(encoder);
+    appender.setContext(context);
+    appender.start();
+    context.getLogger(Logger.ROOT_LOGGER_NAME).addAppender(appender);
+    return appender;
+  }
+
+  private static int nextLine() {
+    return new Throwable().getStackTrace()[1].getLineNumber() + 1;
+  }
+
+  @SuppressWarnings("unchecked")
+  private Map<String, Object> caller(String line) {
+    return (Map<String, Object>) mapper.map().fromJson(line).get("caller");
+  }
+
+  @Test
+  void callerLevel() {
+    LoggerContext context = context();
+    JsonEncoder encoder = new JsonEncoder();
+    encoder.setCallerLevel("WARN");
+    EncodingAppender appender = appender(context, encoder);
+    Logger logger = context.getLogger("org.example.Orders");
+
+    logger.info("not included");
+    int line = nextLine();
+    logger.warn("included");
+
+    assertThat(caller(appender.lines.get(0))).isNull();
+    assertThat(caller(appender.lines.get(1)))
+      .containsEntry("class", CallerFramesTest.class.getName())
+      .containsEntry("method", "callerLevel")
+      .containsEntry("file", "CallerFramesTest.java")
+      .containsEntry("line", (long) line);
+  }
+
+  @Test
+  void callerLoggers_cachedPerCallSite() {
+    LoggerContext context = context();
+    JsonEncoder encoder = new JsonEncoder();
+    encoder.setCallerLoggers("org.example.payment");
+    EncodingAppender appender = appender(context, encoder);
+
+    Logger payment = context.getLogger("org.example.payment.Card");
+    int line = logPayment(payment);
+    logPayment(payment);
+    context.getLogger("org.example.Orders").info("not included");
+    context.getLogger("org.example.paymentx").info("not included");
+    context.getLogger("org.example.payment").info("included");
+
+    assertThat(caller(appender.lines.get(0)))
+      .containsEntry("method", "logPayment")
+      .containsEntry("line", (long) line);
+    assertThat(caller(appender.lines.get(1))).isEqualTo(caller(appender.lines.get(0)));
+    assertThat(caller(appender.lines.get(2))).isNull();
+    assertThat(caller(appender.lines.get(3))).isNull();
+    assertThat(caller(appender.lines.get(4))).isNotNull();
+  }
+
+  private static int logPayment(Logger logger) {
+    int line = nextLine();
+    logger.info("included");
+    return line;
+  }
+
+  @Test
+  void existingCallerData() {
+    Logger logger = context().getLogger("org.example.Orders");
+    LoggingEvent event = new LoggingEvent(Logger.FQCN, logger, INFO, "Hi", null, null);
+    event.setCallerData(new StackTraceElement[]{new StackTraceElement("org.example.Orders", "place", "Orders.java", 42)});
+
+    JsonEncoder encoder = new JsonEncoder();
+    encoder.setCallerLevel("INFO");
+    encoder.start();
+    assertThat(caller(new String(encoder.encode(event), StandardCharsets.UTF_8)))
+      .isEqualTo(Map.of("class", "org.example.Orders", "method", "place", "file", "Orders.java", "line", 42L));
+  }
+
+  @Test
+  void notOnLoggingThread() {
+    Logger logger = context().getLogger("org.example.Orders");
+    JsonEncoder encoder = new JsonEncoder();
+    encoder.setCallerLevel("INFO");
+    encoder.start();
+    String json = new String(encoder.encode(new LoggingEvent(Logger.FQCN, logger, INFO, "Hi", null, null)), StandardCharsets.UTF_8);
+    assertThat(json).doesNotContain("caller");
+  }
+}
@@ -0,0 +1,97 @@
+package io.avaje.logback.encoder;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ChannelWriterTest {
+
+  private static final int THREADS = 8;
+  private static final int EVENTS = 20_000;
+
+  @TempDir
+  Path dir;
+
+  @Test
+  void write_platformThreads() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    try {
+      writeAndAssert(executor, "platform", 8192);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  void write_virtualThreads() throws Exception {
+    ExecutorService executor = virtualExecutor();
+    if (executor == null) {
+      return; // virtual threads require Java 21+
+    }
+    try {
+      writeAndAssert(executor, "virtual", 8192);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  void write_fullQueue() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    try {
+      writeAndAssert(executor, "full", 2);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private void writeAndAssert(ExecutorService executor, String label, int capacity) throws Exception {
+    Path file = dir.resolve(label + ".log");
+    try (FileChannel channel = FileChannel.open(file, CREATE, WRITE)) {
+      ChannelWriter writer = new ChannelWriter(channel, capacity);
+      Future<?>[] futures = new Future<?>[THREADS];
+      for (int t = 0; t < THREADS; t++) {
+        final int thread = t;
+        futures[t] = executor.submit(() -> {
+          for (int i = 0; i < EVENTS; i++) {
+            writer.write(("{\"t\":" + thread + ",\"i\":" + i + "}\n").getBytes(StandardCharsets.UTF_8));
+          }
+          return null;
+        });
+      }
+      for (Future<?> future : futures) {
+        future.get(1, TimeUnit.MINUTES);
+      }
+      writer.drain();
+    }
+
+    List<String> lines = Files.readAllLines(file);
+    assertThat(lines).hasSize(THREADS * EVENTS);
+    Set<String> unique = new HashSet<>(lines);
+    assertThat(unique).hasSize(THREADS * EVENTS);
+    assertThat(unique).contains("{\"t\":0,\"i\":0}", "{\"t\":7,\"i\":19999}");
+  }
+
+  private static ExecutorService virtualExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException e) {
+      return null;
+    }
+  }
+}
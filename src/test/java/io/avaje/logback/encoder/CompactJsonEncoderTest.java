@@ -0,0 +1,192 @@
+package io.avaje.logback.encoder;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import io.avaje.json.mapper.JsonMapper;
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static ch.qos.logback.classic.Level.INFO;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CompactJsonEncoderTest {
+
+  private ILoggingEvent createLogEvent(int i, Throwable throwable) {
+    Logger logger = (Logger) LoggerFactory.getLogger("org.example.Foo" + (i % 3));
+    LoggingEvent event = new LoggingEvent("org.example.Foo", logger, INFO, "message " + i, throwable, null);
+    event.setTimeStamp(1714564800000L + i);
+    event.setThreadName("worker-" + (i % 4));
+    event.setMDCPropertyMap(i % 2 == 0 ? Map.of("requestId", "r" + i) : Map.of());
+    return event;
+  }
+
+  private List<ILoggingEvent> events() {
+    List<ILoggingEvent> events = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      events.add(createLogEvent(i, i == 7 ? new IllegalStateException("boom") : null));
+    }
+    return events;
+  }
+
+  private static String decode(byte[] compact) throws IOException {
+    CompactJsonDecoder decoder = new CompactJsonDecoder();
+    decoder.setTimeZone("UTC");
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    decoder.decode(new ByteArrayInputStream(compact), out);
+    return out.toString(StandardCharsets.UTF_8);
+  }
+
+  @Test
+  void decode_matchesJsonEncoder() throws IOException {
+    JsonEncoder jsonEncoder = new JsonEncoder();
+    jsonEncoder.setComponent("my-component");
+    jsonEncoder.setEnvironment("dev");
+    jsonEncoder.setCustomFields("{\"region\":\"us-east\",\"shard\":42}");
+    jsonEncoder.setTimeZone("UTC");
+    jsonEncoder.start();
+    CompactJsonEncoder encoder = new CompactJsonEncoder();
+    encoder.setComponent("my-component");
+    encoder.setEnvironment("dev");
+    encoder.setCustomFields("{\"region\":\"us-east\",\"shard\":42}");
+    encoder.start();
+
+    ByteArrayOutputStream json = new ByteArrayOutputStream();
+    ByteArrayOutputStream compact = new ByteArrayOutputStream();
+    for (ILoggingEvent event : events()) {
+      json.writeBytes(jsonEncoder.encode(event));
+      compact.writeBytes(encoder.encode(event));
+    }
+
+    assertThat(decode(compact.toByteArray())).isEqualTo(json.toString(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  void encode_smallerThanJson() {
+    JsonEncoder jsonEncoder = new JsonEncoder();
+    jsonEncoder.start();
+    CompactJsonEncoder encoder = new CompactJsonEncoder();
+    encoder.start();
+
+    int jsonSize = 0;
+    int compactSize = 0;
+    for (int i = 0; i < 100; i++) {
+      ILoggingEvent event = createLogEvent(i, null);
+      jsonSize += jsonEncoder.encode(event).length;
+      compactSize += encoder.encode(event).length;
+    }
+    assertThat(compactSize).isLessThan(jsonSize / 2);
+  }
+
+  @Test
+  void headerBytes_reemitsDictionary() throws IOException {
+    CompactJsonEncoder encoder = new CompactJsonEncoder();
+    encoder.setComponent("my-component");
+    encoder.start();
+
+    String first = new String(encoder.encode(createLogEvent(0, null)), StandardCharsets.UTF_8);
+    assertThat(first).startsWith("[\"h\",\"my-component\",").contains("[\"d\",0,\"INFO\"]");
+    String second = new String(encoder.encode(createLogEvent(0, null)), StandardCharsets.UTF_8);
+    assertThat(second).doesNotContain("[\"d\"").startsWith("[1714564800000,0,1,2,\"message 0\"");
+
+    // a new segment (rollover or reconnect) is self-contained, including an event encoded before it
+    byte[] buffered = encoder.encode(createLogEvent(0, null));
+    byte[] header = encoder.headerBytes();
+    assertThat(new String(header, StandardCharsets.UTF_8)).contains("[\"d\",0,\"INFO\"]", "[\"d\",3,\"requestId\"]");
+    byte[] segment = encoder.encode(createLogEvent(0, null));
+    assertThat(new String(segment, StandardCharsets.UTF_8)).doesNotContain("[\"d\"");
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.writeBytes(header);
+    out.writeBytes(buffered);
+    out.writeBytes(segment);
+    assertThat(decode(out.toByteArray())).doesNotContain("#").contains("\"component\":\"my-component\"", "\"message\":\"message 0\"", "\"requestId\":\"r0\"");
+  }
+
+  @Test
+  void maxDictionarySize() throws IOException {
+    CompactJsonEncoder encoder = new CompactJsonEncoder();
+    encoder.setMaxDictionarySize(8);
+    encoder.start();
+
+    ByteArrayOutputStream compact = new ByteArrayOutputStream();
+    for (ILoggingEvent event : events()) {
+      compact.writeBytes(encoder.encode(event));
+    }
+    String content = compact.toString(StandardCharsets.UTF_8);
+    assertThat(content.split("\\[\"h\"").length).isGreaterThan(2);
+    assertThat(decode(compact.toByteArray())).doesNotContain("#").contains("\"message\":\"message 49\"");
+  }
+
+  @Test
+  void maxDictionarySize_concurrentEncoders() throws Exception {
+    CompactJsonEncoder encoder = new CompactJsonEncoder();
+    encoder.setMaxDictionarySize(6);
+    encoder.start();
+
+    ByteArrayOutputStream compact = new ByteArrayOutputStream();
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      final int thread = t;
+      threads.add(new Thread(() -> {
+        for (int i = 0; i < 2000; i++) {
+          Logger logger = (Logger) LoggerFactory.getLogger("org.example.Foo" + (i % 5));
+          LoggingEvent event = new LoggingEvent("org.example.Foo", logger, INFO, (i % 5) + ":" + thread, null, null);
+          event.setThreadName("worker-" + thread);
+          byte[] bytes = encoder.encode(event);
+          if (i % 3 == 0) {
+            // written out of encode order like appenders that write after encoding
+            Thread.yield();
+          }
+          synchronized (compact) {
+            compact.writeBytes(bytes);
+          }
+        }
+      }));
+    }
+    threads.forEach(Thread::start);
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    JsonMapper mapper = JsonMapper.builder().build();
+    String[] lines = decode(compact.toByteArray()).split("\n");
+    assertThat(lines).hasSize(8000);
+    for (String line : lines) {
+      Map<String, Object> event = mapper.map().fromJson(line);
+      String[] expected = ((String) event.get("message")).split(":");
+      // an id can be unresolved (#id) but must never resolve to another value
+      if (!event.get("logger").toString().startsWith("#")) {
+        assertThat(event.get("logger")).isEqualTo("org.example.Foo" + expected[0]);
+      }
+      if (!event.get("thread").toString().startsWith("#")) {
+        assertThat(event.get("thread")).isEqualTo("worker-" + expected[1]);
+      }
+      if (!event.get("level").toString().startsWith("#")) {
+        assertThat(event.get("level")).isEqualTo("INFO");
+      }
+    }
+  }
+
+  @Test
+  void decode_dictionaryEntryAfterEvent() throws IOException {
+    String compact = "[\"h\",\"\",\"\",{}]\n"
+      + "[\"d\",0,\"INFO\"]\n"
+      + "[1714564800000,0,1,2,\"first\"]\n"
+      + "[1714564800001,0,1,2,\"second\"]\n"
+      + "[\"d\",1,\"org.example.Foo\"]\n"
+      + "[\"d\",2,\"main\"]\n";
+
+    String json = decode(compact.getBytes(StandardCharsets.UTF_8));
+    assertThat(json).isEqualTo(
+      "{\"timestamp\":\"2024-05-01T12:00:00Z\",\"level\":\"INFO\",\"logger\":\"org.example.Foo\",\"message\":\"first\",\"thread\":\"main\"}\n"
+        + "{\"timestamp\":\"2024-05-01T12:00:00.001Z\",\"level\":\"INFO\",\"logger\":\"org.example.Foo\",\"message\":\"second\",\"thread\":\"main\"}\n");
+  }
+}
@@ -0,0 +1,123 @@
+package io.avaje.logback.encoder;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static java.nio.file.StandardOpenOption.APPEND;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DiskSpoolTest {
+
+  @TempDir
+  Path dir;
+
+  private static byte[] event(int i) {
+    return ("{\"message\":\"event " + i + "\"}\n").getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static List<String> readAll(DiskSpool spool) throws Exception {
+    List<byte[]> batch = new ArrayList<>();
+    while (spool.read(batch, 10, 1024) > 0) {
+      // read all
+    }
+    return batch.stream().map(b -> new String(b, StandardCharsets.UTF_8).trim()).collect(Collectors.toList());
+  }
+
+  @Test
+  void appendReadInOrder_acrossSegments() throws Exception {
+    DiskSpool spool = DiskSpool.open(dir.resolve("spool"), 200, 1_000_000);
+    for (int i = 0; i < 50; i++) {
+      assertThat(spool.append(event(i))).isTrue();
+    }
+    assertThat(spool.hasUnread()).isTrue();
+    List<String> events = readAll(spool);
+    assertThat(events).hasSize(50);
+    assertThat(events.get(0)).contains("event 0");
+    assertThat(events.get(49)).contains("event 49");
+    assertThat(spool.hasUnread()).isFalse();
+    spool.close();
+  }
+
+  @Test
+  void reopen_replaysUnacknowledged() throws Exception {
+    DiskSpool spool = DiskSpool.open(dir.resolve("spool"), 200, 1_000_000);
+    for (int i = 0; i < 20; i++) {
+      spool.append(event(i));
+    }
+    List<byte[]> batch = new ArrayList<>();
+    spool.read(batch, 5, 1024);
+    spool.acknowledge(spool.position());
+    // read but not acknowledged
+    spool.read(batch, 5, 1024);
+    spool.close();
+
+    DiskSpool reopened = DiskSpool.open(dir.resolve("spool"), 200, 1_000_000);
+    assertThat(reopened.hasUnread()).isTrue();
+    List<String> events = readAll(reopened);
+    assertThat(events).hasSize(15);
+    assertThat(events.get(0)).contains("event 5");
+    reopened.acknowledge(reopened.position());
+    reopened.close();
+
+    DiskSpool empty = DiskSpool.open(dir.resolve("spool"), 200, 1_000_000);
+    assertThat(empty.hasUnread()).isFalse();
+    empty.close();
+  }
+
+  @Test
+  void acknowledge_deletesSentSegments() throws Exception {
+    DiskSpool spool = DiskSpool.open(dir.resolve("spool"), 200, 1_000_000);
+    for (int i = 0; i < 50; i++) {
+      spool.append(event(i));
+    }
+    long before = spool.bytes();
+    readAll(spool);
+    spool.acknowledge(spool.position());
+    assertThat(spool.bytes()).isLessThan(before);
+    assertThat(new SegmentFiles(dir.resolve("spool")).list()).hasSize(1);
+    spool.close();
+  }
+
+  @Test
+  void sizeCap_evictsOldestFirst() throws Exception {
+    DiskSpool spool = DiskSpool.open(dir.resolve("spool"), 200, 600);
+    for (int i = 0; i < 100; i++) {
+      spool.append(event(i));
+    }
+    assertThat(spool.bytes()).isLessThanOrEqualTo(600 + 200);
+    assertThat(spool.evictedBytes()).isGreaterThan(0);
+    List<String> events = readAll(spool);
+    assertThat(events).isNotEmpty().hasSizeLessThan(100);
+    assertThat(events.get(events.size() - 1)).contains("event 99");
+    spool.close();
+  }
+
+  @Test
+  void recover_truncatesPartialRecord() throws Exception {
+    DiskSpool spool = DiskSpool.open(dir.resolve("spool"), 1_000_000, 1_000_000);
+    for (int i = 0; i < 3; i++) {
+      spool.append(event(i));
+    }
+    spool.close();
+    // simulate a crash part way through writing a record
+    Path segment = new SegmentFiles(dir.resolve("spool")).list().get(0).path();
+    long validSize = Files.size(segment);
+    try (FileChannel channel = FileChannel.open(segment, APPEND)) {
+      channel.write(ByteBuffer.allocate(12).putInt(100).putInt(42).putInt(7).flip());
+    }
+
+    DiskSpool reopened = DiskSpool.open(dir.resolve("spool"), 1_000_000, 1_000_000);
+    assertThat(Files.size(segment)).isEqualTo(validSize);
+    assertThat(readAll(reopened)).hasSize(3);
+    reopened.close();
+  }
+}
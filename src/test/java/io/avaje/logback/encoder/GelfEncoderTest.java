@@ -0,0 +1,108 @@
+package io.avaje.logback.encoder;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import io.avaje.json.mapper.JsonMapper;
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+
+import static ch.qos.logback.classic.Level.INFO;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class GelfEncoderTest {
+
+  private final JsonMapper mapper = JsonMapper.builder().build();
+
+  private ILoggingEvent createLogEvent(Throwable throwable) {
+    Logger logger = (Logger) LoggerFactory.getLogger("org.example.Foo");
+    LoggingEvent event = new LoggingEvent("org.example.Foo", logger, INFO, "Hi", throwable, null);
+    event.setTimeStamp(1714564800007L);
+    event.setMDCPropertyMap(Map.of("requestId", "r1", "bad key", "v", "id", "x"));
+    return event;
+  }
+
+  @Test
+  void encode() {
+    GelfEncoder encoder = new GelfEncoder();
+    encoder.setHost("my-host");
+    encoder.setComponent("my-component");
+    encoder.setEnvironment("dev");
+    encoder.setCustomFields("{\"region\":\"us-east\"}");
+    encoder.start();
+
+    byte[] bytes = encoder.encode(createLogEvent(null));
+    assertThat(bytes[bytes.length - 1]).isEqualTo((byte) '\n');
+    Map<String, Object> asMap = mapper.map().fromJson(bytes);
+
+    assertThat(asMap).containsEntry("version", "1.1")
+      .containsEntry("host", "my-host")
+      .containsEntry("short_message", "Hi")
+      .containsEntry("level", 6L)
+      .containsEntry("_component", "my-component")
+      .containsEntry("_env", "dev")
+      .containsEntry("_logger", "org.example.Foo")
+      .containsEntry("_region", "us-east")
+      .containsEntry("_requestId", "r1")
+      .containsEntry("_bad_key", "v")
+      .containsEntry("__id", "x")
+      .doesNotContainKey("full_message");
+    assertThat(new String(bytes)).contains("\"timestamp\":1714564800.007,");
+  }
+
+  @Test
+  void encode_throwable_nullDelimited() {
+    GelfEncoder encoder = new GelfEncoder();
+    encoder.setNullDelimited(true);
+    encoder.start();
+
+    byte[] bytes = encoder.encode(createLogEvent(new IllegalStateException("boom")));
+    assertThat(bytes[bytes.length - 1]).isEqualTo((byte) 0);
+    Map<String, Object> asMap = mapper.map().fromJson(new String(bytes, 0, bytes.length - 1));
+
+    assertThat((String) asMap.get("full_message")).startsWith("java.lang.IllegalStateException: boom");
+    assertThat(asMap.get("_stackhash")).isNotNull();
+    assertThat(asMap.get("host")).isNotNull();
+  }
+
+  @Test
+  void encode_reservedMdcKeys_notDuplicated() {
+    GelfEncoder encoder = new GelfEncoder();
+    encoder.setComponent("my-component");
+    encoder.setCustomFields("{\"region\":\"us-east\"}");
+    encoder.start();
+
+    Logger logger = (Logger) LoggerFactory.getLogger("org.example.Foo");
+    LoggingEvent event = new LoggingEvent("org.example.Foo", logger, INFO, "Hi", null, null);
+    event.setMDCPropertyMap(Map.of("component", "c", "logger", "l", "region", "r"));
+    String json = new String(encoder.encode(event));
+    Map<String, Object> asMap = mapper.map().fromJson(json);
+
+    assertThat(json.split("\"_component\":")).hasSize(2);
+    assertThat(json.split("\"_region\":")).hasSize(2);
+    assertThat(asMap).containsEntry("_component", "my-component")
+      .containsEntry("__component", "c")
+      .containsEntry("_logger", "org.example.Foo")
+      .containsEntry("__logger", "l")
+      .containsEntry("_region", "us-east")
+      .containsEntry("__region", "r");
+  }
+
+  @Test
+  void timestamp() {
+    assertThat(GelfEncoder.timestamp(1714564800000L)).isEqualTo("1714564800.000");
+    assertThat(GelfEncoder.timestamp(1714564800123L)).isEqualTo("1714564800.123");
+    assertThat(GelfEncoder.timestamp(1714564800050L)).isEqualTo("1714564800.050");
+  }
+
+  @Test
+  void syslogSeverity() {
+    assertThat(SyslogSeverity.of(Level.ERROR)).isEqualTo(3);
+    assertThat(SyslogSeverity.of(Level.WARN)).isEqualTo(4);
+    assertThat(SyslogSeverity.of(Level.INFO)).isEqualTo(6);
+    assertThat(SyslogSeverity.of(Level.TRACE)).isEqualTo(7);
+  }
+}
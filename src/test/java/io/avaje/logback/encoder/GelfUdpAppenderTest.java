@@ -0,0 +1,158 @@
+package io.avaje.logback.encoder;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.status.Status;
+import ch.qos.logback.core.util.FileSize;
+import io.avaje.json.mapper.JsonMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+
+import static ch.qos.logback.classic.Level.INFO;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class GelfUdpAppenderTest {
+
+  private final JsonMapper mapper = JsonMapper.builder().build();
+  private DatagramChannel listener;
+
+  @BeforeEach
+  void listen() throws Exception {
+    listener = DatagramChannel.open();
+    listener.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+  }
+
+  @AfterEach
+  void close() throws Exception {
+    listener.close();
+  }
+
+  private ILoggingEvent createLogEvent(String message) {
+    Logger logger = (Logger) LoggerFactory.getLogger("org.example.Foo");
+    return new LoggingEvent("org.example.Foo", logger, INFO, message, null, null);
+  }
+
+  private GelfUdpAppender createAppender() throws IOException {
+    GelfUdpAppender appender = new GelfUdpAppender();
+    appender.setContext(new LoggerContext());
+    appender.setHost("127.0.0.1");
+    appender.setPort(((InetSocketAddress) listener.getLocalAddress()).getPort());
+    appender.setComponent("my-component");
+    return appender;
+  }
+
+  private byte[] receive() throws Exception {
+    ByteBuffer buffer = ByteBuffer.allocate(65536);
+    listener.receive(buffer);
+    buffer.flip();
+    byte[] datagram = new byte[buffer.remaining()];
+    buffer.get(datagram);
+    return datagram;
+  }
+
+  @Test
+  void smallMessage_singleDatagram() throws Exception {
+    GelfUdpAppender appender = createAppender();
+    appender.start();
+    appender.doAppend(createLogEvent("Hi"));
+    appender.stop();
+
+    Map<String, Object> message = mapper.map().fromJson(receive());
+    assertThat(message).containsEntry("short_message", "Hi").containsEntry("_component", "my-component");
+  }
+
+  @Test
+  void largeMessage_compressedAndChunked() throws Exception {
+    // random content does not compress so the message requires several chunks
+    StringBuilder large = new StringBuilder();
+    Random random = new Random(42);
+    while (large.length() < 6000) {
+      large.append(Long.toString(random.nextLong(), 36));
+    }
+    GelfUdpAppender appender = createAppender();
+    appender.setChunkSize(1000);
+    appender.start();
+    appender.doAppend(createLogEvent(large.toString()));
+    appender.stop();
+
+    TreeMap<Integer, byte[]> chunks = new TreeMap<>();
+    long messageId = 0;
+    int count;
+    do {
+      byte[] datagram = receive();
+      assertThat(datagram.length).isLessThanOrEqualTo(1000);
+      assertThat(datagram[0]).isEqualTo((byte) 0x1e);
+      assertThat(datagram[1]).isEqualTo((byte) 0x0f);
+      ByteBuffer header = ByteBuffer.wrap(datagram);
+      long id = header.getLong(2);
+      if (chunks.isEmpty()) {
+        messageId = id;
+      }
+      assertThat(id).isEqualTo(messageId);
+      count = datagram[11];
+      chunks.put((int) datagram[10], Arrays.copyOfRange(datagram, 12, datagram.length));
+    } while (chunks.size() < count);
+
+    assertThat(count).isGreaterThan(1);
+    ByteArrayOutputStream joined = new ByteArrayOutputStream();
+    chunks.values().forEach(joined::writeBytes);
+    byte[] gzipped = joined.toByteArray();
+    assertThat(gzipped[0]).isEqualTo((byte) 0x1f);
+    assertThat(gzipped[1]).isEqualTo((byte) 0x8b);
+    byte[] json = new GZIPInputStream(new ByteArrayInputStream(gzipped)).readAllBytes();
+
+    Map<String, Object> message = mapper.map().fromJson(json);
+    assertThat(message).containsEntry("short_message", large.toString());
+    assertThat(appender.getCompressionMetrics().getBytesIn()).isGreaterThan(6000);
+  }
+
+  @Test
+  void tooManyChunks_dropped() throws IOException {
+    GelfUdpAppender appender = createAppender();
+    appender.setChunkSize(20);
+    appender.start();
+    StringBuilder large = new StringBuilder();
+    Random random = new Random(7);
+    while (large.length() < 4000) {
+      large.append(Long.toString(random.nextLong(), 36));
+    }
+    appender.doAppend(createLogEvent(large.toString()));
+    appender.stop();
+
+    assertThat(appender.getDroppedCount()).isEqualTo(1);
+  }
+
+  @Test
+  void dropped_warningRateLimited() throws IOException {
+    GelfUdpAppender appender = createAppender();
+    appender.setChunkSize(20);
+    appender.setCompressionThreshold(new FileSize(1_000_000));
+    appender.start();
+    for (int i = 0; i < 5; i++) {
+      appender.doAppend(createLogEvent("x".repeat(4000)));
+    }
+    appender.stop();
+
+    assertThat(appender.getDroppedCount()).isEqualTo(5);
+    assertThat(appender.getContext().getStatusManager().getCopyOfStatusList())
+      .filteredOn(status -> status.getLevel() == Status.WARN)
+      .hasSize(1);
+  }
+}
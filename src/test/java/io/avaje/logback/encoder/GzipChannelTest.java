@@ -0,0 +1,69 @@
+package io.avaje.logback.encoder;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class GzipChannelTest {
+
+  private static ByteBuffer[] batch(int from, int count) {
+    ByteBuffer[] buffers = new ByteBuffer[count];
+    for (int i = 0; i < count; i++) {
+      String line = "{\"level\":\"INFO\",\"logger\":\"org.example.Foo\",\"message\":\"message " + (from + i) + "\"}\n";
+      buffers[i] = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+    }
+    return buffers;
+  }
+
+  @Test
+  void write_roundTrip() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    CompressionMetrics metrics = new CompressionMetrics();
+    GzipChannel channel = new GzipChannel(Channels.newChannel(out), 6, metrics);
+    long written = 0;
+    for (int i = 0; i < 10; i++) {
+      written += channel.write(batch(i * 100, 100));
+    }
+    channel.close();
+
+    String content;
+    try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+      content = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    }
+    String[] lines = content.split("\n");
+    assertThat(lines).hasSize(1000);
+    assertThat(lines[999]).contains("message 999");
+    assertThat(metrics.getBytesIn()).isEqualTo(written);
+    assertThat(metrics.getBytesOut()).isEqualTo(out.size());
+    assertThat(metrics.getRatio()).isGreaterThan(5);
+  }
+
+  @Test
+  void write_flushedAtBatchBoundary() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    GzipChannel channel = new GzipChannel(Channels.newChannel(out), 6, new CompressionMetrics());
+    channel.write(batch(0, 3));
+
+    // without closing the stream, everything written so far can be inflated
+    byte[] compressed = out.toByteArray();
+    Inflater inflater = new Inflater(true);
+    inflater.setInput(Arrays.copyOfRange(compressed, 10, compressed.length));
+    byte[] result = new byte[4096];
+    int length = inflater.inflate(result);
+    inflater.end();
+
+    String content = new String(result, 0, length, StandardCharsets.UTF_8);
+    assertThat(content.split("\n")).hasSize(3);
+    assertThat(content).endsWith("message 2\"}\n");
+    channel.close();
+  }
+}
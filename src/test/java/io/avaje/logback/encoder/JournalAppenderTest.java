@@ -0,0 +1,194 @@
+package io.avaje.logback.encoder;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.status.Status;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static ch.qos.logback.classic.Level.ERROR;
+import static ch.qos.logback.classic.Level.INFO;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class JournalAppenderTest {
+
+  /** Stand-in for the journal datagram socket. */
+  private DatagramChannel journal;
+
+  @BeforeEach
+  void listen() throws Exception {
+    journal = DatagramChannel.open();
+    journal.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+  }
+
+  @AfterEach
+  void close() throws Exception {
+    journal.close();
+  }
+
+  private ILoggingEvent createLogEvent(ch.qos.logback.classic.Level level, Throwable throwable) {
+    Logger logger = (Logger) LoggerFactory.getLogger("org.example.Foo");
+    LoggingEvent event = new LoggingEvent("org.example.Foo", logger, level, "Hi", throwable, null);
+    event.setMDCPropertyMap(Map.of("requestId", "r1", "_private", "p", "1st.key", "k"));
+    return event;
+  }
+
+  private JournalAppender createAppender() throws Exception {
+    JournalAppender appender = new JournalAppender();
+    appender.setContext(new LoggerContext());
+    appender.setDestination("127.0.0.1:" + ((InetSocketAddress) journal.getLocalAddress()).getPort());
+    appender.setComponent("my-component");
+    return appender;
+  }
+
+  private Map<String, String> receive() throws Exception {
+    ByteBuffer buffer = ByteBuffer.allocate(65536);
+    journal.receive(buffer);
+    buffer.flip();
+    return parse(buffer);
+  }
+
+  /**
+   * Parse a journal native protocol entry.
+   */
+  private static Map<String, String> parse(ByteBuffer buffer) {
+    Map<String, String> fields = new LinkedHashMap<>();
+    while (buffer.hasRemaining()) {
+      int start = buffer.position();
+      int end = start;
+      while (buffer.get(end) != '=' && buffer.get(end) != '\n') {
+        end++;
+      }
+      String name = new String(buffer.array(), start, end - start, StandardCharsets.US_ASCII);
+      byte[] value;
+      if (buffer.get(end) == '=') {
+        int valueEnd = end + 1;
+        while (buffer.get(valueEnd) != '\n') {
+          valueEnd++;
+        }
+        value = new byte[valueEnd - end - 1];
+        buffer.position(end + 1);
+        buffer.get(value);
+      } else {
+        long length = buffer.order(ByteOrder.LITTLE_ENDIAN).getLong(end + 1);
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        value = new byte[(int) length];
+        buffer.position(end + 9);
+        buffer.get(value);
+      }
+      assertThat(buffer.get()).isEqualTo((byte) '\n');
+      fields.put(name, new String(value, StandardCharsets.UTF_8));
+    }
+    return fields;
+  }
+
+  @Test
+  void send() throws Exception {
+    JournalAppender appender = createAppender();
+    appender.start();
+    appender.doAppend(createLogEvent(INFO, null));
+    appender.stop();
+
+    Map<String, String> entry = receive();
+    assertThat(entry).containsEntry("MESSAGE", "Hi")
+      .containsEntry("PRIORITY", "6")
+      .containsEntry("SYSLOG_IDENTIFIER", "my-component")
+      .containsEntry("LOGGER", "org.example.Foo")
+      .containsEntry("REQUESTID", "r1")
+      .containsEntry("PRIVATE", "p")
+      .containsEntry("ST_KEY", "k")
+      .doesNotContainKey("STACKTRACE");
+  }
+
+  @Test
+  void send_stackTraceBinaryField() throws Exception {
+    JournalAppender appender = createAppender();
+    appender.start();
+    appender.doAppend(createLogEvent(ERROR, new IllegalStateException("boom")));
+    appender.stop();
+
+    Map<String, String> entry = receive();
+    assertThat(entry).containsEntry("PRIORITY", "3");
+    assertThat(entry.get("STACKTRACE")).startsWith("java.lang.IllegalStateException: boom\n");
+    assertThat(entry.get("STACKHASH")).isNotBlank();
+  }
+
+  @Test
+  void largeEntry_sentWithoutStackTrace() throws Exception {
+    JournalAppender appender = createAppender();
+    appender.setMaxEntrySize(300);
+    appender.start();
+    appender.doAppend(createLogEvent(ERROR, new IllegalStateException("boom")));
+    appender.stop();
+
+    Map<String, String> entry = receive();
+    assertThat(entry).doesNotContainKey("STACKTRACE");
+    assertThat(entry.get("STACKHASH")).isNotBlank();
+    assertThat(appender.getDroppedCount()).isZero();
+  }
+
+  @Test
+  void dropped_warningRateLimited() throws Exception {
+    JournalAppender appender = createAppender();
+    appender.setMaxEntrySize(50);
+    appender.start();
+    for (int i = 0; i < 5; i++) {
+      appender.doAppend(createLogEvent(INFO, null));
+    }
+    appender.stop();
+
+    assertThat(appender.getDroppedCount()).isEqualTo(5);
+    assertThat(appender.getContext().getStatusManager().getCopyOfStatusList())
+      .filteredOn(status -> status.getLevel() == Status.WARN)
+      .hasSize(1);
+  }
+
+  @Test
+  void unixDestination_notStarted() {
+    JournalAppender appender = new JournalAppender();
+    appender.setContext(new LoggerContext());
+    appender.setDestination("unix:/run/systemd/journal/socket");
+    appender.start();
+    assertThat(appender.isStarted()).isFalse();
+  }
+
+  @Test
+  void send_reservedMdcKeysPrefixed() throws Exception {
+    JournalAppender appender = createAppender();
+    appender.start();
+    Logger logger = (Logger) LoggerFactory.getLogger("org.example.Foo");
+    LoggingEvent event = new LoggingEvent("org.example.Foo", logger, INFO, "Hi", null, null);
+    event.setMDCPropertyMap(Map.of("message", "m", "priority", "1", "syslog.identifier", "s"));
+    appender.doAppend(event);
+    appender.stop();
+
+    Map<String, String> entry = receive();
+    assertThat(entry).containsEntry("MESSAGE", "Hi")
+      .containsEntry("PRIORITY", "6")
+      .containsEntry("SYSLOG_IDENTIFIER", "my-component")
+      .containsEntry("FIELD_MESSAGE", "m")
+      .containsEntry("FIELD_PRIORITY", "1")
+      .containsEntry("FIELD_SYSLOG_IDENTIFIER", "s");
+  }
+
+  @Test
+  void fieldName() {
+    assertThat(JournalEncoder.fieldName("requestId")).isEqualTo("REQUESTID");
+    assertThat(JournalEncoder.fieldName("trace.id")).isEqualTo("TRACE_ID");
+    assertThat(JournalEncoder.fieldName("__x")).isEqualTo("X");
+    assertThat(JournalEncoder.fieldName("..")).isEqualTo("FIELD");
+  }
+}
@@ -2,16 +2,38 @@ package io.avaje.logback.encoder;
 
 import ch.qos.logback.classic.spi.ILoggingEvent;
 import ch.qos.logback.classic.spi.LoggingEvent;
+import io.avaje.json.JsonAdapter;
+import io.avaje.json.JsonReader;
+import io.avaje.json.JsonWriter;
 import io.avaje.json.mapper.JsonMapper;
 import io.avaje.logback.encoder.abbreviator.TrimPackageAbbreviator;
+import org.assertj.core.api.InstanceOfAssertFactories;
 import org.junit.jupiter.api.Test;
 import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.core.spi.FilterReply;
+import ch.qos.logback.core.status.Status;
 import org.slf4j.LoggerFactory;
-
+import org.slf4j.Marker;
+import org.slf4j.MarkerFactory;
+import org.slf4j.event.KeyValuePair;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 
 import static ch.qos.logback.classic.Level.INFO;
+import static ch.qos.logback.classic.Level.WARN;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 class JsonEncoderTest {
 
@@ -67,6 +89,528 @@ class JsonEncoderTest {
         assertThat((String)asMap.get("logger")).isEqualTo("org.example.Foo");
     }
 
+    @Test
+    void fieldNames_exclude() {
+      JsonEncoder encoder = new JsonEncoder();
+      encoder.setComponent("my-component");
+      encoder.setFieldNames("timestamp=@timestamp, level=log.level");
+      encoder.setExcludeFields("thread,component");
+      encoder.start();
+
+      Map<String, Object> asMap = JsonMapper.builder().build().map().fromJson(encoder.encode(createLogEvent()));
+      assertThat(asMap).containsKeys("@timestamp", "log.level", "logger", "message")
+        .doesNotContainKeys("timestamp", "level", "thread", "component");
+      assertThat(asMap.get("log.level")).isEqualTo("INFO");
+    }
+
+    @Test
+    void shortKeys_includeFields() {
+      JsonEncoder encoder = new JsonEncoder();
+      encoder.setShortKeys(true);
+      encoder.setFieldNames("level=severity");
+      encoder.setIncludeFields("timestamp,level,message,stacktrace");
+      encoder.start();
+
+      Map<String, Object> asMap = JsonMapper.builder().build().map().fromJson(encoder.encode(createLogEvent(createThrowable())));
+      assertThat(asMap.keySet()).containsExactly("t", "severity", "m", "st");
+    }
+
+    @Test
+    void fieldNames_withoutName_warns() {
+      JsonEncoder encoder = new JsonEncoder();
+      LoggerContext context = new LoggerContext();
+      encoder.setContext(context);
+      encoder.setFieldNames("timestamp=@timestamp,level, thread=");
+      encoder.start();
+
+      assertThat(context.getStatusManager().getCopyOfStatusList())
+        .filteredOn(status -> status.getLevel() == Status.WARN)
+        .extracting(Status::getMessage)
+        .containsExactly(
+          "Ignoring field name [level], expecting field=name like timestamp=@timestamp",
+          "Ignoring field name [thread=], expecting field=name like timestamp=@timestamp");
+      Map<String, Object> asMap = JsonMapper.builder().build().map().fromJson(encoder.encode(createLogEvent()));
+      assertThat(asMap).containsKeys("@timestamp", "level", "thread");
+    }
+
+    @Test
+    void fieldNames_duplicate_rejectedOnStart() {
+      JsonEncoder encoder = new JsonEncoder();
+      encoder.setFieldNames("logger=name,thread=name");
+      assertThatThrownBy(encoder::start)
+        .isInstanceOf(IllegalStateException.class)
+        .hasMessage("Fields logger and thread both have the name name");
+
+      JsonEncoder excluded = new JsonEncoder();
+      excluded.setFieldNames("logger=name,thread=name");
+      excluded.setExcludeFields("thread");
+      excluded.start();
+      assertThat(excluded.isStarted()).isTrue();
+    }
+
+    @Test
+    void fieldNames_unknown() {
+      JsonEncoder encoder = new JsonEncoder();
+      assertThatThrownBy(() -> encoder.setExcludeFields("foo"))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessageContaining("Unknown field foo");
+    }
+
+    @Test
+    void keyValuePairs_typed() {
+      LoggingEvent event = (LoggingEvent) createLogEvent();
+      event.addKeyValuePair(new KeyValuePair("orderId", 42L));
+      event.addKeyValuePair(new KeyValuePair("amount", 9.5));
+      event.addKeyValuePair(new KeyValuePair("paid", true));
+      event.addKeyValuePair(new KeyValuePair("tags", List.of("a", "b")));
+      event.addKeyValuePair(new KeyValuePair("attrs", Map.of("k", 1)));
+      event.addKeyValuePair(new KeyValuePair("id", UUID.fromString("8c1f6d4e-0f8b-4b59-9d8c-4a7e6f0e1a2b")));
+      event.addKeyValuePair(new KeyValuePair("nested", List.of(new StringBuilder("x"))));
+      event.addKeyValuePair(new KeyValuePair("none", null));
+
+      JsonEncoder encoder = new JsonEncoder();
+      encoder.start();
+      String json = new String(encoder.encode(event), StandardCharsets.UTF_8);
+      assertThat(json).contains("\"orderId\":42,", "\"amount\":9.5,", "\"paid\":true,", "\"tags\":[\"a\",\"b\"],",
+        "\"attrs\":{\"k\":1},", "\"id\":\"8c1f6d4e-0f8b-4b59-9d8c-4a7e6f0e1a2b\"", "\"nested\":[\"x\"]");
+      assertThat(JsonMapper.builder().build().map().fromJson(json)).containsEntry("orderId", 42L);
+    }
+
+    @Test
+    void keyValuePairs_primitiveArrays() {
+      LoggingEvent event = (LoggingEvent) createLogEvent();
+      event.addKeyValuePair(new KeyValuePair("ints", new int[]{1, 2}));
+      event.addKeyValuePair(new KeyValuePair("longs", new long[]{3L}));
+      event.addKeyValuePair(new KeyValuePair("bytes", new byte[]{-1, 4}));
+      event.addKeyValuePair(new KeyValuePair("doubles", new double[]{1.5}));
+      event.addKeyValuePair(new KeyValuePair("flags", new boolean[]{true, false}));
+      event.addKeyValuePair(new KeyValuePair("chars", new char[]{'o', 'k'}));
+      event.addKeyValuePair(new KeyValuePair("empty", new int[0]));
+
+      JsonEncoder encoder = new JsonEncoder();
+      encoder.start();
+      String json = new String(encoder.encode(event), StandardCharsets.UTF_8);
+      assertThat(json).contains("\"ints\":[1,2],", "\"longs\":[3],", "\"bytes\":[-1,4],", "\"doubles\":[1.5],",
+        "\"flags\":[true,false],", "\"chars\":\"ok\",", "\"empty\":[]");
+    }
+
+    @Test
+    void keyValuePairs_standardFieldKeys_prefixed() {
+      LoggingEvent event = (LoggingEvent) createLogEvent();
+      event.addKeyValuePair(new KeyValuePair("level", "kv level"));
+      event.addKeyValuePair(new KeyValuePair("message", "kv message"));
+      event.addKeyValuePair(new KeyValuePair("region", "kv region"));
+      event.addKeyValuePair(new KeyValuePair("thread", "not a field when excluded"));
+
+      JsonEncoder encoder = new JsonEncoder();
+      encoder.setCustomFields("{\"region\":\"us-east\"}");
+      encoder.setExcludeFields("thread");
+      encoder.start();
+      String json = new String(encoder.encode(event), StandardCharsets.UTF_8);
+      assertThat(json.split("\"level\":")).hasSize(2);
+      assertThat(JsonMapper.builder().build().map().fromJson(json))
+        .containsEntry("level", "INFO")
+        .containsEntry("kv_level", "kv level")
+        .containsEntry("message", "Hi")
+        .containsEntry("kv_message", "kv message")
+        .containsEntry("region", "us-east")
+        .containsEntry("kv_region", "kv region")
+        .containsEntry("thread", "not a field when excluded");
+    }
+
+    @Test
+    void keyValuePairs_cycle_maxDepth() {
+      Map<String, Object> cyclic = new LinkedHashMap<>();
+      cyclic.put("self", cyclic);
+      LoggingEvent event = (LoggingEvent) createLogEvent();
+      event.addKeyValuePair(new KeyValuePair("cyclic", cyclic));
+
+      JsonEncoder encoder = new JsonEncoder();
+      encoder.start();
+      String json = new String(encoder.encode(event), StandardCharsets.UTF_8);
+      assertThat(json).contains("\"cyclic\":" + "{\"self\":".repeat(TypedValueWriter.MAX_DEPTH) + "\"[max depth]\"" + "}".repeat(TypedValueWriter.MAX_DEPTH));
+      assertThat(JsonMapper.builder().build().map().fromJson(json)).containsKey("cyclic");
+    }
+
+    static final class Point {
+      final int x;
+      final int y;
+
+      Point(int x, int y) {
+        this.x = x;
+        this.y = y;
+      }
+    }
+
+    @Test
+    void keyValuePairs_adapter_arguments() {
+      LoggingEvent event = new LoggingEvent(fqcn, (Logger) LoggerFactory.getLogger(fqcn), INFO, "Hi {} {}", null, new Object[]{7, "x"});
+      event.addKeyValuePair(new KeyValuePair("point", new Point(1, 2)));
+
+      JsonEncoder encoder = new JsonEncoder();
+      encoder.setIncludeArguments(true);
+      encoder.putAdapter(Point.class, new JsonAdapter<>() {
+        @Override
+        public void toJson(JsonWriter writer, Point value) {
+          writer.beginObject();
+          writer.name("x");
+          writer.value(value.x);
+          writer.name("y");
+          writer.value(value.y);
+          writer.endObject();
+        }
+
+        @Override
+        public Point fromJson(JsonReader reader) {
+          throw new UnsupportedOperationException();
+        }
+      });
+      encoder.start();
+      String json = new String(encoder.encode(event), StandardCharsets.UTF_8);
+      assertThat(json).contains("\"point\":{\"x\":1,\"y\":2}", "\"arguments\":[7,\"x\"]", "\"message\":\"Hi 7 x\"");
+
+      encoder = new JsonEncoder();
+      encoder.setIncludeKeyValues(false);
+      encoder.start();
+      assertThat(new String(encoder.encode(event), StandardCharsets.UTF_8)).doesNotContain("point", "arguments");
+    }
+
+    @Test
+    void rawMessage_formatMessageLevel() {
+      Logger logger = (Logger) LoggerFactory.getLogger(fqcn);
+      LoggingEvent info = new LoggingEvent(fqcn, logger, INFO, "Order {} paid {}", null, new Object[]{42, true});
+      LoggingEvent warn = new LoggingEvent(fqcn, logger, WARN, "Order {} late", null, new Object[]{43});
+
+      JsonEncoder encoder = new JsonEncoder();
+      encoder.setRawMessage(true);
+      encoder.setFormatMessageLevel("WARN");
+      encoder.start();
+
+      String infoJson = new String(encoder.encode(info), StandardCharsets.UTF_8);
+      assertThat(infoJson).contains("\"message\":\"Order {} paid {}\"", "\"arguments\":[42,true]");
+      String warnJson = new String(encoder.encode(warn), StandardCharsets.UTF_8);
+      assertThat(warnJson).contains("\"message\":\"Order 43 late\"").doesNotContain("arguments");
+    }
+
+    @Test
+    void msgHash() {
+      Logger logger = (Logger) LoggerFactory.getLogger(fqcn);
+      LoggingEvent first = new LoggingEvent(fqcn, logger, INFO, "Order {} paid", null, new Object[]{42});
+      LoggingEvent second = new LoggingEvent(fqcn, logger, INFO, "Order {} paid", null, new Object[]{43});
+      LoggingEvent other = new LoggingEvent(fqcn, logger, INFO, "Order {} late", null, new Object[]{42});
+
+      JsonEncoder encoder = new JsonEncoder();
+      encoder.setIncludeMsgHash(true);
+      encoder.start();
+
+      JsonMapper mapper = JsonMapper.builder().build();
+      Object hash = mapper.map().fromJson(encoder.encode(first)).get("msghash");
+      assertThat(hash).isEqualTo(String.format("%08x", MessageHasher.hash("Order {} paid", fqcn)));
+      assertThat(mapper.map().fromJson(encoder.encode(second)).get("msghash")).isEqualTo(hash);
+      assertThat(mapper.map().fromJson(encoder.encode(other)).get("msghash")).isNotEqualTo(hash);
+      // a template with a different identity hashes the same
+      assertThat(new MessageHasher().hexHash(new String("Order {} paid"), fqcn)).isEqualTo(hash);
+    }
+
+    @Test
+    void markers() {
+      LoggingEvent event = (LoggingEvent) createLogEvent();
+      event.addMarker(MarkerFactory.getMarker("AUDIT"));
+      event.addMarker(MarkerFactory.getMarker("SECURITY"));
+
+      JsonEncoder encoder = new JsonEncoder();
+      encoder.start();
+      String json = new String(encoder.encode(event), StandardCharsets.UTF_8);
+      assertThat(json).contains("\"markers\":[\"AUDIT\",\"SECURITY\"]");
+      assertThat(new String(encoder.encode(event), StandardCharsets.UTF_8)).isEqualTo(json);
+      assertThat(new String(encoder.encode(createLogEvent()), StandardCharsets.UTF_8)).doesNotContain("markers");
+    }
+
+    @Test
+    void markerFilter() {
+      Marker audit = MarkerFactory.getMarker("AUDIT");
+      Marker slowQuery = MarkerFactory.getDetachedMarker("SLOW_QUERY");
+      slowQuery.add(MarkerFactory.getMarker("PERF"));
+      LoggingEvent auditEvent = (LoggingEvent) createLogEvent();
+      auditEvent.addMarker(audit);
+      LoggingEvent slowEvent = (LoggingEvent) createLogEvent();
+      slowEvent.addMarker(slowQuery);
+
+      MarkerFilter filter = new MarkerFilter();
+      filter.addMarker("AUDIT");
+      filter.addMarker("PERF");
+      filter.setOnMatch(FilterReply.ACCEPT);
+      filter.setOnMismatch(FilterReply.DENY);
+      filter.start();
+
+      assertThat(filter.decide(auditEvent)).isEqualTo(FilterReply.ACCEPT);
+      assertThat(filter.decide(slowEvent)).isEqualTo(FilterReply.ACCEPT);
+      assertThat(filter.decide(createLogEvent())).isEqualTo(FilterReply.DENY);
+    }
+
+    @Test
+    void mdcRules() {
+      LoggingEvent event = (LoggingEvent) createLogEvent();
+      Map<String, String> mdc = new LinkedHashMap<>();
+      mdc.put("requestId", "r1");
+      mdc.put("http.method", "GET");
+      mdc.put("http.path", "/orders");
+      mdc.put("internal.span", "x");
+      mdc.put("password", "secret");
+      mdc.put("other", "o");
+      event.setMDCPropertyMap(mdc);
+
+      JsonEncoder encoder = new JsonEncoder();
+      encoder.setIncludeMdcKeys("requestId,http.*,internal.*,password");
+      encoder.setExcludeMdcKeys("internal.*, password");
+      encoder.setNestMdcPrefixes("http");
+      encoder.start();
+      String json = new String(encoder.encode(event), StandardCharsets.UTF_8);
+      assertThat(json).contains("\"requestId\":\"r1\",\"http\":{\"method\":\"GET\",\"path\":\"/orders\"}}")
+        .doesNotContain("internal", "password", "other");
+
+      encoder = new JsonEncoder();
+      encoder.setMaxMdcKeys(2);
+      encoder.start();
+      json = new String(encoder.encode(event), StandardCharsets.UTF_8);
+      assertThat(json).contains("\"requestId\":\"r1\",\"http.method\":\"GET\"}").doesNotContain("http.path");
+    }
+
+    @Test
+    void mdcRules_prefixBoundary_groupNameKey() {
+      LoggingEvent event = (LoggingEvent) createLogEvent();
+      Map<String, String> mdc = new LinkedHashMap<>();
+      mdc.put("http", "h");
+      mdc.put("http.method", "GET");
+      mdc.put("httpVersion", "2");
+      mdc.put("internal.span", "x");
+      mdc.put("internals", "i");
+      event.setMDCPropertyMap(mdc);
+
+      JsonEncoder encoder = new JsonEncoder();
+      encoder.setIncludeMdcKeys("http,http*,internal*,internals");
+      encoder.setExcludeMdcKeys("internal.*");
+      encoder.setNestMdcPrefixes("http");
+      encoder.start();
+      String json = new String(encoder.encode(event), StandardCharsets.UTF_8);
+      assertThat(json).contains("\"internals\":\"i\",\"http\":{\"_value\":\"h\",\"method\":\"GET\"}}")
+        .doesNotContain("httpVersion", "internal.span");
+      assertThat(json.split("\"http\":")).hasSize(2);
+    }
+
+    @Test
+    void maxBytes_truncated() {
+      LoggingEvent event = new LoggingEvent(fqcn, (Logger) LoggerFactory.getLogger(fqcn), INFO, "caf\u00e9 \uD83D\uDE00 done", createThrowable(), null);
+      event.setMDCPropertyMap(Map.of("requestId", "abcdefghij"));
+
+      JsonEncoder encoder = new JsonEncoder();
+      encoder.setMaxMessageBytes(8);
+      encoder.setMaxStackTraceBytes(20);
+      encoder.setMaxMdcValueBytes(4);
+      encoder.start();
+      Map<String, Object> asMap = JsonMapper.builder().build().map().fromJson(encoder.encode(event));
+
+      // é is 2 bytes and the emoji 4 bytes so the cut is before the surrogate pair
+      assertThat(asMap).containsEntry("message", "caf\u00e9 ")
+        .containsEntry("requestId", "abcd")
+        .containsEntry("truncated", List.of("message", "stacktrace", "mdc"));
+      assertThat(((String) asMap.get("stacktrace")).getBytes(StandardCharsets.UTF_8).length).isLessThanOrEqualTo(20);
+    }
+
+    @Test
+    void maxEventBytes_shedStackFrames() {
+      JsonEncoder encoder = new JsonEncoder();
+      encoder.start();
+      int fullSize = encoder.encode(createLogEvent(createThrowable())).length;
+
+      encoder = new JsonEncoder();
+      encoder.setMaxEventBytes(fullSize - 100);
+      encoder.start();
+      byte[] bytes = encoder.encode(createLogEvent(createThrowable()));
+      assertThat(bytes.length).isLessThanOrEqualTo(fullSize - 100);
+
+      Map<String, Object> asMap = JsonMapper.builder().build().map().fromJson(bytes);
+      assertThat(asMap).containsEntry("message", "Hi")
+        .containsKey("stackhash")
+        .containsEntry("truncated", List.of("stacktrace"));
+      assertThat((String) asMap.get("stacktrace")).startsWith("java.lang.NullPointerException").doesNotEndWith("\n");
+    }
+
+    @Test
+    void maxEventBytes_shedAll() {
+      String message = "caf\u00e9 \"quoted\"\n\uD83D\uDE00 ".repeat(200);
+      LoggingEvent event = new LoggingEvent(fqcn, (Logger) LoggerFactory.getLogger(fqcn), INFO, message, createThrowable(), null);
+      event.setMDCPropertyMap(Map.of("requestId", "r1", "traceId", "t1"));
+
+      JsonEncoder encoder = new JsonEncoder();
+      encoder.setMaxEventBytes(400);
+      encoder.start();
+      byte[] bytes = encoder.encode(event);
+      assertThat(bytes.length).isLessThanOrEqualTo(400);
+
+      Map<String, Object> asMap = JsonMapper.builder().build().map().fromJson(bytes);
+      assertThat(asMap).doesNotContainKeys("stacktrace", "requestId", "traceId")
+        .containsEntry("truncated", List.of("message", "stacktrace", "mdc"));
+      assertThat(message).startsWith((String) asMap.get("message"));
+    }
+
+    @Test
+    void maxEventBytes_dropWhenShedFieldsNotEnough() {
+      // the logger name is never shed
+      Logger logger = new LoggerContext().getLogger("org.example." + "x".repeat(300));
+      LoggingEvent event = new LoggingEvent(fqcn, logger, INFO, "x".repeat(200), createThrowable(), null);
+      event.setMDCPropertyMap(Map.of("requestId", "r1"));
+
+      ILoggingEvent small = createLogEvent();
+      JsonEncoder encoder = new JsonEncoder();
+      encoder.setContext(new LoggerContext());
+      encoder.start();
+      int maxEventBytes = encoder.encode(small).length;
+
+      encoder = new JsonEncoder();
+      encoder.setContext(new LoggerContext());
+      encoder.setMaxEventBytes(maxEventBytes);
+      encoder.start();
+      assertThat(encoder.encode(event)).isEmpty();
+
+      EncodedBatch batch = encoder.encodeBatch(List.of(event, small, event));
+      assertThat(batch.count()).isEqualTo(3);
+      assertThat(batch.length(0)).isZero();
+      assertThat(batch.length(2)).isZero();
+      assertThat(batch.size()).isEqualTo(batch.length(1)).isEqualTo(maxEventBytes);
+      assertThat(encoder.getDroppedCount()).isEqualTo(3);
+      assertThat(encoder.getContext().getStatusManager().getCopyOfStatusList())
+        .filteredOn(status -> status.getLevel() == Status.WARN)
+        .hasSize(1);
+    }
+
+    @Test
+    void maxEventBytes_shedOrder() {
+      Throwable throwable = createThrowable();
+      JsonEncoder encoder = new JsonEncoder();
+      encoder.start();
+      int withoutMessage = encoder.encode(new LoggingEvent(fqcn, (Logger) LoggerFactory.getLogger(fqcn), INFO, "", throwable, null)).length;
+      LoggingEvent event = new LoggingEvent(fqcn, (Logger) LoggerFactory.getLogger(fqcn), INFO, "x".repeat(1000), throwable, null);
+
+      encoder = new JsonEncoder();
+      encoder.setMaxEventBytes(withoutMessage + 100);
+      encoder.setShedOrder("message");
+      encoder.start();
+      Map<String, Object> asMap = JsonMapper.builder().build().map().fromJson(encoder.encode(event));
+      assertThat(asMap).containsKey("stacktrace").containsEntry("truncated", List.of("message"));
+      assertThat((String) asMap.get("message")).startsWith("x").hasSizeLessThan(100);
+
+      assertThatThrownBy(() -> new JsonEncoder().setShedOrder("message,thread"))
+        .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void maxEventBytes_chunkMessages() {
+      String message = "abc\u00e9\u20ac\uD83D\uDE00\t".repeat(500);
+      LoggingEvent event = new LoggingEvent(fqcn, (Logger) LoggerFactory.getLogger(fqcn), INFO, message, null, null);
+
+      JsonEncoder encoder = new JsonEncoder();
+      encoder.setMaxEventBytes(1024);
+      encoder.setChunkMessages(true);
+      encoder.start();
+      String[] lines = new String(encoder.encode(event), StandardCharsets.UTF_8).split("\n");
+      assertThat(lines.length).isGreaterThan(1);
+
+      JsonMapper mapper = JsonMapper.builder().build();
+      StringBuilder joined = new StringBuilder();
+      Object eventId = null;
+      for (int i = 0; i < lines.length; i++) {
+        assertThat((lines[i] + "\n").getBytes(StandardCharsets.UTF_8).length).isLessThanOrEqualTo(1024);
+        Map<String, Object> asMap = mapper.map().fromJson(lines[i]);
+        assertThat(asMap).containsEntry("chunk", (long) i + 1)
+          .containsEntry("chunks", (long) lines.length)
+          .doesNotContainKey("truncated");
+        if (eventId == null) {
+          eventId = asMap.get("eventId");
+        }
+        assertThat(asMap.get("eventId")).isNotNull().isEqualTo(eventId);
+        joined.append(asMap.get("message"));
+      }
+      assertThat(joined.toString()).isEqualTo(message);
+    }
+
+    @Test
+    void encodeBatch() {
+      JsonEncoder encoder = new JsonEncoder();
+      encoder.setComponent("my-component");
+      encoder.start();
+      List<ILoggingEvent> events = List.of(createLogEvent(), createLogEvent(createThrowable()), createLogEvent());
+
+      EncodedBatch batch = encoder.encodeBatch(events);
+      assertThat(batch.count()).isEqualTo(3);
+      int offset = 0;
+      for (int i = 0; i < events.size(); i++) {
+        byte[] single = encoder.encode(events.get(i));
+        assertThat(batch.offset(i)).isEqualTo(offset);
+        assertThat(batch.length(i)).isEqualTo(single.length);
+        assertThat(Arrays.copyOfRange(batch.array(), batch.offset(i), batch.offset(i) + batch.length(i))).isEqualTo(single);
+        offset += single.length;
+      }
+      assertThat(batch.size()).isEqualTo(offset);
+      assertThat(batch.toByteArray()).hasSize(offset);
+      assertThat(batch.asByteBuffer().remaining()).isEqualTo(offset);
+    }
+
+    @Test
+    void encodeBatch_reuse() {
+      JsonEncoder encoder = new JsonEncoder();
+      encoder.start();
+      ILoggingEvent event = createLogEvent();
+      EncodedBatch batch = new EncodedBatch(64);
+      encoder.encodeBatch(new ILoggingEvent[]{event, event, event}, batch);
+      byte[] array = batch.array();
+      int size = batch.size();
+
+      encoder.encodeBatch(List.of(event), batch);
+      assertThat(batch.count()).isEqualTo(1);
+      assertThat(batch.size()).isEqualTo(size / 3);
+      assertThat(batch.array()).isSameAs(array);
+      assertThatThrownBy(() -> batch.length(1)).isInstanceOf(IndexOutOfBoundsException.class);
+    }
+
+    @Test
+    void encodeBatch_shedAndBulk() {
+      JsonEncoder encoder = new JsonEncoder();
+      encoder.setBulkIndex("logs-app");
+      encoder.setMaxEventBytes(600);
+      encoder.setChunkMessages(true);
+      encoder.start();
+      ILoggingEvent large = new LoggingEvent(fqcn, (Logger) LoggerFactory.getLogger(fqcn), INFO, "x".repeat(2000), null, null);
+
+      EncodedBatch batch = encoder.encodeBatch(List.of(createLogEvent(), large, createLogEvent()));
+      assertThat(batch.count()).isEqualTo(3);
+      String first = new String(batch.array(), batch.offset(0), batch.length(0), StandardCharsets.UTF_8);
+      String chunked = new String(batch.array(), batch.offset(1), batch.length(1), StandardCharsets.UTF_8);
+      String last = new String(batch.array(), batch.offset(2), batch.length(2), StandardCharsets.UTF_8);
+      assertThat(first.split("\n")).hasSize(2);
+      assertThat(last.split("\n")).hasSize(2);
+
+      JsonMapper mapper = JsonMapper.builder().build();
+      String[] lines = chunked.split("\n");
+      assertThat(lines.length).isGreaterThan(4).isEven();
+      StringBuilder joined = new StringBuilder();
+      for (int i = 1; i < lines.length; i += 2) {
+        assertThat((lines[i] + "\n").getBytes(StandardCharsets.UTF_8).length).isLessThanOrEqualTo(600);
+        joined.append(mapper.map().fromJson(lines[i]).get("message"));
+      }
+      assertThat(joined.toString()).isEqualTo("x".repeat(2000));
+    }
+
+    @Test
+    void maxBytes_notTruncated() {
+      JsonEncoder encoder = new JsonEncoder();
+      encoder.setMaxMessageBytes(2);
+      encoder.setMaxMdcValueBytes(100);
+      encoder.start();
+      Map<String, Object> asMap = JsonMapper.builder().build().map().fromJson(encoder.encode(createLogEvent()));
+      assertThat(asMap).containsEntry("message", "Hi").doesNotContainKey("truncated");
+    }
+
     @Test
     void customFieldsEval() {
         System.setProperty("some.custom.property", "Hi!");
@@ -139,6 +683,46 @@ class JsonEncoderTest {
         assertThat(asMap.get("stackhash")).isNotNull();
     }
 
+    @Test
+    void bulkActionLine() {
+      JsonEncoder encoder = new JsonEncoder();
+      encoder.setBulkIndex("logs-app");
+      encoder.setTimeZone("UTC");
+      encoder.start();
+
+      LoggingEvent event = (LoggingEvent) createLogEvent();
+      event.setTimeStamp(1714564800000L); // 2024-05-01T12:00Z
+      String[] lines = new String(encoder.encode(event), StandardCharsets.UTF_8).split("\n");
+
+      assertThat(lines).hasSize(2);
+      assertThat(lines[0]).isEqualTo("{\"index\":{\"_index\":\"logs-app-2024.05.01\"}}");
+      JsonMapper mapper = JsonMapper.builder().build();
+      assertThat(mapper.map().fromJson(lines[1])).containsEntry("message", "Hi");
+
+      event.setTimeStamp(1714564800000L + 86_400_000L);
+      assertThat(new String(encoder.encode(event), StandardCharsets.UTF_8)).startsWith("{\"index\":{\"_index\":\"logs-app-2024.05.02\"}}\n");
+    }
+
+    @Test
+    void bulkActionLine_createWithId() {
+      JsonEncoder encoder = new JsonEncoder();
+      encoder.setBulkIndex("logs-app");
+      encoder.setBulkIndexDatePattern("");
+      encoder.setBulkAction("create");
+      encoder.setBulkIncludeId(true);
+      encoder.start();
+
+      JsonMapper mapper = JsonMapper.builder().build();
+      String first = new String(encoder.encode(createLogEvent(createThrowable())), StandardCharsets.UTF_8).split("\n")[0];
+      String second = new String(encoder.encode(createLogEvent(createThrowable())), StandardCharsets.UTF_8).split("\n")[0];
+      Object action = mapper.map().fromJson(first).get("create");
+
+      assertThat(action).asInstanceOf(InstanceOfAssertFactories.MAP)
+        .containsEntry("_index", "logs-app")
+        .extractingByKey("_id", InstanceOfAssertFactories.STRING).isNotBlank();
+      assertThat(second).isNotEqualTo(first);
+    }
+
     @Test
     void awsAppender() {
       StdOutAppender appender = new StdOutAppender();
@@ -151,6 +735,27 @@ class JsonEncoderTest {
       appender.append(createLogEvent());
     }
 
+    @Test
+    void stdOutAppender_useChannel() throws IOException {
+      Path file = Files.createTempFile("stdout", ".log");
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+        StdOutAppender appender = new StdOutAppender();
+        appender.setComponent("my-other");
+        appender.setUseChannel(true);
+        appender.setChannel(channel);
+        appender.start();
+
+        appender.append(createLogEvent());
+        appender.append(createLogEvent(createThrowable()));
+        appender.stop();
+      }
+      List<String> lines = Files.readAllLines(file);
+      Files.delete(file);
+      assertThat(lines).hasSize(2);
+      assertThat(lines.get(0)).contains("\"component\":\"my-other\"");
+      assertThat(lines.get(1)).contains("\"stacktrace\":");
+    }
+
     Throwable createThrowable() {
         try {
             System.getProperty("doNotExist").toUpperCase();
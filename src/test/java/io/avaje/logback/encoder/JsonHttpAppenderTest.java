@@ -0,0 +1,211 @@
+package io.avaje.logback.encoder;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.util.Duration;
+import ch.qos.logback.core.util.FileSize;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.avaje.json.mapper.JsonMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import static ch.qos.logback.classic.Level.INFO;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class JsonHttpAppenderTest {
+
+  private final List<String> lines = new CopyOnWriteArrayList<>();
+  private final List<String> contentEncodings = new CopyOnWriteArrayList<>();
+  private final List<String> contentTypes = new CopyOnWriteArrayList<>();
+  private final AtomicInteger requests = new AtomicInteger();
+  private final AtomicInteger failFirst = new AtomicInteger();
+  /** A permit per request received, to await requests without polling. */
+  private final Semaphore requested = new Semaphore(0);
+  /** A permit per line received. */
+  private final Semaphore received = new Semaphore(0);
+  private HttpServer server;
+
+  @TempDir
+  Path dir;
+
+  @BeforeEach
+  void startServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext("/ingest", this::handle);
+    server.start();
+  }
+
+  @AfterEach
+  void stopServer() {
+    server.stop(0);
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try {
+      final String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+      contentTypes.add(exchange.getRequestHeaders().getFirst("Content-Type"));
+      InputStream body = exchange.getRequestBody();
+      if ("gzip".equals(encoding)) {
+        body = new GZIPInputStream(body);
+      }
+      final byte[] content = body.readAllBytes();
+      requests.incrementAndGet();
+      if (failFirst.getAndDecrement() > 0) {
+        exchange.sendResponseHeaders(503, -1);
+      } else {
+        contentEncodings.add(String.valueOf(encoding));
+        final String[] batch = new String(content, StandardCharsets.UTF_8).split("\n");
+        lines.addAll(List.of(batch));
+        exchange.sendResponseHeaders(200, -1);
+        received.release(batch.length);
+      }
+    } finally {
+      exchange.close();
+      requested.release();
+    }
+  }
+
+  private ILoggingEvent createLogEvent(String message) {
+    Logger logger = (Logger) LoggerFactory.getLogger("org.example.Foo");
+    return new LoggingEvent("org.example.Foo", logger, INFO, message, null, null);
+  }
+
+  private JsonHttpAppender createAppender() {
+    JsonHttpAppender appender = new JsonHttpAppender();
+    appender.setContext(new LoggerContext());
+    appender.setName("test");
+    appender.setUrl("http://localhost:" + server.getAddress().getPort() + "/ingest");
+    appender.setBatchInterval(Duration.buildByMilliseconds(50));
+    appender.setRetryDelay(Duration.buildByMilliseconds(10));
+    return appender;
+  }
+
+  @Test
+  void send_gzipBatches() {
+    JsonHttpAppender appender = createAppender();
+    appender.setBatchSize(new FileSize(4096));
+    appender.start();
+    for (int i = 0; i < 200; i++) {
+      appender.doAppend(createLogEvent("message " + i));
+    }
+    appender.stop();
+
+    assertThat(lines).hasSize(200);
+    assertThat(lines).anySatisfy(line -> assertThat(line).contains("\"message\":\"message 199\""));
+    assertThat(requests.get()).isGreaterThan(1);
+    assertThat(contentEncodings).containsOnly("gzip");
+    assertThat(appender.getCompressionMetrics().getRatio()).isGreaterThan(2);
+    assertThat(appender.getFailedBatchCount()).isZero();
+  }
+
+  @Test
+  void send_uncompressed() {
+    JsonHttpAppender appender = createAppender();
+    appender.setCompress(false);
+    appender.start();
+    for (int i = 0; i < 10; i++) {
+      appender.doAppend(createLogEvent("message " + i));
+    }
+    appender.stop();
+
+    assertThat(lines).hasSize(10);
+    assertThat(contentEncodings).containsOnly("null");
+  }
+
+  @Test
+  void send_retryWithBackoff() {
+    failFirst.set(2);
+    JsonHttpAppender appender = createAppender();
+    appender.start();
+    appender.doAppend(createLogEvent("retried"));
+    appender.stop();
+
+    assertThat(requests.get()).isEqualTo(3);
+    assertThat(lines).hasSize(1);
+    assertThat(lines.get(0)).contains("retried");
+    assertThat(appender.getFailedBatchCount()).isZero();
+  }
+
+  @Test
+  void send_failAfterMaxRetries() {
+    failFirst.set(10);
+    JsonHttpAppender appender = createAppender();
+    appender.setMaxRetries(1);
+    appender.start();
+    appender.doAppend(createLogEvent("failed"));
+    appender.stop();
+
+    assertThat(requests.get()).isEqualTo(2);
+    assertThat(lines).isEmpty();
+    assertThat(appender.getFailedBatchCount()).isEqualTo(1);
+  }
+
+  @Test
+  void stop_whileFailing_abandonsRetriesAndReplaysSpool() throws Exception {
+    failFirst.set(Integer.MAX_VALUE);
+    JsonHttpAppender appender = createAppender();
+    appender.setSpool(dir.resolve("spool/http").toString());
+    appender.setMaxInFlight(1);
+    appender.setRequestTimeout(Duration.buildByMilliseconds(500));
+    appender.start();
+    for (int i = 0; i < 5; i++) {
+      appender.doAppend(createLogEvent("spooled " + i));
+    }
+    assertThat(requested.tryAcquire(3, 5, TimeUnit.SECONDS)).isTrue();
+    long start = System.nanoTime();
+    appender.stop();
+    assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(5000);
+
+    // no retries after stop
+    requested.drainPermits();
+    assertThat(requested.tryAcquire(200, TimeUnit.MILLISECONDS)).isFalse();
+    assertThat(lines).isEmpty();
+
+    failFirst.set(0);
+    JsonHttpAppender restarted = createAppender();
+    restarted.setSpool(dir.resolve("spool/http").toString());
+    restarted.start();
+    assertThat(received.tryAcquire(5, 5, TimeUnit.SECONDS)).isTrue();
+    restarted.stop();
+    assertThat(lines).hasSize(5);
+    assertThat(String.join("", lines)).contains("spooled 0", "spooled 4");
+  }
+
+  @Test
+  void send_otlpBatchFraming() {
+    JsonHttpAppender appender = createAppender();
+    appender.setEncoder(new OtlpJsonEncoder());
+    appender.start();
+    for (int i = 0; i < 10; i++) {
+      appender.doAppend(createLogEvent("message " + i));
+    }
+    appender.stop();
+
+    assertThat(contentTypes).containsOnly("application/json");
+    assertThat(lines).hasSize(requests.get());
+    assertThat(lines).allSatisfy(line -> {
+      assertThat(line).startsWith("{\"resourceLogs\":[").endsWith("]}]}]}");
+      assertThat(JsonMapper.builder().build().map().fromJson(line)).containsKey("resourceLogs");
+    });
+    assertThat(String.join("", lines)).contains("\"stringValue\":\"message 9\"");
+  }
+}
@@ -0,0 +1,331 @@
+package io.avaje.logback.encoder;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.util.Duration;
+import ch.qos.logback.core.util.FileSize;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.ProtocolFamily;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+import static ch.qos.logback.classic.Level.INFO;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class JsonSocketAppenderTest {
+
+  @TempDir
+  Path dir;
+
+  private ILoggingEvent createLogEvent(String message) {
+    Logger logger = (Logger) LoggerFactory.getLogger("org.example.Foo");
+    return new LoggingEvent("org.example.Foo", logger, INFO, message, null, null);
+  }
+
+  private JsonSocketAppender createAppender(String destination) {
+    JsonSocketAppender appender = new JsonSocketAppender();
+    appender.setContext(new LoggerContext());
+    appender.setName("test");
+    appender.setDestination(destination);
+    appender.setReconnectDelay(Duration.buildByMilliseconds(10));
+    return appender;
+  }
+
+  @Test
+  void tcp() throws Exception {
+    try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+      CompletableFuture<List<String>> received = CompletableFuture.supplyAsync(() -> readLines(server, false, 100));
+
+      JsonSocketAppender appender = createAppender("127.0.0.1:" + server.getLocalPort());
+      appender.start();
+      for (int i = 0; i < 100; i++) {
+        appender.doAppend(createLogEvent("message " + i));
+      }
+      appender.stop();
+
+      List<String> lines = received.get(10, TimeUnit.SECONDS);
+      assertThat(lines).hasSize(100);
+      assertThat(lines.get(0)).contains("\"message\":\"message 0\"");
+      assertThat(lines.get(99)).contains("\"message\":\"message 99\"");
+      assertThat(appender.getDroppedCount()).isZero();
+    }
+  }
+
+  @Test
+  void tcp_compressed() throws Exception {
+    try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+      CompletableFuture<List<String>> received = CompletableFuture.supplyAsync(() -> readLines(server, true, 100));
+
+      JsonSocketAppender appender = createAppender("localhost:" + server.getLocalPort());
+      appender.setCompress(true);
+      appender.start();
+      for (int i = 0; i < 100; i++) {
+        appender.doAppend(createLogEvent("message " + i));
+      }
+      appender.stop();
+
+      assertThat(received.get(10, TimeUnit.SECONDS)).hasSize(100);
+      assertThat(appender.getCompressionMetrics().getRatio()).isGreaterThan(1);
+    }
+  }
+
+  @Test
+  void bufferWhileDisconnected_thenReconnect() throws Exception {
+    int port;
+    try (ServerSocket probe = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+      port = probe.getLocalPort();
+    }
+    JsonSocketAppender appender = createAppender("127.0.0.1:" + port);
+    appender.start();
+    for (int i = 0; i < 10; i++) {
+      appender.doAppend(createLogEvent("buffered " + i));
+    }
+    Thread.sleep(50);
+    try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+      CompletableFuture<List<String>> received = CompletableFuture.supplyAsync(() -> readLines(server, false, 10));
+      List<String> lines = received.get(10, TimeUnit.SECONDS);
+      assertThat(lines).hasSize(10);
+      assertThat(lines.get(9)).contains("buffered 9");
+    } finally {
+      appender.stop();
+    }
+  }
+
+  @Test
+  void bufferFull_dropsEvents() {
+    JsonSocketAppender appender = createAppender("127.0.0.1:1");
+    appender.setBufferSize(new FileSize(1024));
+    appender.setReconnectDelay(Duration.buildBySeconds(10));
+    appender.start();
+    for (int i = 0; i < 100; i++) {
+      appender.doAppend(createLogEvent("message " + i));
+    }
+    assertThat(appender.getDroppedCount()).isGreaterThan(80);
+    appender.stop();
+  }
+
+  @Test
+  void compact_reconnectReemitsDictionary() throws Exception {
+    try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+      JsonSocketAppender appender = createAppender("127.0.0.1:" + server.getLocalPort());
+      appender.setEncoder(new CompactJsonEncoder());
+      appender.start();
+      try {
+        try (Socket first = server.accept()) {
+          appender.doAppend(createLogEvent("before"));
+          readCompactEvents(first, 1);
+          // reset the connection such that the next write fails
+          first.setSoLinger(true, 0);
+        }
+        Thread.sleep(100);
+        appender.doAppend(createLogEvent("after 0"));
+        appender.doAppend(createLogEvent("after 1"));
+        try (Socket second = server.accept()) {
+          // the buffered events reference ids whose entries went to the first connection
+          byte[] compact = readCompactEvents(second, 2);
+          ByteArrayOutputStream out = new ByteArrayOutputStream();
+          new CompactJsonDecoder().decode(new ByteArrayInputStream(compact), out);
+          String decoded = out.toString(StandardCharsets.UTF_8);
+          assertThat(decoded).doesNotContain("#")
+            .contains("\"message\":\"after 0\"", "\"message\":\"after 1\"", "\"logger\":\"org.example.Foo\"");
+        }
+      } finally {
+        appender.stop();
+      }
+    }
+  }
+
+  /**
+   * Read compact lines until the expected number of event lines, returning the lines read.
+   */
+  private static byte[] readCompactEvents(Socket socket, int expected) throws IOException {
+    BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+    StringBuilder compact = new StringBuilder();
+    int events = 0;
+    String line;
+    while (events < expected && (line = reader.readLine()) != null) {
+      compact.append(line).append('\n');
+      if (Character.isDigit(line.charAt(1))) {
+        events++;
+      }
+    }
+    return compact.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Test
+  void spool_replayAfterRestart() throws Exception {
+    int port;
+    try (ServerSocket probe = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+      port = probe.getLocalPort();
+    }
+    JsonSocketAppender appender = createAppender("127.0.0.1:" + port);
+    appender.setBufferSize(new FileSize(1024));
+    appender.setSpool(dir.resolve("spool/shipper").toString());
+    appender.setReconnectDelay(Duration.buildBySeconds(10));
+    appender.start();
+    for (int i = 0; i < 100; i++) {
+      appender.doAppend(createLogEvent("message " + i));
+    }
+    appender.stop();
+    assertThat(appender.getDroppedCount()).isZero();
+
+    try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+      CompletableFuture<List<String>> received = CompletableFuture.supplyAsync(() -> readLines(server, false, 100));
+      JsonSocketAppender restarted = createAppender("127.0.0.1:" + port);
+      restarted.setSpool(dir.resolve("spool/shipper").toString());
+      restarted.start();
+      List<String> lines = received.get(10, TimeUnit.SECONDS);
+      restarted.stop();
+
+      assertThat(lines).hasSize(100);
+      assertThat(lines).anySatisfy(line -> assertThat(line).contains("\"message\":\"message 0\""));
+      assertThat(lines).anySatisfy(line -> assertThat(line).contains("\"message\":\"message 99\""));
+    }
+  }
+
+  @Test
+  void stop_blockedWrite_spoolsUnsentBatch() throws Exception {
+    int events = 2000;
+    String padding = "x".repeat(10_000);
+    List<String> lines = new ArrayList<>();
+    try (ServerSocket stalled = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+      // accept but never read, such that the sender blocks once the socket buffers are full
+      CompletableFuture<Socket> accepted = CompletableFuture.supplyAsync(() -> {
+        try {
+          return stalled.accept();
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+      JsonSocketAppender appender = createAppender("127.0.0.1:" + stalled.getLocalPort());
+      appender.setBufferSize(new FileSize(64 * FileSize.MB_COEFFICIENT));
+      appender.setSpool(dir.resolve("spool/shipper").toString());
+      appender.start();
+      for (int i = 0; i < events; i++) {
+        appender.doAppend(createLogEvent("message " + i + " " + padding));
+      }
+      appender.stop();
+      try (Socket socket = accepted.get(10, TimeUnit.SECONDS)) {
+        // the complete lines the stalled server had received before the connection was abandoned
+        String content = new String(socket.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        lines.addAll(List.of(content.substring(0, content.lastIndexOf('\n') + 1).split("\n")));
+      }
+    }
+
+    try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+      String last = "\"message\":\"message " + (events - 1) + " ";
+      CompletableFuture<List<String>> received = CompletableFuture.supplyAsync(() -> readUntil(server, last));
+      JsonSocketAppender restarted = createAppender("127.0.0.1:" + server.getLocalPort());
+      restarted.setSpool(dir.resolve("spool/shipper").toString());
+      restarted.start();
+      lines.addAll(received.get(30, TimeUnit.SECONDS));
+      restarted.stop();
+
+      // all events were either received before the stop or replayed from the spool
+      Set<Integer> indexes = new TreeSet<>();
+      Matcher matcher = Pattern.compile("\"message\":\"message (\\d+) ").matcher("");
+      for (String line : lines) {
+        assertThat(matcher.reset(line).find()).isTrue();
+        indexes.add(Integer.parseInt(matcher.group(1)));
+      }
+      assertThat(indexes).hasSize(events);
+    }
+  }
+
+  @Test
+  void unixDomainSocket() throws Exception {
+    if (Runtime.version().feature() < 16) {
+      return;
+    }
+    Path socketPath = dir.resolve("shipper.sock");
+    SocketAddress address = (SocketAddress) Class.forName("java.net.UnixDomainSocketAddress")
+      .getMethod("of", Path.class).invoke(null, socketPath);
+    ProtocolFamily unix = StandardProtocolFamily.valueOf("UNIX");
+    try (ServerSocketChannel server = (ServerSocketChannel) ServerSocketChannel.class
+      .getMethod("open", ProtocolFamily.class).invoke(null, unix)) {
+      server.bind(address);
+      CompletableFuture<List<String>> received = CompletableFuture.supplyAsync(() -> {
+        try (SocketChannel channel = server.accept()) {
+          return readLines(Channels.newInputStream(channel), 20);
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      });
+
+      JsonSocketAppender appender = createAppender("unix:" + socketPath);
+      appender.start();
+      for (int i = 0; i < 20; i++) {
+        appender.doAppend(createLogEvent("message " + i));
+      }
+      appender.stop();
+
+      assertThat(received.get(10, TimeUnit.SECONDS)).hasSize(20);
+    }
+  }
+
+  private static List<String> readLines(ServerSocket server, boolean gzip, int expected) {
+    try (Socket socket = server.accept()) {
+      InputStream in = socket.getInputStream();
+      return readLines(gzip ? new GZIPInputStream(in) : in, expected);
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static List<String> readUntil(ServerSocket server, String last) {
+    List<String> lines = new ArrayList<>();
+    try (Socket socket = server.accept()) {
+      BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+      String line;
+      while ((line = reader.readLine()) != null) {
+        lines.add(line);
+        if (line.contains(last)) {
+          break;
+        }
+      }
+      return lines;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static List<String> readLines(InputStream in, int expected) throws Exception {
+    List<String> lines = new CopyOnWriteArrayList<>();
+    BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+    String line;
+    while (lines.size() < expected && (line = reader.readLine()) != null) {
+      lines.add(line);
+    }
+    return lines;
+  }
+}
@@ -0,0 +1,285 @@
+package io.avaje.logback.encoder;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.util.Duration;
+import ch.qos.logback.core.util.FileSize;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+
+import static ch.qos.logback.classic.Level.INFO;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MappedFileAppenderTest {
+
+  @TempDir
+  Path dir;
+
+  private ILoggingEvent createLogEvent(String message) {
+    Logger logger = (Logger) LoggerFactory.getLogger("org.example.Foo");
+    return new LoggingEvent("org.example.Foo", logger, INFO, message, null, null);
+  }
+
+  private ILoggingEvent createLogEvent(String message, long timestamp) {
+    LoggingEvent event = (LoggingEvent) createLogEvent(message);
+    event.setTimeStamp(timestamp);
+    return event;
+  }
+
+  private MappedFileAppender createAppender() {
+    MappedFileAppender appender = new MappedFileAppender();
+    appender.setContext(new LoggerContext());
+    appender.setName("test");
+    appender.setFile(dir.resolve("app.log").toString());
+    return appender;
+  }
+
+  @Test
+  void append_rollsBySize() throws IOException {
+    MappedFileAppender appender = createAppender();
+    appender.setSegmentSize(new FileSize(2048));
+    appender.start();
+    for (int i = 0; i < 100; i++) {
+      appender.doAppend(createLogEvent("message " + i));
+    }
+    appender.stop();
+
+    List<Path> segments = segments();
+    assertThat(segments.size()).isGreaterThan(2);
+    List<String> lines = readLines(segments);
+    assertThat(lines).hasSize(100);
+    assertThat(lines.get(0)).contains("\"message\":\"message 0\"");
+    assertThat(lines.get(99)).contains("\"message\":\"message 99\"");
+    for (Path segment : segments) {
+      assertThat(Files.size(segment)).isLessThanOrEqualTo(2048);
+    }
+  }
+
+  @Test
+  void append_eventLargerThanSegment() throws IOException {
+    MappedFileAppender appender = createAppender();
+    appender.setSegmentSize(new FileSize(256));
+    appender.start();
+    appender.doAppend(createLogEvent("small"));
+    appender.doAppend(createLogEvent("x".repeat(1000)));
+    appender.doAppend(createLogEvent("after"));
+    appender.stop();
+
+    List<String> lines = readLines(segments());
+    assertThat(lines).hasSize(3);
+    assertThat(lines.get(1)).contains("x".repeat(1000));
+  }
+
+  @Test
+  void retention_maxSegments() throws IOException {
+    MappedFileAppender appender = createAppender();
+    appender.setSegmentSize(new FileSize(1024));
+    appender.setMaxSegments(2);
+    appender.start();
+    for (int i = 0; i < 100; i++) {
+      appender.doAppend(createLogEvent("message " + i));
+    }
+    appender.stop();
+
+    List<Path> segments = segments();
+    assertThat(segments).hasSize(2);
+    List<String> lines = readLines(segments);
+    assertThat(lines.get(lines.size() - 1)).contains("\"message\":\"message 99\"");
+  }
+
+  @Test
+  void durable_concurrentWriters() throws Exception {
+    MappedFileAppender appender = createAppender();
+    appender.setSegmentSize(new FileSize(16 * 1024));
+    appender.setDurable(true);
+    appender.start();
+
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      final int thread = t;
+      threads[t] = new Thread(() -> {
+        for (int i = 0; i < 200; i++) {
+          appender.doAppend(createLogEvent("t" + thread + " message " + i));
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertThat(appender.awaitCommit(appender.commitTicket(), 1000)).isTrue();
+    appender.stop();
+
+    assertThat(readLines(segments())).hasSize(800);
+  }
+
+  @Test
+  void durable_rollsWithConcurrentWriters() throws Exception {
+    MappedFileAppender appender = createAppender();
+    appender.setSegmentSize(new FileSize(1024));
+    appender.setDurable(true);
+    appender.start();
+
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      final int thread = t;
+      threads[t] = new Thread(() -> {
+        for (int i = 0; i < 100; i++) {
+          appender.doAppend(createLogEvent("t" + thread + " message " + i));
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    appender.stop();
+
+    List<Path> segments = segments();
+    assertThat(segments.size()).isGreaterThan(20);
+    List<String> lines = readLines(segments);
+    assertThat(lines).hasSize(400);
+    for (int t = 0; t < threads.length; t++) {
+      final String prefix = "\"message\":\"t" + t + " message ";
+      List<String> thread = lines.stream().filter(line -> line.contains(prefix)).collect(Collectors.toList());
+      assertThat(thread).hasSize(100);
+      assertThat(thread.get(99)).contains(prefix + "99\"");
+    }
+  }
+
+  @Test
+  void append_rollsByInterval() throws IOException {
+    MappedFileAppender appender = createAppender();
+    appender.setRollInterval(Duration.buildBySeconds(1));
+    appender.start();
+    long now = System.currentTimeMillis();
+    appender.doAppend(createLogEvent("first", now));
+    appender.doAppend(createLogEvent("same segment", now + 100));
+    appender.doAppend(createLogEvent("second", now + 2000));
+    appender.doAppend(createLogEvent("third", now + 4000));
+    appender.stop();
+
+    List<Path> segments = segments();
+    assertThat(segments).hasSize(3);
+    assertThat(Files.readAllLines(segments.get(0))).hasSize(2);
+    assertThat(Files.readAllLines(segments.get(1))).singleElement().asString().contains("\"message\":\"second\"");
+    assertThat(Files.readAllLines(segments.get(2))).singleElement().asString().contains("\"message\":\"third\"");
+  }
+
+  @Test
+  void durable_awaitCommitTicket() throws Exception {
+    MappedFileAppender appender = createAppender();
+    appender.setDurable(true);
+    appender.setAwaitCommit(false);
+    appender.start();
+    for (int i = 0; i < 10; i++) {
+      appender.doAppend(createLogEvent("audit " + i));
+    }
+    long ticket = appender.commitTicket();
+    assertThat(ticket).isEqualTo(10);
+    assertThat(appender.awaitCommit(ticket, 1000)).isTrue();
+    appender.stop();
+
+    assertThat(readLines(segments())).hasSize(10);
+  }
+
+  @Test
+  void durable_loneWriterNotDelayed() throws IOException {
+    MappedFileAppender appender = createAppender();
+    appender.setDurable(true);
+    appender.setMaxCommitLatency(Duration.buildBySeconds(10));
+    appender.start();
+    long start = System.nanoTime();
+    appender.doAppend(createLogEvent("lone"));
+    assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(5000);
+    appender.stop();
+
+    assertThat(readLines(segments())).hasSize(1);
+  }
+
+  @Test
+  void commitTicket_notDurable() {
+    MappedFileAppender appender = createAppender();
+    appender.start();
+    assertThatThrownBy(appender::commitTicket).isInstanceOf(IllegalStateException.class);
+    appender.stop();
+  }
+
+  @Test
+  void compress_rolledSegments() throws IOException {
+    MappedFileAppender appender = createAppender();
+    appender.setSegmentSize(new FileSize(4096));
+    appender.setCompress(true);
+    appender.setCompressionLevel(9);
+    appender.start();
+    for (int i = 0; i < 200; i++) {
+      appender.doAppend(createLogEvent("message " + i));
+    }
+    appender.stop();
+
+    List<Path> segments = segments();
+    assertThat(segments).allSatisfy(path -> assertThat(path.toString()).endsWith(".gz"));
+    List<String> lines = new ArrayList<>();
+    for (Path segment : segments) {
+      try (var in = new GZIPInputStream(Files.newInputStream(segment))) {
+        lines.addAll(List.of(new String(in.readAllBytes(), StandardCharsets.UTF_8).split("\n")));
+      }
+    }
+    assertThat(lines).hasSize(200);
+    assertThat(lines.get(199)).contains("\"message\":\"message 199\"");
+
+    CompressionMetrics metrics = appender.getCompressionMetrics();
+    assertThat(metrics.getBytesIn()).isGreaterThan(metrics.getBytesOut());
+    assertThat(metrics.getRatio()).isGreaterThan(2);
+  }
+
+  @Test
+  void start_recoversPartlyWrittenSegment() throws IOException {
+    byte[] content = "{\"a\":1}\n{\"b\":2}\n{\"c\":".getBytes(StandardCharsets.UTF_8);
+    byte[] presized = new byte[4096];
+    System.arraycopy(content, 0, presized, 0, content.length);
+    Path crashed = dir.resolve("app.log.00000007");
+    Files.write(crashed, presized);
+
+    MappedFileAppender appender = createAppender();
+    appender.start();
+    appender.doAppend(createLogEvent("next"));
+    appender.stop();
+
+    assertThat(Files.readAllLines(crashed)).containsExactly("{\"a\":1}", "{\"b\":2}");
+    List<Path> segments = segments();
+    assertThat(segments).hasSize(2);
+    assertThat(segments.get(1).getFileName().toString()).isEqualTo("app.log.00000008");
+    assertThat(Files.readAllLines(segments.get(1)).get(0)).contains("\"message\":\"next\"");
+  }
+
+  private List<Path> segments() throws IOException {
+    List<Path> segments = new ArrayList<>();
+    for (SegmentFiles.Entry entry : new SegmentFiles(dir.resolve("app.log")).list()) {
+      segments.add(entry.path());
+    }
+    return segments;
+  }
+
+  private static List<String> readLines(List<Path> segments) throws IOException {
+    List<String> lines = new ArrayList<>();
+    for (Path segment : segments) {
+      lines.addAll(Files.readAllLines(segment));
+    }
+    return lines;
+  }
+}
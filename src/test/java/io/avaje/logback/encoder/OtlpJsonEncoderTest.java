@@ -0,0 +1,125 @@
+package io.avaje.logback.encoder;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import io.avaje.json.mapper.JsonMapper;
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static ch.qos.logback.classic.Level.WARN;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class OtlpJsonEncoderTest {
+
+  private final JsonMapper mapper = JsonMapper.builder().build();
+
+  private ILoggingEvent createLogEvent(Throwable throwable) {
+    Logger logger = (Logger) LoggerFactory.getLogger("org.example.Foo");
+    LoggingEvent event = new LoggingEvent("org.example.Foo", logger, WARN, "Hi", throwable, null);
+    event.setInstant(Instant.ofEpochSecond(1714564800L, 123456789));
+    event.setMDCPropertyMap(Map.of("requestId", "r1", "trace_id", "5b8efff798038103d269b633813fc60c", "span_id", "eee19b7ec3c1b174"));
+    return event;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, Object> attributes(Object attributes) {
+    return ((List<Map<String, Object>>) attributes).stream()
+      .collect(Collectors.toMap(a -> (String) a.get("key"), a -> ((Map<String, Object>) a.get("value")).values().iterator().next()));
+  }
+
+  @Test
+  void encode() {
+    OtlpJsonEncoder encoder = new OtlpJsonEncoder();
+    encoder.setCustomFields("{\"region\":\"us-east\",\"shard\":42,\"canary\":true}");
+    encoder.start();
+
+    byte[] bytes = encoder.encode(createLogEvent(null));
+    Map<String, Object> record = mapper.map().fromJson(bytes);
+
+    assertThat(record).containsEntry("timeUnixNano", "1714564800123456789")
+      .containsEntry("severityNumber", 13L)
+      .containsEntry("severityText", "WARN")
+      .containsEntry("traceId", "5b8efff798038103d269b633813fc60c")
+      .containsEntry("spanId", "eee19b7ec3c1b174")
+      .containsEntry("body", Map.of("stringValue", "Hi"));
+    assertThat(attributes(record.get("attributes")))
+      .containsEntry("logger.name", "org.example.Foo")
+      .containsEntry("requestId", "r1")
+      .containsEntry("region", "us-east")
+      .containsEntry("shard", "42")
+      .containsEntry("canary", true)
+      .doesNotContainKeys("trace_id", "span_id", "exception.type");
+  }
+
+  @Test
+  void encode_customFieldListAndObject() {
+    OtlpJsonEncoder encoder = new OtlpJsonEncoder();
+    encoder.setCustomFields("{\"tags\":[\"a\",2,1.5],\"owner\":{\"team\":\"payments\",\"oncall\":false}}");
+    encoder.start();
+
+    Map<String, Object> record = mapper.map().fromJson(encoder.encode(createLogEvent(null)));
+    assertThat(attributes(record.get("attributes")))
+      .containsEntry("tags", Map.of("values", List.of(Map.of("stringValue", "a"), Map.of("intValue", "2"), Map.of("doubleValue", 1.5))))
+      .containsEntry("owner", Map.of("values", List.of(
+        Map.of("key", "team", "value", Map.of("stringValue", "payments")),
+        Map.of("key", "oncall", "value", Map.of("boolValue", false)))));
+  }
+
+  @Test
+  void encode_throwable() {
+    OtlpJsonEncoder encoder = new OtlpJsonEncoder();
+    encoder.start();
+
+    Map<String, Object> record = mapper.map().fromJson(encoder.encode(createLogEvent(new IllegalStateException("boom"))));
+    Map<String, Object> attributes = attributes(record.get("attributes"));
+    assertThat(attributes).containsEntry("exception.type", "java.lang.IllegalStateException")
+      .containsEntry("exception.message", "boom")
+      .containsKey("stackhash");
+    assertThat((String) attributes.get("exception.stacktrace")).startsWith("java.lang.IllegalStateException: boom");
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  void batchFraming() throws Exception {
+    OtlpJsonEncoder encoder = new OtlpJsonEncoder();
+    encoder.setComponent("my-service");
+    encoder.setEnvironment("dev");
+    encoder.setHost("my-host");
+    encoder.start();
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(encoder.batchHeader());
+    out.write(encoder.encode(createLogEvent(null)));
+    out.write(encoder.batchSeparator());
+    out.write(encoder.encode(createLogEvent(null)));
+    out.write(encoder.batchFooter());
+
+    Map<String, Object> request = mapper.map().fromJson(out.toByteArray());
+    Map<String, Object> resourceLogs = ((List<Map<String, Object>>) request.get("resourceLogs")).get(0);
+    Map<String, Object> resource = (Map<String, Object>) resourceLogs.get("resource");
+    assertThat(attributes(resource.get("attributes")))
+      .containsEntry("service.name", "my-service")
+      .containsEntry("deployment.environment", "dev")
+      .containsEntry("host.name", "my-host");
+    Map<String, Object> scopeLogs = ((List<Map<String, Object>>) resourceLogs.get("scopeLogs")).get(0);
+    assertThat((List<Object>) scopeLogs.get("logRecords")).hasSize(2);
+    assertThat(encoder.batchContentType()).isEqualTo("application/json");
+  }
+
+  @Test
+  void severityNumber() {
+    assertThat(OtlpJsonEncoder.severityNumber(Level.ERROR)).isEqualTo(17);
+    assertThat(OtlpJsonEncoder.severityNumber(Level.WARN)).isEqualTo(13);
+    assertThat(OtlpJsonEncoder.severityNumber(Level.INFO)).isEqualTo(9);
+    assertThat(OtlpJsonEncoder.severityNumber(Level.DEBUG)).isEqualTo(5);
+    assertThat(OtlpJsonEncoder.severityNumber(Level.TRACE)).isEqualTo(1);
+  }
+}
@@ -0,0 +1,43 @@
+package io.avaje.logback.encoder;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class Utf8BudgetTest {
+
+  @Test
+  void cut_fits() {
+    assertThat(Utf8Budget.cut("hello", 5)).isEqualTo(5);
+    assertThat(Utf8Budget.cut("hello", Integer.MAX_VALUE)).isEqualTo(5);
+    assertThat(Utf8Budget.cut("", 0)).isEqualTo(0);
+  }
+
+  @Test
+  void cut_ascii() {
+    assertThat(Utf8Budget.cut("hello world", 5)).isEqualTo(5);
+  }
+
+  @Test
+  void cut_escapes() {
+    // quote and newline encode as 2 bytes, control chars as 6
+    assertThat(Utf8Budget.cut("a\"b", 2)).isEqualTo(1);
+    assertThat(Utf8Budget.cut("a\nb", 3)).isEqualTo(2);
+    assertThat(Utf8Budget.cut("a\u0001b", 6)).isEqualTo(1);
+    assertThat(Utf8Budget.cut("a\u0001b", 7)).isEqualTo(2);
+  }
+
+  @Test
+  void cut_multiByte() {
+    assertThat(Utf8Budget.cut("éé", 3)).isEqualTo(1);
+    assertThat(Utf8Budget.cut("€€", 5)).isEqualTo(1);
+  }
+
+  @Test
+  void cut_surrogatePair() {
+    String value = "a😀b";
+    assertThat(Utf8Budget.cut(value, 4)).isEqualTo(1);
+    assertThat(Utf8Budget.cut(value, 5)).isEqualTo(3);
+    assertThat(Utf8Budget.cut(value, 6)).isEqualTo(4);
+  }
+}